@@ -1,5 +1,6 @@
 import requests
 import datetime
+import json
 
 zabbix_url    = 'https://localhost/zabbix/api_jsonrpc.php'
 zabbix_token  = 'secret'
@@ -15,6 +16,12 @@ sourcekey     = datetime.datetime.now().strftime("%d.%m.%Y, %H:%M:%S")
 session = requests.Session()
 session.verify = False
 
+ndjson_headers = {'Content-Type': 'application/x-ndjson'}
+
+def ndjson(objs):
+    for obj in objs:
+        yield (json.dumps(obj) + '\n').encode()
+
 zabbixSession = requests.Session()
 zabbixSession.verify = False
 zabbixSession.headers.update({"Authorization": "Bearer " + zabbix_token})
@@ -151,7 +158,7 @@ for problem in problems:
 
 start = datetime.datetime.now()
 print(str(start) + " Items Add Start ")
-response = session.post(api_url+'/api/v1/item', json=objs)
+response = session.post(api_url+'/api/v1/item', data=ndjson(objs), headers=ndjson_headers)
 end = datetime.datetime.now()
 print(str(end) + " Items Add End " + str(response.status_code) + " " + str(response.content))
 print(str(end) + " Spend time " + str(end - start))
@@ -165,7 +172,7 @@ print(str(end) + " Spend time " + str(end - start))
 
 start = datetime.datetime.now()
 print(str(start) + " Events Add Start ")
-response = session.post(api_url+'/api/v1/event', json=events)
+response = session.post(api_url+'/api/v1/event', data=ndjson(events), headers=ndjson_headers)
 end = datetime.datetime.now()
 print(str(end) + " Events Add End " + str(response.status_code) + " " + str(response.content))
 print(str(end) + " Spend time " + str(end - start))
@@ -1,5 +1,7 @@
 package ru.keich.mon.servicemanager;
 
+import java.util.Objects;
+
 import lombok.Getter;
 
 @Getter
@@ -14,7 +16,29 @@ public class QueueInfo<K> {
 	}
 	
 	public enum QueueInfoType {
-		UPDATE, UPDATED
+		UPDATE
+	}
+
+	@Override
+	public int hashCode() {
+		return Objects.hash(id, type);
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (obj == null)
+			return false;
+		if (getClass() != obj.getClass())
+			return false;
+		QueueInfo<?> other = (QueueInfo<?>) obj;
+		return Objects.equals(id, other.id) && type == other.type;
+	}
+
+	@Override
+	public String toString() {
+		return "QueueInfo [id=" + id + ", type=" + type + "]";
 	}
 	
 }
@@ -1,9 +1,23 @@
 package ru.keich.mon.servicemanager;
 
+import java.util.Set;
 import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.logging.Level;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import lombok.extern.java.Log;
+import ru.keich.mon.servicemanager.entity.EntityService;
 
 /*
  * Copyright 2024 the original author or authors.
@@ -21,6 +35,12 @@ import java.util.function.Consumer;
  * limitations under the License.
  */
 
+/*
+ * Values are spread over lanes by key. Every lane is read by its own virtual
+ * thread, so values with the same key are consumed one by one in the order
+ * they were added, and different keys are consumed in parallel.
+ */
+@Log
 public class QueueThreadReader<K> {
 	
 	static final public String METRIC_NAME_QUEUE = "queueThreadReader_";
@@ -28,25 +48,139 @@ public class QueueThreadReader<K> {
 	static final public String METRIC_NAME_SERVICENAME = "servicename";
 	static final public String METRIC_NAME_ADDED = "added";
 	static final public String METRIC_NAME_REMOVED = "removed";
-	static final Integer POLL_SECONDS = 30;
-	private BlockingQueue<K> queue = new LinkedBlockingDeque<K>();
+	static final public String METRIC_NAME_MERGED = "merged";
+	static final public String METRIC_NAME_PENDING = "pending";
+	static final public String METRIC_NAME_MERGE_RATIO = "merge_ratio";
+	static final Integer WAIT_SECONDS = 1;
+
+	private static final ThreadLocal<Boolean> LANE_THREAD = ThreadLocal.withInitial(() -> false);
+
+	private final BlockingQueue<K>[] lanes;
+	private final Function<K, Object> keyOf;
+	private final Consumer<K> consumer;
+	private final int capacity;
+	private final AtomicInteger size = new AtomicInteger();
+	private final AtomicInteger waiting = new AtomicInteger();
+	private final ReentrantLock capacityLock = new ReentrantLock();
+	private final Condition notFull = capacityLock.newCondition();
 
-	public QueueThreadReader(Consumer<K> consumer) {
+	/*
+	 * Values that are queued but not taken by a lane yet. Null when coalescing is off.
+	 */
+	private final Set<K> pending;
+	private final LongAdder added = new LongAdder();
+	private final LongAdder removed = new LongAdder();
+	private final LongAdder merged = new LongAdder();
+
+	/*
+	 * In coalescing mode a value equal to one that is still pending is dropped.
+	 * A lane forgets a value before handing it to the consumer, so a change
+	 * made while the consumer runs is queued again.
+	 */
+	@SuppressWarnings("unchecked")
+	public QueueThreadReader(int lanes, int capacity, boolean coalescing, Function<K, Object> keyOf, Consumer<K> consumer) {
 		super();
-		Thread.startVirtualThread(() -> {
-			while (true) {
-				try {
-					var info = queue.poll(POLL_SECONDS, TimeUnit.SECONDS);
-					if (info != null) Thread.startVirtualThread(() -> consumer.accept(info));
-				} catch (Exception v) {
-					v.printStackTrace();
+		this.lanes = new BlockingQueue[Math.max(1, lanes)];
+		this.capacity = capacity;
+		this.keyOf = keyOf;
+		this.consumer = consumer;
+		pending = coalescing ? ConcurrentHashMap.newKeySet() : null;
+		for (int i = 0; i < this.lanes.length; i++) {
+			var lane = new LinkedBlockingQueue<K>();
+			this.lanes[i] = lane;
+			Thread.startVirtualThread(() -> read(lane));
+		}
+	}
+
+	public QueueThreadReader(String serviceName, MeterRegistry registry, int lanes, int capacity, boolean coalescing,
+			Function<K, Object> keyOf, Consumer<K> consumer) {
+		this(lanes, capacity, coalescing, keyOf, consumer);
+		var tags = Tags.of(METRIC_NAME_SERVICENAME, serviceName);
+		var prefix = EntityService.METRIC_NAME_PREFIX + METRIC_NAME_QUEUE;
+		var opr = prefix + METRIC_NAME_OPERATION;
+		FunctionCounter.builder(opr, added, LongAdder::sum).tags(tags.and(METRIC_NAME_OPERATION, METRIC_NAME_ADDED)).register(registry);
+		FunctionCounter.builder(opr, removed, LongAdder::sum).tags(tags.and(METRIC_NAME_OPERATION, METRIC_NAME_REMOVED)).register(registry);
+		FunctionCounter.builder(opr, merged, LongAdder::sum).tags(tags.and(METRIC_NAME_OPERATION, METRIC_NAME_MERGED)).register(registry);
+		registry.gauge(prefix + METRIC_NAME_PENDING, tags, this, QueueThreadReader::size);
+		registry.gauge(prefix + METRIC_NAME_MERGE_RATIO, tags, this, QueueThreadReader::getMergeRatio);
+	}
+
+	private void read(BlockingQueue<K> lane) {
+		LANE_THREAD.set(true);
+		while (true) {
+			try {
+				var info = lane.take();
+				if (pending != null) {
+					pending.remove(info);
 				}
+				removed.increment();
+				size.decrementAndGet();
+				if (waiting.get() > 0) {
+					signalNotFull();
+				}
+				consumer.accept(info);
+			} catch (InterruptedException e) {
+				return;
+			} catch (Exception e) {
+				log.log(Level.WARNING, "Queue consumer failed", e);
 			}
-		});
+		}
 	}
 
+	/*
+	 * Never blocks, it is called from inside cache compute functions.
+	 */
 	public void add(K value) {
-		queue.add(value);
+		if (pending != null && !pending.add(value)) {
+			merged.increment();
+			return;
+		}
+		added.increment();
+		size.incrementAndGet();
+		var h = keyOf.apply(value).hashCode();
+		lanes[Math.floorMod(h ^ (h >>> 16), lanes.length)].add(value);
+	}
+
+	/*
+	 * Backpressure for producers. Call it outside of any lock, before changes
+	 * that add values. Lane threads of any reader pass through, they have to
+	 * keep draining.
+	 */
+	public void awaitCapacity() {
+		if (size.get() < capacity || LANE_THREAD.get()) {
+			return;
+		}
+		capacityLock.lock();
+		waiting.incrementAndGet();
+		try {
+			while (size.get() >= capacity) {
+				notFull.await(WAIT_SECONDS, TimeUnit.SECONDS);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			waiting.decrementAndGet();
+			capacityLock.unlock();
+		}
+	}
+
+	private void signalNotFull() {
+		capacityLock.lock();
+		try {
+			notFull.signalAll();
+		} finally {
+			capacityLock.unlock();
+		}
+	}
+
+	public int size() {
+		return size.get();
+	}
+
+	public double getMergeRatio() {
+		var m = merged.sum();
+		var total = added.sum() + m;
+		return total == 0 ? 0 : (double) m / total;
 	}
 
 }
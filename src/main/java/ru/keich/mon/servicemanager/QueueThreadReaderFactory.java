@@ -0,0 +1,51 @@
+package ru.keich.mon.servicemanager;
+
+import java.util.function.Consumer;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.MeterRegistry;
+
+/*
+ * Copyright 2026 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+@Component
+public class QueueThreadReaderFactory {
+
+	private final MeterRegistry registry;
+	private final int lanes;
+	private final int capacity;
+	private final boolean coalescing;
+
+	public QueueThreadReaderFactory(MeterRegistry registry,
+			@Value("${queue.lanes:0}") int lanes,
+			@Value("${queue.capacity:100000}") int capacity,
+			@Value("${queue.coalescing:true}") boolean coalescing) {
+		this.registry = registry;
+		this.lanes = lanes > 0 ? lanes : Runtime.getRuntime().availableProcessors() * 2;
+		this.capacity = capacity;
+		this.coalescing = coalescing;
+	}
+
+	/*
+	 * Changes of one entity id always go to the same lane.
+	 */
+	public <K> QueueThreadReader<QueueInfo<K>> create(String serviceName, Consumer<QueueInfo<K>> consumer) {
+		return new QueueThreadReader<QueueInfo<K>>(serviceName, registry, lanes, capacity, coalescing, QueueInfo::getId, consumer);
+	}
+
+}
@@ -1,32 +1,54 @@
 package ru.keich.mon.servicemanager;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import javax.net.ssl.SSLException;
 
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
+import io.micrometer.core.instrument.MeterRegistry;
 import ru.keich.mon.servicemanager.entity.EntityReplication;
 import ru.keich.mon.servicemanager.event.Event;
+import ru.keich.mon.servicemanager.event.EventBinaryCodec;
 import ru.keich.mon.servicemanager.event.EventService;
 import ru.keich.mon.servicemanager.item.Item;
+import ru.keich.mon.servicemanager.item.ItemBinaryCodec;
 import ru.keich.mon.servicemanager.item.ItemService;
 import ru.keich.mon.servicemanager.replication.Replication;
 
 @Configuration
 public class ReplicationConfig {
 
+	/*
+	 * replication.neighbors lists the peers separated by commas, a single
+	 * replication.neighbor is still taken when the list is not set.
+	 */
 	@Bean
-	@ConditionalOnProperty(name = "replication.neighbor")
-	Replication createReplication(EventService eventService, ItemService itemService,
+	@ConditionalOnExpression("'${replication.neighbors:${replication.neighbor:}}' != ''")
+	Replication createReplication(EventService eventService, ItemService itemService, MeterRegistry registry,
 			@Value("${replication.nodename}") String nodeName,
-			@Value("${replication.neighbor}") String replicationNeighbor) throws SSLException {
-		var eventReplication = new EntityReplication<String, Event>(eventService, nodeName, replicationNeighbor,
-				"/api/v1/event", Event.class);
-		var itemReplication = new EntityReplication<String, Item>(itemService, nodeName, replicationNeighbor,
-				"/api/v1/item", Item.class);
-		return new Replication(eventReplication, itemReplication);
+			@Value("${replication.neighbors:${replication.neighbor:}}") List<String> neighbors,
+			@Value("${replication.page.size:1000}") Integer pageSize,
+			@Value("${replication.format:binary}") String format,
+			@Value("${replication.resync.tree:true}") Boolean treeResync) throws SSLException {
+		var binary = "binary".equals(format);
+		var peers = new ArrayList<Replication.Peer>();
+		for (var neighbor : neighbors) {
+			neighbor = neighbor.trim();
+			if (neighbor.isEmpty()) {
+				continue;
+			}
+			var itemReplication = new EntityReplication<String, Item>(itemService, registry, nodeName, neighbor,
+					"/api/v1/item", Item.class, pageSize, binary ? new ItemBinaryCodec() : null, treeResync);
+			var eventReplication = new EntityReplication<String, Event>(eventService, registry, nodeName, neighbor,
+					"/api/v1/event", Event.class, pageSize, binary ? new EventBinaryCodec() : null, treeResync);
+			peers.add(new Replication.Peer(itemReplication, eventReplication));
+		}
+		return new Replication(peers);
 	}
 
 }
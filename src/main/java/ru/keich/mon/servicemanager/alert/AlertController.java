@@ -41,14 +41,15 @@ public class AlertController {
 	
 	@PostMapping("/api/v2/alerts")
 	public List<String> alerts(@RequestBody List<Alert> alerts) {
-		alerts.stream()
+		var events = alerts.stream()
 				.map(alertService::alertToEvent)
 				.filter(event -> { 
 					if(event.getEndsOn() != null) {
 						return Instant.now().isBefore(event.getEndsOn());
 					}
 					return true;
-				}).forEach(eventService::addOrUpdate);
+				}).toList();
+		eventService.addOrUpdateAll(events);
 		return Collections.emptyList();
 	}
 
@@ -13,6 +13,7 @@ import com.fasterxml.jackson.annotation.JsonIgnore;
 import lombok.Getter;
 import ru.keich.mon.servicemanager.BaseStatus;
 import ru.keich.mon.servicemanager.SourceType;
+import ru.keich.mon.servicemanager.util.PersistentHashMap;
 
 /*
  * Copyright 2024 the original author or authors.
@@ -83,7 +84,7 @@ public class Entity<K> {
 		this.createdOn = createdOn;
 		this.updatedOn = updatedOn;
 		this.deletedOn = deletedOn;
-		this.fields = fields;
+		this.fields = PersistentHashMap.of(fields);
 		this.status = status;
 	}
 	
@@ -163,6 +164,32 @@ public class Entity<K> {
 		return str;
 	}
 	
+	/*
+	 * True when the entity carries the same data as the stored one apart from version,
+	 * timestamps and fromHistory.
+	 */
+	public boolean hasSameContent(Entity<K> stored) {
+		return Objects.equals(source, stored.source)
+				&& Objects.equals(sourceKey, stored.sourceKey)
+				&& sourceType == stored.sourceType
+				&& status == stored.status
+				&& isDeleted() == stored.isDeleted()
+				&& Objects.equals(fields, stored.fields);
+	}
+
+	/*
+	 * Hash of the replicated content for EntityHashTree, equal on every node holding the
+	 * same state. Versions, timestamps and fromHistory are local and stay out.
+	 */
+	public long contentHash() {
+		var hash = EntityHashTree.hash(0L, Objects.hashCode(id));
+		hash = EntityHashTree.hash(hash, Objects.hashCode(source));
+		hash = EntityHashTree.hash(hash, Objects.hashCode(sourceKey));
+		hash = EntityHashTree.hash(hash, EntityHashTree.hashOf(sourceType));
+		hash = EntityHashTree.hash(hash, isDeleted() ? 1 : 0);
+		return EntityHashTree.hash(hash, EntityHashTree.hashOf(fields));
+	}
+
 	@JsonIgnore
 	public boolean isNotDeleted() {
 		return deletedOn == null;
@@ -1,15 +1,41 @@
 package ru.keich.mon.servicemanager.entity;
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.EnumMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.util.MultiValueMap;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import ru.keich.mon.servicemanager.persistence.BinaryChangeStream;
+import ru.keich.mon.servicemanager.persistence.EntityBinaryCodec;
 import ru.keich.mon.servicemanager.query.QueryParamsParser;
+import ru.keich.mon.servicemanager.util.LruCache;
+import tools.jackson.core.JacksonException;
+import tools.jackson.core.StreamWriteFeature;
+import tools.jackson.databind.ObjectWriter;
 import tools.jackson.databind.json.JsonMapper;
 import tools.jackson.databind.ser.std.SimpleBeanPropertyFilter;
 import tools.jackson.databind.ser.std.SimpleFilterProvider;
@@ -35,19 +61,93 @@ public class EntityController<K, T extends Entity<K>> {
 
 	private EntityService<K, T> entityService;
 
+	private final EntityBinaryCodec<T> codec;
+
 	public static final String FILTER_NAME = "propertiesFilter";
 
+	public static final String HEADER_NEXT_CURSOR = "KeichServiceManager-Next-Cursor";
+
+	public static final String CHANGES_EVENT_ENTITY = "entity";
+	public static final String CHANGES_EVENT_WATERMARK = "watermark";
+	public static final String CHANGES_EVENT_SYNCED = "synced";
+	public static final String CHANGES_EVENT_HEARTBEAT = "heartbeat";
+	public static final String CHANGES_SINCE = "since";
+	public static final String CHANGES_EXCLUDE = "exclude";
+	public static final String CHANGES_FOLLOW = "follow";
+	public static final String CHANGES_BUCKETS = "buckets";
+	public static final String TREE_LEVEL = "level";
+	public static final String TREE_NODES = "nodes";
+	public static final MediaType CHANGES_BINARY_TYPE = MediaType.parseMediaType(BinaryChangeStream.MEDIA_TYPE);
+	static final int CHANGES_BINARY_CHUNK = 1 << 16;
+
+	static final int WRITER_CACHE_SIZE = 256;
+
 	protected final SimpleFilterProvider jsonDefaultFilter;
 
-	public EntityController(EntityService<K, T> entityService) {
+	private final JsonMapper mapper = JsonMapper.builder().build();
+
+	private final LruCache<Set<String>, ObjectWriter> writers = new LruCache<>(WRITER_CACHE_SIZE);
+
+	@Value("${ingest.ndjson.window:1000}") Integer ndjsonWindow;
+
+	@Value("${changes.heartbeat.seconds:15}") Integer changesHeartbeatSeconds;
+
+	/*
+	 * The application mapper, so ndjson objects are read like the JSON array body.
+	 */
+	@Autowired
+	JsonMapper readMapper;
+
+	public EntityController(EntityService<K, T> entityService, EntityBinaryCodec<T> codec) {
 		super();
 		this.entityService = entityService;
+		this.codec = codec;
 		this.jsonDefaultFilter = new SimpleFilterProvider().addFilter(FILTER_NAME, SimpleBeanPropertyFilter.serializeAll()).setFailOnUnknownId(false);
 	}
 
-	public ResponseEntity<String> addOrUpdate(@RequestBody List<T> objs) {
-		objs.forEach(entityService::addOrUpdate);
-		return ResponseEntity.ok("ok");
+	public ResponseEntity<List<EntityUpdateResult<K>>> addOrUpdate(@RequestBody List<T> objs) {
+		return ResponseEntity.ok(entityService.addOrUpdateAll(objs));
+	}
+
+	/*
+	 * One object per line, applied every window objects, so memory does not grow
+	 * with the upload and the first objects are visible before it ends. A line that
+	 * does not parse is reported as FAILED and the rest is still applied.
+	 */
+	protected ResponseEntity<EntityIngestSummary<K>> addOrUpdateNdjson(InputStream body, Class<T> type) throws IOException {
+		var reader = readMapper.readerFor(type);
+		var counts = new EnumMap<EntityUpdateResult.Status, Long>(EntityUpdateResult.Status.class);
+		var failed = new ArrayList<EntityUpdateResult<K>>();
+		Consumer<EntityUpdateResult<K>> collect = r -> {
+			counts.merge(r.status(), 1L, Long::sum);
+			if (r.status() == EntityUpdateResult.Status.FAILED) {
+				failed.add(r);
+			}
+		};
+		var window = new ArrayList<T>(ndjsonWindow);
+		try (var lines = new BufferedReader(new InputStreamReader(body, StandardCharsets.UTF_8))) {
+			String line;
+			long lineNumber = 0;
+			while ((line = lines.readLine()) != null) {
+				lineNumber++;
+				if (line.isBlank()) {
+					continue;
+				}
+				try {
+					window.add(reader.readValue(line));
+				} catch (JacksonException e) {
+					collect.accept(new EntityUpdateResult<>(null, EntityUpdateResult.Status.FAILED, "line " + lineNumber + ": " + e.getOriginalMessage()));
+					continue;
+				}
+				if (window.size() >= ndjsonWindow) {
+					entityService.addOrUpdateAll(window).forEach(collect);
+					window.clear();
+				}
+			}
+		}
+		entityService.addOrUpdateAll(window).forEach(collect);
+		var total = counts.values().stream().mapToLong(Long::longValue).sum();
+		return ResponseEntity.ok(new EntityIngestSummary<>(total, counts, failed));
 	}
 
 	protected SimpleFilterProvider getJsonFilter(Set<String> properties){
@@ -57,14 +157,247 @@ public class EntityController<K, T extends Entity<K>> {
 		return jsonDefaultFilter;
 	}
 
+	/*
+	 * Writers share the mapper serializer caches, one is kept per property set.
+	 */
+	protected ObjectWriter getWriter(Set<String> properties) {
+		return writers.computeIfAbsent(Set.copyOf(properties), p -> mapper.writer(getJsonFilter(p)));
+	}
+
 	protected ResponseEntity<String> applyFilter(Object obj, QueryParamsParser qp) {
-		var jsonFilter = getJsonFilter(qp.getProperties());
-		var mapper = JsonMapper.builder().filterProvider(jsonFilter).build();
-		return ResponseEntity.ok(mapper.writeValueAsString(obj));
+		return ResponseEntity.ok(getWriter(qp.getProperties()).writeValueAsString(obj));
+	}
+
+	/*
+	 * Entities are written to the response one by one as a JSON array, or as
+	 * one JSON document per line when ndjson is set.
+	 */
+	protected ResponseEntity<StreamingResponseBody> applyFilterStreaming(Stream<T> data, QueryParamsParser qp, boolean ndjson) {
+		return ResponseEntity.ok()
+				.contentType(ndjson ? MediaType.APPLICATION_NDJSON : MediaType.APPLICATION_JSON)
+				.body(streamingBody(data, qp, ndjson));
+	}
+
+	private StreamingResponseBody streamingBody(Stream<T> data, QueryParamsParser qp, boolean ndjson) {
+		var writer = getWriter(qp.getProperties()).without(StreamWriteFeature.AUTO_CLOSE_TARGET);
+		return out -> {
+			try (data) {
+				if (ndjson) {
+					var it = data.iterator();
+					while (it.hasNext()) {
+						writer.writeValue(out, it.next());
+						out.write('\n');
+					}
+				} else {
+					try (var array = writer.writeValuesAsArray(out)) {
+						data.forEachOrdered(array::write);
+					}
+				}
+			}
+		};
+	}
+
+	/*
+	 * A page is bounded by the limit, so it is collected to know the cursor before the body is written.
+	 * Next cursor is sent only for a full page.
+	 */
+	protected ResponseEntity<StreamingResponseBody> applyFilterPage(Stream<T> data, QueryParamsParser qp, boolean ndjson) {
+		var page = data.toList();
+		var response = ResponseEntity.ok()
+				.contentType(ndjson ? MediaType.APPLICATION_NDJSON : MediaType.APPLICATION_JSON);
+		if (!page.isEmpty() && page.size() >= qp.getLimit()) {
+			var last = page.get(page.size() - 1);
+			response.header(HEADER_NEXT_CURSOR, QueryParamsParser.encodeCursor(last.getVersion()));
+		}
+		return response.body(streamingBody(page.stream(), qp, ndjson));
+	}
+
+	/*
+	 * Where the change feed writes, flush ends a round.
+	 */
+	private interface ChangeSink<T> {
+
+		void entity(T entity) throws IOException;
+
+		void marker(String event, long version) throws IOException;
+
+		void heartbeat() throws IOException;
+
+		default void flush() throws IOException {}
+
+	}
+
+	/*
+	 * Server-sent events of every entity committed after the version, id is the entity
+	 * version so Last-Event-ID resumes a dropped stream. A watermark follows every round,
+	 * it moves the resume point over entities left out by exclude, the node name skipped
+	 * by fromHistory. synced is sent once the backlog is out, without follow the stream
+	 * ends there. buckets limits the feed to EntityHashTree buckets for a resync.
+	 * A Last-Event-ID that is not a version is answered with 400.
+	 */
+	protected SseEmitter changes(long since, String lastEventId, String exclude, boolean follow, String buckets) {
+		var version = lastEventId == null || lastEventId.isBlank() ? since : parseVersion(lastEventId);
+		var emitter = new SseEmitter(0L);
+		var writer = getWriter(Collections.emptySet());
+		var sink = new ChangeSink<T>() {
+
+			@Override
+			public void entity(T entity) throws IOException {
+				emitter.send(SseEmitter.event()
+						.id(String.valueOf(entity.getVersion()))
+						.name(CHANGES_EVENT_ENTITY)
+						.data(writer.writeValueAsString(entity)));
+			}
+
+			@Override
+			public void marker(String event, long version) throws IOException {
+				emitter.send(SseEmitter.event().id(String.valueOf(version)).name(event).data(String.valueOf(version)));
+			}
+
+			@Override
+			public void heartbeat() throws IOException {
+				emitter.send(SseEmitter.event().comment(CHANGES_EVENT_HEARTBEAT));
+			}
+
+		};
+		var bucketSet = buckets == null ? null : EntityHashTree.decode(buckets);
+		Thread.startVirtualThread(() -> streamChanges(emitter, sink, version, exclude, follow, bucketSet));
+		return emitter;
+	}
+
+	/*
+	 * The same feed as BinaryChangeStream frames, sent every CHANGES_BINARY_CHUNK bytes
+	 * and at the end of every round.
+	 */
+	protected ResponseEntity<ResponseBodyEmitter> changesBinary(long since, String exclude, boolean follow, String buckets) {
+		var emitter = new ResponseBodyEmitter(0L);
+		var writer = new BinaryChangeStream.Writer<T>(codec);
+		var sink = new ChangeSink<T>() {
+
+			@Override
+			public void entity(T entity) throws IOException {
+				writer.entity(entity);
+				if (writer.size() >= CHANGES_BINARY_CHUNK) {
+					flush();
+				}
+			}
+
+			@Override
+			public void marker(String event, long version) throws IOException {
+				writer.marker(CHANGES_EVENT_SYNCED.equals(event) ? BinaryChangeStream.FRAME_SYNCED : BinaryChangeStream.FRAME_WATERMARK, version);
+			}
+
+			@Override
+			public void heartbeat() throws IOException {
+				writer.heartbeat();
+				flush();
+			}
+
+			@Override
+			public void flush() throws IOException {
+				if (writer.size() > 0) {
+					emitter.send(writer.drain(), CHANGES_BINARY_TYPE);
+				}
+			}
+
+		};
+		var bucketSet = buckets == null ? null : EntityHashTree.decode(buckets);
+		Thread.startVirtualThread(() -> streamChanges(emitter, sink, since, exclude, follow, bucketSet));
+		return ResponseEntity.ok().contentType(CHANGES_BINARY_TYPE).body(emitter);
+	}
+
+	private void streamChanges(ResponseBodyEmitter emitter, ChangeSink<T> sink, long version, String exclude, boolean follow, BitSet buckets) {
+		var synced = false;
+		try {
+			while (true) {
+				var committed = entityService.getCommittedVersion();
+				if (committed > version) {
+					for (var entity : entityService.findChanges(version, committed, buckets)) {
+						if (exclude == null || !entity.getFromHistory().contains(exclude)) {
+							sink.entity(entity);
+						}
+					}
+					version = committed;
+					sink.marker(CHANGES_EVENT_WATERMARK, version);
+				}
+				if (!synced) {
+					synced = true;
+					sink.marker(CHANGES_EVENT_SYNCED, version);
+					if (!follow) {
+						sink.flush();
+						break;
+					}
+				}
+				sink.flush();
+				if (!entityService.awaitCommitted(version, changesHeartbeatSeconds, TimeUnit.SECONDS)) {
+					sink.heartbeat();
+				}
+			}
+			emitter.complete();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			emitter.complete();
+		} catch (IOException | RuntimeException e) {
+			emitter.completeWithError(e);
+		}
+	}
+
+	private static long parseVersion(String lastEventId) {
+		try {
+			return Long.parseLong(lastEventId.trim());
+		} catch (NumberFormatException e) {
+			throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Last-Event-ID is not a version: " + lastEventId);
+		}
+	}
+
+	/*
+	 * Hash tree nodes of the level, the committed version is taken first so a resync
+	 * that resumes the feed from it misses nothing changed while the tree is compared.
+	 */
+	protected ResponseEntity<EntityHashTree.Level> tree(int level, String nodes) {
+		if (level < 0 || level > EntityHashTree.DEPTH) {
+			return ResponseEntity.badRequest().build();
+		}
+		var committed = entityService.getCommittedVersion();
+		var hashes = entityService.getHashTree().hashes(level, nodes == null ? null : EntityHashTree.decode(nodes));
+		return ResponseEntity.ok(new EntityHashTree.Level(committed, level, hashes));
+	}
+
+	protected static boolean isNdjson(String accept) {
+		if (accept == null || accept.isBlank()) {
+			return false;
+		}
+		return MediaType.parseMediaTypes(accept).stream()
+				.filter(m -> m.isCompatibleWith(MediaType.APPLICATION_JSON) || m.isCompatibleWith(MediaType.APPLICATION_NDJSON))
+				.findFirst()
+				.map(MediaType.APPLICATION_NDJSON::equalsTypeAndSubtype)
+				.orElse(false);
+	}
+
+	public ResponseEntity<StreamingResponseBody> find(MultiValueMap<String, String> reqParam, String accept) {
+		var query = new QueryParamsParser(reqParam, entityService::fieldValueOf);
+		if (query.isExplain()) {
+			var explain = entityService.explain(query);
+			StreamingResponseBody body = out -> mapper.writer()
+					.without(StreamWriteFeature.AUTO_CLOSE_TARGET)
+					.writeValue(out, explain);
+			return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(body);
+		}
+		var ndjson = isNdjson(accept);
+		return entityService.sortAndLimitEnrich(query, entityService::find, (s, qp) -> {
+			if (qp.isHasCursor()) {
+				return applyFilterPage(s, qp, ndjson);
+			}
+			return applyFilterStreaming(s, qp, ndjson);
+		});
+	}
+
+	public ResponseEntity<String> count(MultiValueMap<String, String> reqParam) {
+		return ResponseEntity.ok(mapper.writeValueAsString(entityService.count(reqParam)));
 	}
 
-	public ResponseEntity<String> find(MultiValueMap<String, String> reqParam) {
-		return entityService.sortAndLimitEnrich(reqParam, entityService::find, (s, qp) -> applyFilter(s.toList(), qp));
+	public ResponseEntity<String> aggregate(MultiValueMap<String, String> reqParam) {
+		return ResponseEntity.ok(mapper.writeValueAsString(entityService.aggregate(reqParam)));
 	}
 
 	public ResponseEntity<String> findById(K id, MultiValueMap<String, String> reqParam) {
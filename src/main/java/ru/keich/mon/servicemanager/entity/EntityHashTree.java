@@ -0,0 +1,147 @@
+package ru.keich.mon.servicemanager.entity;
+
+import java.util.Base64;
+import java.util.BitSet;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * Copyright 2026 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/*
+ * Digest of the entities for anti-entropy. Ids go to BUCKETS leaves by hash and a leaf
+ * is the XOR of the content hashes in it, so a change updates one leaf in place. The
+ * levels above are XORs of FANOUT children computed on request, two nodes walk down
+ * from the root and go on only where the hashes differ.
+ */
+public class EntityHashTree {
+	public static final int FANOUT_BITS = 4;
+	public static final int FANOUT = 1 << FANOUT_BITS;
+	public static final int DEPTH = 3;
+	public static final int BUCKETS = 1 << (FANOUT_BITS * DEPTH);
+
+	/*
+	 * Hashes of the selected nodes at the level in node order, committed is the feed
+	 * version taken before them.
+	 */
+	public record Level(long committed, int level, long[] hashes) {}
+
+	private final AtomicLongArray leaves = new AtomicLongArray(BUCKETS);
+	private final LongAdder size = new LongAdder();
+
+	public void update(Entity<?> oldEntity, Entity<?> entity) {
+		var id = entity != null ? entity.getId() : oldEntity.getId();
+		var delta = 0L;
+		if (oldEntity != null) {
+			delta ^= oldEntity.contentHash();
+			size.decrement();
+		}
+		if (entity != null) {
+			delta ^= entity.contentHash();
+			size.increment();
+		}
+		var bucket = bucketOf(id);
+		var xor = delta;
+		leaves.getAndUpdate(bucket, h -> h ^ xor);
+	}
+
+	public long size() {
+		return size.sum();
+	}
+
+	public static int levelSize(int level) {
+		return 1 << (FANOUT_BITS * level);
+	}
+
+	/*
+	 * nodes null selects the whole level.
+	 */
+	public long[] hashes(int level, BitSet nodes) {
+		var levelSize = levelSize(level);
+		var selected = nodes == null ? all(levelSize) : nodes.get(0, levelSize);
+		var shift = FANOUT_BITS * (DEPTH - level);
+		var out = new long[selected.cardinality()];
+		var i = 0;
+		for (var node = selected.nextSetBit(0); node >= 0; node = selected.nextSetBit(node + 1)) {
+			var hash = 0L;
+			for (int leaf = node << shift, end = (node + 1) << shift; leaf < end; leaf++) {
+				hash ^= leaves.get(leaf);
+			}
+			out[i++] = hash;
+		}
+		return out;
+	}
+
+	public static BitSet all(int size) {
+		var out = new BitSet(size);
+		out.set(0, size);
+		return out;
+	}
+
+	public static BitSet children(BitSet nodes) {
+		var out = new BitSet();
+		for (var node = nodes.nextSetBit(0); node >= 0; node = nodes.nextSetBit(node + 1)) {
+			out.set(node << FANOUT_BITS, (node + 1) << FANOUT_BITS);
+		}
+		return out;
+	}
+
+	public static int bucketOf(Object id) {
+		return (int) (mix(id.hashCode()) >>> (Long.SIZE - FANOUT_BITS * DEPTH));
+	}
+
+	/*
+	 * Node sets go in query strings as base64url bitmaps, the leaf level takes 683 characters at most.
+	 */
+	public static String encode(BitSet nodes) {
+		return Base64.getUrlEncoder().withoutPadding().encodeToString(nodes.toByteArray());
+	}
+
+	public static BitSet decode(String nodes) {
+		return BitSet.valueOf(Base64.getUrlDecoder().decode(nodes));
+	}
+
+	/*
+	 * Content hashes are built from String and Instant hash codes, enums by name and
+	 * maps as the sum over entries, so they are the same in every JVM.
+	 */
+	public static long hash(long hash, int value) {
+		return mix(hash * 0x9e3779b97f4a7c15L + value);
+	}
+
+	public static int hashOf(Enum<?> value) {
+		return value == null ? 0 : value.name().hashCode();
+	}
+
+	public static int hashOf(Map<String, ?> map) {
+		if (map == null) {
+			return 0;
+		}
+		var out = 0;
+		for (var e : map.entrySet()) {
+			out += e.getKey().hashCode() ^ String.valueOf(e.getValue()).hashCode();
+		}
+		return out;
+	}
+
+	private static long mix(long h) {
+		h = (h ^ (h >>> 30)) * 0xbf58476d1ce4e5b9L;
+		h = (h ^ (h >>> 27)) * 0x94d049bb133111ebL;
+		return h ^ (h >>> 31);
+	}
+
+}
@@ -1,7 +1,7 @@
 package ru.keich.mon.servicemanager.entity;
 
-import java.util.Set;
-
+import java.util.List;
+import java.util.Map;
 
 /*
  * Copyright 2026 the original author or authors.
@@ -19,6 +19,7 @@ import java.util.Set;
  * limitations under the License.
  */
 
-public interface EntitySearchResult<K> {
-	public Set<K> getResult();
-}
+/*
+ * Result of a streamed ingest, only the failed objects are listed one by one.
+ */
+public record EntityIngestSummary<K>(long total, Map<EntityUpdateResult.Status, Long> counts, List<EntityUpdateResult<K>> failed) {}
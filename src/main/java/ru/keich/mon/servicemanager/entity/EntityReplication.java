@@ -1,21 +1,45 @@
 package ru.keich.mon.servicemanager.entity;
 
 import java.net.URI;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.net.ssl.SSLException;
 
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
 import org.springframework.http.MediaType;
+import org.springframework.http.codec.ServerSentEvent;
 import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.web.reactive.function.client.ClientResponse;
 import org.springframework.web.reactive.function.client.ExchangeStrategies;
 import org.springframework.web.reactive.function.client.WebClient;
 import org.springframework.web.util.UriBuilder;
 
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
 import io.netty.handler.ssl.SslContextBuilder;
 import io.netty.handler.ssl.util.InsecureTrustManagerFactory;
 import lombok.extern.java.Log;
 import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.SignalType;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
 import reactor.netty.http.client.HttpClient;
 import ru.keich.mon.servicemanager.AddResponseHeaderFilter;
+import ru.keich.mon.servicemanager.persistence.BinaryChangeStream;
+import ru.keich.mon.servicemanager.persistence.EntityBinaryCodec;
+import tools.jackson.databind.DeserializationFeature;
+import tools.jackson.databind.json.JsonMapper;
 
 /*
  * Copyright 2024 the original author or authors.
@@ -36,22 +60,68 @@ import ru.keich.mon.servicemanager.AddResponseHeaderFilter;
 @Log
 public class EntityReplication<K, T extends Entity<K>> {
 
+	static final String CHANGES_PATH = "/_changes";
+	static final String TREE_PATH = "/_tree";
+	static final Duration BUFFER_TIMEOUT = Duration.ofMillis(10);
+	static final int APPLY_PREFETCH = 4;
+	static final public String METRIC_NAME_REPLICATION = "replication_";
+	static final public String METRIC_NAME_PEER = "peer";
+	static final public String METRIC_NAME_RECEIVED = "received";
+	static final public String METRIC_NAME_LAG = "lag_seconds";
+	static final public String METRIC_NAME_DELAY = "delay";
+	static final public String METRIC_NAME_VERSION = "version";
+	static final public String METRIC_NAME_ACTIVE = "active";
+
+	private static final ParameterizedTypeReference<ServerSentEvent<String>> SSE_TYPE = new ParameterizedTypeReference<>() {};
+	private static final MediaType SSE_FALLBACK = new MediaType(MediaType.TEXT_EVENT_STREAM, Map.of("q", "0.5"));
+
+	/*
+	 * One change of the feed whatever the wire format, entity is set for CHANGES_EVENT_ENTITY.
+	 */
+	private record Change<T>(String event, T entity, long version) {}
+
 	private final String nodeName;
 	private final String replicationNeighbor;
 	private final String path;
 	private final Class<T> elementClass;
+	private final int pageSize;
+	private final EntityBinaryCodec<T> codec;
+	private final boolean treeResync;
 	
 	private final EntityService<K, T> entityService;
 	private final WebClient webClient;
+	private final JsonMapper mapper = JsonMapper.builder()
+			.disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES)
+			.build();
 	
 	private final EntityReplicationState state = new EntityReplicationState();
-	
-	public EntityReplication(EntityService<K, T> entityService, String nodeName, String replicationNeighbor, String path, Class<T> elementClass) throws SSLException {
+	private final Counter metricReceived;
+	private final Timer metricDelay;
+	private volatile long caughtUpOn = System.currentTimeMillis();
+
+	/*
+	 * Pages are applied off the Netty event loop and the buffer timer, addOrUpdateAll
+	 * may wait for queue capacity. One thread per peer keeps pages in order, and the
+	 * buffer honours its demand so a slow apply holds back the feed.
+	 */
+	private final Scheduler applyScheduler;
+
+	/*
+	 * With a codec the binary feed is asked for first, JSON server-sent events stay the fallback.
+	 * With treeResync a first run over local data pulls only the hash tree buckets that differ.
+	 * Metrics are tagged with the neighbor, every peer has its own replication.
+	 */
+	public EntityReplication(EntityService<K, T> entityService, MeterRegistry registry, String nodeName, String replicationNeighbor, String path,
+			Class<T> elementClass, int pageSize, EntityBinaryCodec<T> codec, boolean treeResync) throws SSLException {
 		this.entityService = entityService;
+		this.pageSize = pageSize;
+		this.codec = codec;
+		this.treeResync = treeResync;
 		this.nodeName = nodeName;
 		this.replicationNeighbor = replicationNeighbor;
 		this.path = path;
 		this.elementClass = elementClass;
+		applyScheduler = Schedulers.newSingle("replication" + path + "-" + replicationNeighbor, true);
 		final ExchangeStrategies strategies = ExchangeStrategies.builder()
 				.codecs(codecs -> codecs.defaultCodecs().maxInMemorySize(2621440)).build();
 		var sslContext = SslContextBuilder.forClient().trustManager(InsecureTrustManagerFactory.INSTANCE).build();
@@ -60,67 +130,291 @@ public class EntityReplication<K, T extends Entity<K>> {
 				.builder().baseUrl(replicationNeighbor + path)
 				.clientConnector(new ReactorClientHttpConnector(httpClient))
 				.exchangeStrategies(strategies).build();
+		var tags = Tags.of(EntityService.METRIC_NAME_SERVICENAME, entityService.getClass().getSimpleName(), METRIC_NAME_PEER, replicationNeighbor);
+		var prefix = EntityService.METRIC_NAME_PREFIX + METRIC_NAME_REPLICATION;
+		metricReceived = registry.counter(prefix + METRIC_NAME_RECEIVED, tags);
+		metricDelay = registry.timer(prefix + METRIC_NAME_DELAY, tags);
+		registry.gauge(prefix + METRIC_NAME_LAG, tags, this, EntityReplication::getLagSeconds);
+		registry.gauge(prefix + METRIC_NAME_VERSION, tags, state, EntityReplicationState::getMaxVersion);
+		registry.gauge(prefix + METRIC_NAME_ACTIVE, tags, state, s -> s.isActive() ? 1 : 0);
+	}
+
+	/*
+	 * Time since the neighbor last had nothing more to send: a watermark ends every
+	 * round and a heartbeat comes while idle, so on a connected feed it stays under the
+	 * heartbeat period and a dropped or stuck one grows. How far behind the applied
+	 * entities are is the delay timer.
+	 */
+	public double getLagSeconds() {
+		return (System.currentTimeMillis() - caughtUpOn) / 1000.0;
 	}
 	
-	public URI getUri(UriBuilder uriBuilder) {
-		if(state.isFirstRun()) {
-			return uriBuilder.queryParam(Entity.FIELD_VERSION, "gt:0").build();
+	/*
+	 * The first run takes everything, later runs resume after the last version seen
+	 * and leave out what came from this node.
+	 */
+	public URI getUri(UriBuilder uriBuilder, boolean firstRun) {
+		return getUri(uriBuilder, firstRun, null);
+	}
+
+	/*
+	 * buckets limits a first run to the hash tree buckets, it ends at synced.
+	 */
+	public URI getUri(UriBuilder uriBuilder, boolean firstRun, BitSet buckets) {
+		uriBuilder.path(CHANGES_PATH);
+		if (buckets != null) {
+			return uriBuilder.queryParam(EntityController.CHANGES_SINCE, 0)
+					.queryParam(EntityController.CHANGES_FOLLOW, false)
+					.queryParam(EntityController.CHANGES_BUCKETS, EntityHashTree.encode(buckets)).build();
 		}
-		return uriBuilder.queryParam(Entity.FIELD_VERSION, "gt:" + state.getMaxVersion())
-		.queryParam(Entity.FIELD_FROMHISTORY, "ni:" + nodeName).build();
+		if(firstRun) {
+			return uriBuilder.queryParam(EntityController.CHANGES_SINCE, 0).build();
+		}
+		return uriBuilder.queryParam(EntityController.CHANGES_SINCE, state.getMaxVersion())
+				.queryParam(EntityController.CHANGES_EXCLUDE, nodeName).build();
 	}
 	
 	public void doReplication() {
 		doReplication(() -> {});
 	}
 	
-	public void doReplication(Runnable onFinally) {
+	/*
+	 * Subscribes to the neighbor change feed. onSynced runs once the backlog is applied,
+	 * or when the subscription ends before that. The first run stops at synced and
+	 * reconnects at once in the resume mode.
+	 */
+	public void doReplication(Runnable onSynced) {
 		if ("none".equals(replicationNeighbor)) {
 			return;
 		}
 		
 		if (state.isActive()) {
-			log.info("Entity " + path + ". Replication still active. State [ " + state.toString() + " ]");
+			if (!state.isFirstRun()) {
+				onSynced.run();
+			}
 			return;
 		}
 
 		state.reset();
 
-		webClient.get()
-				.uri(this::getUri)
-				.accept(MediaType.APPLICATION_JSON)
+		var firstRun = state.isFirstRun();
+		var syncedDone = new AtomicBoolean();
+		Runnable synced = () -> {
+			if (syncedDone.compareAndSet(false, true)) {
+				onSynced.run();
+			}
+		};
+		var feed = firstRun && treeResync && entityService.getHashTree().size() > 0 ? resync() : changes(firstRun, null);
+		feed
+				.takeUntil(event -> firstRun && EntityController.CHANGES_EVENT_SYNCED.equals(event.event()))
+				.bufferTimeout(pageSize, BUFFER_TIMEOUT, true)
+				.publishOn(applyScheduler, APPLY_PREFETCH)
+				.doFirst(() -> {
+					state.setActiveTrue();
+					log.info("Entity " + path + ". Replication start. State [ " + state.toString() + " ]");
+				})
+				.doOnNext(events -> apply(events, synced))
+				.doFinally(s -> {
+					state.setActiveFalse();
+					log.info("Entity " + path + ". Replication is stopped by " + s + ". State [ " + state.toString() + " ]");
+					synced.run();
+					if (firstRun && !state.isFirstRun() && s == SignalType.ON_COMPLETE) {
+						doReplication(onSynced);
+					}
+				})
+				.subscribe();
+	}
+
+	private void apply(List<Change<T>> changes, Runnable onSynced) {
+		var entities = new ArrayList<T>(changes.size());
+		var synced = false;
+		var caughtUp = false;
+		var now = Instant.now();
+		for (var change : changes) {
+			switch (change.event()) {
+			case EntityController.CHANGES_EVENT_ENTITY:
+				var entity = change.entity();
+				state.updateVersion(change.version());
+				state.incrementCounters(entity.getDeletedOn());
+				if (!state.isFirstRun() && entity.getUpdatedOn() != null) {
+					metricDelay.record(Duration.between(entity.getUpdatedOn(), now));
+				}
+				entities.add(entity);
+				break;
+			case EntityController.CHANGES_EVENT_WATERMARK:
+				state.updateVersion(change.version());
+				caughtUp = true;
+				break;
+			case EntityController.CHANGES_EVENT_SYNCED:
+				synced = true;
+				caughtUp = true;
+				break;
+			case EntityController.CHANGES_EVENT_HEARTBEAT:
+				caughtUp = true;
+				break;
+			}
+		}
+		entityService.addOrUpdateAll(entities);
+		metricReceived.increment(entities.size());
+		if (caughtUp) {
+			caughtUpOn = System.currentTimeMillis();
+		}
+		if (synced) {
+			state.setFirstRunFalse();
+			log.info("Entity " + path + ". Replication is synced. State [ " + state.toString() + " ]");
+			onSynced.run();
+		}
+	}
+
+	/*
+	 * The neighbor start time is checked on connect, a restarted neighbor has new
+	 * versions so the next run starts over.
+	 */
+	private Flux<Change<T>> changes(boolean firstRun, BitSet buckets) {
+		return webClient.get()
+				.uri(uriBuilder -> getUri(uriBuilder, firstRun, buckets))
+				.accept(codec == null ? new MediaType[] { MediaType.TEXT_EVENT_STREAM } : new MediaType[] { EntityController.CHANGES_BINARY_TYPE, SSE_FALLBACK })
 				.exchangeToFlux(response -> {
 					var startTime = response.headers().header(AddResponseHeaderFilter.HEADER_START_TIME).stream()
 							.findFirst().orElse("");
-					if (state.isFirstRun()) {
+					if (firstRun) {
 						state.setNeighborStartTime(startTime);
 					} else {
 						if (!state.getNeighborStartTime().equals(startTime)) {
 							var exception = new ChangedNeighborStartTimeException(
 									"NeighborStartTime is changed from " + state.getNeighborStartTime() + " to " + startTime);
 							state.setFirstRunTrue();
-							return Flux.error(exception);
+							return cancelBody(response).thenMany(Flux.error(exception));
 						}
 					}
-					return response.bodyToFlux(elementClass);
-				})
-				.doFirst(() -> {
-					state.setActiveTrue();
-					log.info("Entity " + path + ". Replication start. State [ " + state.toString() + " ]");
-				})
-				.doOnComplete(() -> {
-					state.setFirstRunFalse();
-					log.info("Entity " + path + ". Replication is completed. State [ " + state.toString() + " ]");
-				})
-				.doFinally(s -> {
-					state.setActiveFalse();
-					onFinally.run();
-				})
-				.doOnNext(entity -> {
-					state.updateVersion(entity.getVersion());
-					state.incrementCounters(entity.getDeletedOn());
-					entityService.addOrUpdate(entity);
-				})
-				.subscribe();
+					var contentType = response.headers().contentType().orElse(MediaType.TEXT_EVENT_STREAM);
+					if (codec != null && EntityController.CHANGES_BINARY_TYPE.isCompatibleWith(contentType)) {
+						return binaryChanges(response.bodyToFlux(DataBuffer.class));
+					}
+					return response.bodyToFlux(SSE_TYPE)
+							.map(this::fromEvent);
+				});
+	}
+
+	/*
+	 * Anti-entropy first run. The hash trees are compared from the root down, the
+	 * buckets that differ come through the feed and the run resumes from the version
+	 * the neighbor had committed before the root was read. Entities of the buckets are
+	 * recorded at that version, so a later one seen in a bucket does not move the
+	 * resume point over changes elsewhere. A neighbor without the tree gets a full run.
+	 */
+	private Flux<Change<T>> resync() {
+		var root = EntityHashTree.all(1);
+		return tree(0, root)
+				.flatMapMany(level -> diverged(level, root)
+						.flatMapMany(buckets -> {
+							log.info("Entity " + path + ". Resync " + buckets.cardinality() + " of " + EntityHashTree.BUCKETS + " buckets differ");
+							var synced = Flux.just(new Change<T>(EntityController.CHANGES_EVENT_SYNCED, null, level.committed()));
+							if (buckets.isEmpty()) {
+								return synced;
+							}
+							return changes(true, buckets)
+									.filter(change -> EntityController.CHANGES_EVENT_ENTITY.equals(change.event()))
+									.map(change -> new Change<>(change.event(), change.entity(), level.committed()))
+									.concatWith(synced);
+						}))
+				.onErrorResume(e -> {
+					log.warning("Entity " + path + ". Resync failed, full run: " + e.getMessage());
+					return changes(true, null);
+				});
+	}
+
+	/*
+	 * The nodes of the level whose hashes differ, at the leaf level these are buckets.
+	 * Local hashes are read when the neighbor answers, a change in between only costs
+	 * a bucket more.
+	 */
+	private Mono<BitSet> diverged(EntityHashTree.Level remote, BitSet nodes) {
+		var local = entityService.getHashTree().hashes(remote.level(), nodes);
+		var out = new BitSet();
+		var i = 0;
+		for (var node = nodes.nextSetBit(0); node >= 0; node = nodes.nextSetBit(node + 1), i++) {
+			if (local[i] != remote.hashes()[i]) {
+				out.set(node);
+			}
+		}
+		if (out.isEmpty() || remote.level() == EntityHashTree.DEPTH) {
+			return Mono.just(out);
+		}
+		var children = EntityHashTree.children(out);
+		return tree(remote.level() + 1, children).flatMap(level -> diverged(level, children));
+	}
+
+	/*
+	 * The root answer starts the run, so the neighbor start time is taken from it.
+	 */
+	private Mono<EntityHashTree.Level> tree(int level, BitSet nodes) {
+		return webClient.get()
+				.uri(uriBuilder -> uriBuilder.path(TREE_PATH)
+						.queryParam(EntityController.TREE_LEVEL, level)
+						.queryParam(EntityController.TREE_NODES, EntityHashTree.encode(nodes)).build())
+				.accept(MediaType.APPLICATION_JSON)
+				.exchangeToMono(response -> {
+					if (!response.statusCode().is2xxSuccessful()) {
+						return response.createError();
+					}
+					if (level == 0) {
+						state.setNeighborStartTime(response.headers().header(AddResponseHeaderFilter.HEADER_START_TIME).stream()
+								.findFirst().orElse(""));
+					}
+					return response.bodyToMono(String.class).map(body -> mapper.readValue(body, EntityHashTree.Level.class));
+				});
+	}
+
+	/*
+	 * A followed feed does not end, so it is cancelled after the first chunk rather
+	 * than drained. The feed starts with synced, the first chunk comes at once.
+	 */
+	private Flux<DataBuffer> cancelBody(ClientResponse response) {
+		return response.bodyToFlux(DataBuffer.class)
+				.take(1)
+				.doOnNext(DataBufferUtils::release);
+	}
+
+	private Change<T> fromEvent(ServerSentEvent<String> event) {
+		if (event.event() == null) {
+			return new Change<>(EntityController.CHANGES_EVENT_HEARTBEAT, null, 0L);
+		}
+		if (EntityController.CHANGES_EVENT_ENTITY.equals(event.event())) {
+			var entity = mapper.readValue(event.data(), elementClass);
+			return new Change<>(event.event(), entity, entity.getVersion());
+		}
+		return new Change<>(event.event(), null, Long.parseLong(event.data()));
+	}
+
+	/*
+	 * The reader keeps the string dictionary, so there is one per connection.
+	 */
+	private Flux<Change<T>> binaryChanges(Flux<DataBuffer> body) {
+		var reader = new BinaryChangeStream.Reader<T>(codec);
+		return body.concatMapIterable(buffer -> {
+			var out = new ArrayList<Change<T>>();
+			try (var chunks = buffer.readableByteBuffers()) {
+				chunks.forEachRemaining(chunk -> reader.read(chunk, frame -> {
+					switch (frame.type()) {
+					case BinaryChangeStream.FRAME_ENTITY:
+						out.add(new Change<>(EntityController.CHANGES_EVENT_ENTITY, frame.entity(), frame.version()));
+						break;
+					case BinaryChangeStream.FRAME_WATERMARK:
+						out.add(new Change<>(EntityController.CHANGES_EVENT_WATERMARK, null, frame.version()));
+						break;
+					case BinaryChangeStream.FRAME_SYNCED:
+						out.add(new Change<>(EntityController.CHANGES_EVENT_SYNCED, null, frame.version()));
+						break;
+					case BinaryChangeStream.FRAME_HEARTBEAT:
+						out.add(new Change<>(EntityController.CHANGES_EVENT_HEARTBEAT, null, 0L));
+						break;
+					}
+				}));
+			} finally {
+				DataBufferUtils.release(buffer);
+			}
+			return out;
+		});
 	}
 }
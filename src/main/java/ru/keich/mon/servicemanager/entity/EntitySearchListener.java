@@ -11,9 +11,14 @@ import java.util.function.Function;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.CommonTokenStream;
 import org.antlr.v4.runtime.tree.ParseTree;
+import org.antlr.v4.runtime.tree.ParseTreeWalker;
 
 import ru.keich.mon.servicemanager.KSearchBaseListener;
+import ru.keich.mon.servicemanager.KSearchLexer;
+import ru.keich.mon.servicemanager.KSearchParser;
 import ru.keich.mon.servicemanager.KSearchParser.ExprANDContext;
 import ru.keich.mon.servicemanager.KSearchParser.ExprBooleanEqualContext;
 import ru.keich.mon.servicemanager.KSearchParser.ExprContainContext;
@@ -33,12 +38,13 @@ import ru.keich.mon.servicemanager.event.EventService;
 import ru.keich.mon.servicemanager.item.Item;
 import ru.keich.mon.servicemanager.item.ItemService;
 import ru.keich.mon.servicemanager.query.QueryPredicate;
+import ru.keich.mon.servicemanager.util.Bitmap;
 
 
-public class EntitySearchListener extends KSearchBaseListener implements EntitySearchResult<String> {
+public class EntitySearchListener extends KSearchBaseListener {
 	private final EventService eventService;
 	private final ItemService itemService;
-	private final Stack<Set<String>> stack = new Stack<>();
+	private final Stack<SearchNode> stack = new Stack<>();
 	private final ServiceType serviceType;
 	public static final String ITEM = "item";
 	public static final String EVENT = "event";
@@ -55,29 +61,45 @@ public class EntitySearchListener extends KSearchBaseListener implements EntityS
 		this.serviceType = serviceType;
 	}
 
+	public static SearchNode compile(String search, EventService eventService, ItemService itemService, ServiceType serviceType) {
+		var lexer = new KSearchLexer(CharStreams.fromString(search));
+		lexer.removeErrorListeners();
+		lexer.addErrorListener(new EntityErrorListener());
+		var tokens = new CommonTokenStream(lexer);
+		var parser = new KSearchParser(tokens);
+		var tree = parser.parse();
+		var walker = new ParseTreeWalker();
+		var q = new EntitySearchListener(eventService, itemService, serviceType);
+		walker.walk(q, tree);
+		return q.getNode();
+	}
+
 	private void evaluate(FieldName field, List<String> strValues, BiFunction<String, Object, QueryPredicate> getPredicate) {
-		final Function<QueryPredicate, Set<String>> find;
+		final EntityService<String, ?> service;
+		final Function<QueryPredicate, Bitmap> find;
 		final BiFunction<String, String, Object> fieldValueOf;
-		Function<Set<String>, Set<String>> fill = Function.identity();
+		Function<Bitmap, Bitmap> fill = Function.identity();
 		if(field.type == ServiceType.ITEM) {
 			fieldValueOf = itemService::fieldValueOf;
-			find = itemService::find;
+			service = itemService;
+			find = itemService::findOrdinals;
 			if(serviceType == ServiceType.EVENT) {
-				fill = s -> itemService.findByIds(s).stream()
+				fill = b -> eventService.ordinalsOf(itemService.findByIds(itemService.keysOf(b)).stream()
 						.map(Item::getEventsStatus)
 						.map(Map::keySet)
 						.flatMap(Set::stream)
-						.collect(Collectors.toSet());
+						.collect(Collectors.toSet()));
 			} 
 		} else {
 			fieldValueOf = eventService::fieldValueOf;
-			find = eventService::find;
+			service = eventService;
+			find = eventService::findOrdinals;
 			if(serviceType == ServiceType.ITEM) {
-				fill = s -> eventService.findByIds(s)
+				fill = b -> itemService.ordinalsOf(eventService.findByIds(eventService.keysOf(b))
 						.stream()
 						.map(Event::getItemIds)
 						.flatMap(Set::stream)
-						.collect(Collectors.toSet());
+						.collect(Collectors.toSet()));
 			} 
 		}
 		final Stream<Object> values;
@@ -89,25 +111,20 @@ public class EntitySearchListener extends KSearchBaseListener implements EntityS
 		} else {
 			values = strValues.stream().map(str -> fieldValueOf.apply(field.name, str));
 		}		
-		var keys = values.map(e -> getPredicate.apply(field.name, e))
-				.map(find::apply)
-				.flatMap(Set::stream)
-				.collect(Collectors.toSet());
-		stack.push(fill.apply(keys));
+		var predicates = values.map(e -> getPredicate.apply(field.name, e)).toList();
+		stack.push(new SearchNode.Leaf(service, predicates, find, fill));
 	}
 
 	@Override
 	public void exitExprAND(ExprANDContext ctx) {
-		var result = stack.pop();
-		result.retainAll(stack.pop());
-		stack.push(result);
+		var right = stack.pop();
+		stack.push(new SearchNode.And(stack.pop(), right));
 	}
 
 	@Override
 	public void exitExprOR(ExprORContext ctx) {
-		var result = stack.pop();
-		result.addAll(stack.pop());
-		stack.push(result);
+		var right = stack.pop();
+		stack.push(new SearchNode.Or(stack.pop(), right));
 	}
 
 	@Override
@@ -238,7 +255,7 @@ public class EntitySearchListener extends KSearchBaseListener implements EntityS
 		return value;
 	}
 
-	public Set<String> getResult() {
+	public SearchNode getNode() {
 		return stack.pop();
 	}
 
@@ -1,22 +1,36 @@
 package ru.keich.mon.servicemanager.entity;
 
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.BiFunction;
 import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
+import org.springframework.beans.factory.SmartInitializingSingleton;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.util.MultiValueMap;
@@ -24,16 +38,27 @@ import org.springframework.util.MultiValueMap;
 import io.micrometer.core.instrument.Counter;
 import io.micrometer.core.instrument.MeterRegistry;
 import io.micrometer.core.instrument.Tags;
+import jakarta.annotation.PreDestroy;
 import ru.keich.mon.indexedhashmap.IndexedHashMap;
 import ru.keich.mon.indexedhashmap.Metrics;
 import ru.keich.mon.servicemanager.BaseStatus;
 import ru.keich.mon.servicemanager.QueueInfo;
 import ru.keich.mon.servicemanager.QueueThreadReader;
+import ru.keich.mon.servicemanager.QueueThreadReaderFactory;
 import ru.keich.mon.servicemanager.item.Item;
+import ru.keich.mon.servicemanager.persistence.EntityPersistence;
 import ru.keich.mon.servicemanager.query.Operator;
+import ru.keich.mon.servicemanager.query.QueryAggregate;
+import ru.keich.mon.servicemanager.query.QueryExplain;
 import ru.keich.mon.servicemanager.query.QueryParamsParser;
+import ru.keich.mon.servicemanager.query.QueryPlan;
 import ru.keich.mon.servicemanager.query.QueryPredicate;
 import ru.keich.mon.servicemanager.query.QuerySort;
+import ru.keich.mon.servicemanager.util.Bitmap;
+import ru.keich.mon.servicemanager.util.BitmapIndex;
+import ru.keich.mon.servicemanager.util.LruCache;
+import ru.keich.mon.servicemanager.util.TopK;
+import ru.keich.mon.servicemanager.util.TrigramIndex;
 
 /*
  * Copyright 2024 the original author or authors.
@@ -51,7 +76,7 @@ import ru.keich.mon.servicemanager.query.QuerySort;
  * limitations under the License.
  */
 
-public abstract class EntityService<K, T extends Entity<K>> {
+public abstract class EntityService<K, T extends Entity<K>> implements SmartInitializingSingleton {
 	static public final Long VERSION_MIN = 0L;
 	static final public String METRIC_NAME_PREFIX = "ksm_";
 	static final public String METRIC_VERSION_NAME = "version";
@@ -63,15 +88,49 @@ public abstract class EntityService<K, T extends Entity<K>> {
 	static final public String METRIC_NAME_OBJECTS = "objects_";
 	static final public String METRIC_NAME_SIZE = "size";
 	static final public String METRIC_NAME_INDEX = "index";
+	static final public String METRIC_NAME_SEARCH_CACHE = "search_cache";
+	static final public String METRIC_NAME_RESULT = "result";
+	static final public int SEARCH_CACHE_SIZE = 256;
+	static final public String METRIC_NAME_RESULT_CACHE = "result_cache";
+	static final public String METRIC_NAME_UPDATE_SUPPRESSED = "update_suppressed";
+	static final public String RESULT_CACHE_OFF = "off";
+	static final public String RESULT_CACHE_INDEX = "index";
 
 	private ru.keich.mon.indexedhashmap.Metrics metrics;
 	private final ReentrantLock updateMetricsLock = new ReentrantLock();
 
 	private AtomicLong incrementVersion = new AtomicLong(VERSION_MIN + 1);
 
+	/*
+	 * Versions are taken inside compute before the entity is committed, so they commit
+	 * out of order. committedVersion is the highest version with nothing below it in
+	 * flight, the change feed never reads past it.
+	 */
+	private final AtomicLong committedVersion = new AtomicLong(VERSION_MIN + 1);
+	private final ConcurrentSkipListSet<Long> releasedVersions = new ConcurrentSkipListSet<>();
+	private final ThreadLocal<List<Long>> takenVersions = ThreadLocal.withInitial(ArrayList::new);
+	private final ReentrantLock committedLock = new ReentrantLock();
+	private final Condition committedAdvanced = committedLock.newCondition();
+	private final AtomicInteger committedWaiting = new AtomicInteger();
+
+	/*
+	 * Advanced after a change is committed, unlike the version which is taken before.
+	 */
+	private final AtomicLong changeClock = new AtomicLong();
+	private final AtomicLong keySetChanged = new AtomicLong();
+	private final Map<String, Long> fieldChanged = new ConcurrentHashMap<>();
+	private ResultCache<K> resultCache;
+	private boolean trackFieldChanges = false;
+
 	final protected IndexedHashMap<K, T> entityCache;
 	final protected QueueThreadReader<QueueInfo<K>> entityChangedQueue;
 	final protected Map<String, Function<T, Set<Object>>> queryValueMapper = new HashMap<>();
+	final private Map<String, Function<T, Set<Object>>> indexValueMapper = new HashMap<>();
+	final private Map<String, TrigramIndex<K, T>> trigramIndexes = new HashMap<>();
+	final private Map<String, Integer> smallIntIndexes = new HashMap<>();
+	final private BitmapIndex<K, T> bitmapIndex = new BitmapIndex<>();
+	final private EntityHashTree hashTree = new EntityHashTree();
+	final protected EntityPersistence<T> persistence;
 
 	final public String nodeName;
 
@@ -79,27 +138,33 @@ public abstract class EntityService<K, T extends Entity<K>> {
 	private final Counter metricAdded;
 	private final Counter metricUpdated;
 	private final Counter metricRemoved;
+	private final Counter metricSearchCacheHit;
+	private final Counter metricSearchCacheMiss;
+	private final Counter metricUpdateSuppressed;
+	private final LruCache<String, SearchNode> searchCache = new LruCache<>(SEARCH_CACHE_SIZE);
 	private final MeterRegistry registry;
 	private final Tags metricTags;
 
-	public EntityService(String nodeName, MeterRegistry registry) {
+	public EntityService(String nodeName, MeterRegistry registry, EntityPersistence<T> persistence, QueueThreadReaderFactory queueFactory) {
 		this.nodeName = nodeName.intern();
 		this.registry = registry;
+		this.persistence = persistence;
 		var serviceName = this.getClass().getSimpleName();
 		entityCache = new IndexedHashMap<>();
-		entityChangedQueue = new QueueThreadReader<QueueInfo<K>>(this::queueRead);
+		entityChangedQueue = queueFactory.create(serviceName, this::queueRead);
 
-		entityCache.addIndexLongUniq(Entity.FIELD_VERSION, Entity::getVersionForIndex);
-		entityCache.addIndexEqual(Entity.FIELD_SOURCE, Entity::getSourceForIndex);
-		entityCache.addIndexEqual(Entity.FIELD_SOURCEKEY, Entity::getSourceKeyForIndex);
-		entityCache.addIndexEqual(Entity.FIELD_SOURCETYPE, Entity::getSourceTypeForIndex);
-		entityCache.addIndexSorted(Entity.FIELD_DELETEDON, Entity::getDeletedOnForIndex);
-		entityCache.addIndexSorted(Entity.FIELD_CREATEDON, Entity::getCreatedOnForIndex);
-		entityCache.addIndexSorted(Entity.FIELD_UPDATEDON, Entity::getUpdatedOnForIndex);
-		entityCache.addIndexSmallInt(Item.FIELD_STATUS, BaseStatus.length, Entity::getStatusForIndex);
+		addIndexLongUniq(Entity.FIELD_VERSION, Entity::getVersionForIndex);
+		addIndexEqual(Entity.FIELD_SOURCE, Entity::getSourceForIndex);
+		addIndexEqual(Entity.FIELD_SOURCEKEY, Entity::getSourceKeyForIndex);
+		addIndexEqual(Entity.FIELD_SOURCETYPE, Entity::getSourceTypeForIndex);
+		addIndexSorted(Entity.FIELD_DELETEDON, Entity::getDeletedOnForIndex);
+		addIndexSorted(Entity.FIELD_CREATEDON, Entity::getCreatedOnForIndex);
+		addIndexSorted(Entity.FIELD_UPDATEDON, Entity::getUpdatedOnForIndex);
+		addIndexSmallInt(Item.FIELD_STATUS, BaseStatus.length, Entity::getStatusForIndex);
 
-		entityCache.addIndexEqual(Entity.FIELD_FIELDS, Entity::getFieldsForIndex);
-		entityCache.addIndexEqual(Entity.FIELD_FROMHISTORY, Entity::getFromHistoryForIndex);
+		addIndexEqual(Entity.FIELD_FIELDS, Entity::getFieldsForIndex);
+		addIndexEqual(Entity.FIELD_FROMHISTORY, Entity::getFromHistoryForIndex);
+		addTrigramIndex(Entity.FIELD_FIELDS);
 
 		metrics = entityCache.getMetrics();
 		metricTags = Tags.of(METRIC_NAME_SERVICENAME, serviceName);
@@ -109,6 +174,11 @@ public abstract class EntityService<K, T extends Entity<K>> {
 		metricAdded = registry.counter(opr, metricTags.and(Tags.of(METRIC_NAME_OPERATION, METRIC_NAME_ADDED)));
 		metricUpdated = registry.counter(opr, metricTags.and(Tags.of(METRIC_NAME_OPERATION, METRIC_NAME_UPDATED)));
 		metricRemoved = registry.counter(opr, metricTags.and(Tags.of(METRIC_NAME_OPERATION, METRIC_NAME_REMOVED)));
+		var searchCacheName = METRIC_NAME_PREFIX + METRIC_NAME_SEARCH_CACHE;
+		metricSearchCacheHit = registry.counter(searchCacheName, metricTags.and(Tags.of(METRIC_NAME_RESULT, "hit")));
+		metricSearchCacheMiss = registry.counter(searchCacheName, metricTags.and(Tags.of(METRIC_NAME_RESULT, "miss")));
+
+		metricUpdateSuppressed = registry.counter(METRIC_NAME_PREFIX + METRIC_NAME_UPDATE_SUPPRESSED, metricTags);
 
 		registry.gauge(METRIC_NAME_PREFIX + METRIC_NAME_OBJECTS + METRIC_NAME_SIZE, metricTags, this, s -> s.getChachedMetrics().objectsSize());
 
@@ -122,15 +192,376 @@ public abstract class EntityService<K, T extends Entity<K>> {
 			var indexTags = metricTags.and(Tags.of(METRIC_NAME_INDEX, indexName));
 			registry.gauge(idxName, indexTags, this, s -> s.getChachedMetrics().indexSize().get(indexName));
 		});
+		bitmapIndex.getIndexNames().forEach(indexName -> {
+			var indexTags = metricTags.and(Tags.of(METRIC_NAME_INDEX, indexName));
+			registry.gauge(idxName, indexTags, bitmapIndex, index -> index.size(indexName));
+		});
+	}
+
+	/*
+	 * Index values are kept next to the index so a query can check a predicate on one entity.
+	 * Equal and small int indexes are bitmap postings, sorted ones stay in the cache.
+	 */
+	protected void addIndexEqual(String name, Function<T, Set<Object>> mapper) {
+		bitmapIndex.addIndex(name, mapper);
+		indexValueMapper.put(name, mapper);
+	}
+
+	protected void addIndexSorted(String name, Function<T, Set<Object>> mapper) {
+		entityCache.addIndexSorted(name, mapper);
+		indexValueMapper.put(name, mapper);
+	}
+
+	protected void addIndexLongUniq(String name, Function<T, Long> mapper) {
+		entityCache.addIndexLongUniq(name, mapper);
+		indexValueMapper.put(name, e -> singletonOrEmpty(mapper.apply(e)));
+	}
+
+	protected void addIndexSmallInt(String name, int size, Function<T, Integer> mapper) {
+		Function<T, Set<Object>> values = e -> singletonOrEmpty(mapper.apply(e));
+		bitmapIndex.addIndex(name, values);
+		smallIntIndexes.put(name, size);
+		indexValueMapper.put(name, values);
+	}
+
+	/*
+	 * CO predicates on the field are answered from trigram postings and verified on the candidates.
+	 */
+	protected void addTrigramIndex(String name) {
+		var mapper = indexValueMapper.getOrDefault(name, queryValueMapper.get(name));
+		trigramIndexes.put(name, new TrigramIndex<>(mapper, Entity.FIELD_FIELDS.equals(name)));
+	}
+
+	private static Set<Object> singletonOrEmpty(Object value) {
+		return value == null ? Collections.emptySet() : Collections.singleton(value);
 	}
 
 	protected Long getNextVersion() {
-		return incrementVersion.incrementAndGet();
+		var version = incrementVersion.incrementAndGet();
+		takenVersions.get().add(version);
+		return version;
+	}
+
+	/*
+	 * Releases the versions taken since mark, committed or not, and moves committedVersion
+	 * over every released version next to it. Only the thread that removed c + 1 sets it,
+	 * a version released meanwhile is picked up by that thread's next round.
+	 */
+	private void releaseVersions(List<Long> taken, int mark) {
+		if (taken.size() == mark) {
+			return;
+		}
+		var released = taken.subList(mark, taken.size());
+		releasedVersions.addAll(released);
+		released.clear();
+		var advanced = false;
+		while (true) {
+			var committed = committedVersion.get();
+			if (!releasedVersions.remove(committed + 1)) {
+				break;
+			}
+			committedVersion.set(committed + 1);
+			advanced = true;
+		}
+		if (advanced && committedWaiting.get() > 0) {
+			committedLock.lock();
+			try {
+				committedAdvanced.signalAll();
+			} finally {
+				committedLock.unlock();
+			}
+		}
+	}
+
+	public EntityHashTree getHashTree() {
+		return hashTree;
+	}
+
+	public long getCommittedVersion() {
+		return committedVersion.get();
+	}
+
+	/*
+	 * Parks a change feed reader until a version after the given one is committed.
+	 * Returns false when the timeout passed first.
+	 */
+	public boolean awaitCommitted(long version, long timeout, TimeUnit unit) throws InterruptedException {
+		if (committedVersion.get() > version) {
+			return true;
+		}
+		var nanos = unit.toNanos(timeout);
+		committedLock.lock();
+		committedWaiting.incrementAndGet();
+		try {
+			while (committedVersion.get() <= version) {
+				if (nanos <= 0) {
+					return false;
+				}
+				nanos = committedAdvanced.awaitNanos(nanos);
+			}
+			return true;
+		} finally {
+			committedWaiting.decrementAndGet();
+			committedLock.unlock();
+		}
 	}
 
+	/*
+	 * Entities whose current version is after the given one and not after committed, oldest first.
+	 */
+	public List<T> findChanges(long version, long committed) {
+		return findChanges(version, committed, null);
+	}
+
+	/*
+	 * findChanges limited to the EntityHashTree buckets, ids are tested before the entities are read.
+	 */
+	public List<T> findChanges(long version, long committed, BitSet buckets) {
+		var ids = entityCache.keySetIndexGetAfter(Entity.FIELD_VERSION, version);
+		if (buckets != null) {
+			ids = ids.stream()
+					.filter(id -> buckets.get(EntityHashTree.bucketOf(id)))
+					.collect(Collectors.toSet());
+		}
+		return entityCache.get(ids).stream()
+				.filter(entity -> entity.getVersion() <= committed)
+				.sorted(Comparator.comparing(Entity::getVersion))
+				.toList();
+	}
+
+	/*
+	 * An update equal to the stored entity keeps it, so there is no new version,
+	 * no recalculation and nothing to replicate. Nodes the update names in fromHistory
+	 * are added at the same version: the change feed then leaves the entity out for
+	 * them, and no node forwards it again only because it came by another path.
+	 * Returns null when the update is a change.
+	 */
+	protected T suppressUnchanged(T stored, T update) {
+		if (stored == null || !update.hasSameContent(stored)) {
+			return null;
+		}
+		metricUpdateSuppressed.increment();
+		var seen = stored.getFromHistory() == null ? Collections.<String>emptySet() : stored.getFromHistory();
+		if (update.getFromHistory() == null || seen.containsAll(update.getFromHistory())) {
+			return stored;
+		}
+		var fromHistory = new HashSet<String>(seen);
+		fromHistory.addAll(update.getFromHistory());
+		return withFromHistory(stored, fromHistory);
+	}
+
+	protected abstract T withFromHistory(T entity, Set<String> fromHistory);
+
 	protected abstract void queueRead(QueueInfo<K> info);	
 
-	public abstract void addOrUpdate(T entity);
+	protected T compute(K id, BiFunction<K, T, T> remappingFunction) {
+		entityChangedQueue.awaitCapacity();
+		var oldEntity = new AtomicReference<T>();
+		var taken = takenVersions.get();
+		var mark = taken.size();
+		T entity;
+		try {
+			entity = entityCache.compute(id, (k, old) -> {
+				oldEntity.set(old);
+				return remappingFunction.apply(k, old);
+			});
+		} finally {
+			releaseVersions(taken, mark);
+		}
+		if (entity != oldEntity.get()) {
+			entityChanged(oldEntity.get(), entity);
+		}
+		return entity;
+	}
+
+	/*
+	 * compute for ingest, an entity returned as is or at the same version counts as UNCHANGED.
+	 */
+	protected EntityUpdateResult.Status update(K id, BiFunction<K, T, T> remappingFunction) {
+		var oldEntity = new AtomicReference<T>();
+		var entity = compute(id, (k, old) -> {
+			oldEntity.set(old);
+			return remappingFunction.apply(k, old);
+		});
+		if (entity == oldEntity.get() || oldEntity.get() != null && Objects.equals(entity.getVersion(), oldEntity.get().getVersion())) {
+			return EntityUpdateResult.Status.UNCHANGED;
+		}
+		return oldEntity.get() == null ? EntityUpdateResult.Status.CREATED : EntityUpdateResult.Status.UPDATED;
+	}
+
+	protected T computeIfPresent(K id, BiFunction<K, T, T> remappingFunction) {
+		entityChangedQueue.awaitCapacity();
+		var oldEntity = new AtomicReference<T>();
+		var taken = takenVersions.get();
+		var mark = taken.size();
+		T entity;
+		try {
+			entity = entityCache.computeIfPresent(id, (k, old) -> {
+				oldEntity.set(old);
+				return remappingFunction.apply(k, old);
+			});
+		} finally {
+			releaseVersions(taken, mark);
+		}
+		if (entity != oldEntity.get()) {
+			entityChanged(oldEntity.get(), entity);
+		}
+		return entity;
+	}
+
+	/*
+	 * Called after a new entity state is committed to the cache.
+	 */
+	protected void entityChanged(T oldEntity, T entity) {
+		if (entity != null) {
+			persistence.append(entity);
+		} else {
+			persistence.remove(oldEntity);
+		}
+		hashTree.update(oldEntity, entity);
+		var clock = changeClock.incrementAndGet();
+		if (trackFieldChanges) {
+			if (oldEntity == null || entity == null) {
+				keySetChanged.accumulateAndGet(clock, Math::max);
+			} else {
+				trackFieldChanges(oldEntity, entity, indexValueMapper, clock);
+				trackFieldChanges(oldEntity, entity, queryValueMapper, clock);
+			}
+		}
+		var id = entity != null ? entity.getId() : oldEntity.getId();
+		bitmapIndex.refresh(id, entityCache::get);
+		trigramIndexes.forEach((name, index) -> {
+			if (oldEntity == null || entity == null || !Objects.equals(index.valuesOf(oldEntity), index.valuesOf(entity))) {
+				index.refresh(id, entityCache::get);
+			}
+		});
+	}
+
+	private void trackFieldChanges(T oldEntity, T entity, Map<String, Function<T, Set<Object>>> mappers, long clock) {
+		mappers.forEach((name, mapper) -> {
+			if (!Objects.equals(mapper.apply(oldEntity), mapper.apply(entity))) {
+				fieldChanged.merge(name, clock, Math::max);
+			}
+		});
+	}
+
+	public long getChangeClock() {
+		return changeClock.get();
+	}
+
+	/*
+	 * True when no entity was added or removed and none of the fields changed after the clock.
+	 */
+	public boolean isUnchangedSince(long clock, Set<String> fields) {
+		if (keySetChanged.get() > clock) {
+			return false;
+		}
+		for (var field : fields) {
+			if (fieldChanged.getOrDefault(field, 0L) > clock) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/*
+	 * Fields whose query answer changes with time, results on them are never cached.
+	 */
+	protected boolean isTimeDependent(String fieldName) {
+		return false;
+	}
+
+	@Value("${query.cache.mode:version}") String resultCacheMode;
+	@Value("${query.cache.size:256}") Integer resultCacheSize;
+	@Value("${query.cache.maxkeys:100000}") Integer resultCacheMaxKeys;
+
+	private void createResultCache() {
+		if (resultCacheMode == null || RESULT_CACHE_OFF.equals(resultCacheMode)) {
+			return;
+		}
+		trackFieldChanges = RESULT_CACHE_INDEX.equals(resultCacheMode);
+		var cache = new ResultCache<K>(resultCacheSize, trackFieldChanges, resultCacheMaxKeys);
+		var name = METRIC_NAME_PREFIX + METRIC_NAME_RESULT_CACHE;
+		registry.more().counter(name, metricTags.and(Tags.of(METRIC_NAME_RESULT, "hit")), cache, ResultCache::getHits);
+		registry.more().counter(name, metricTags.and(Tags.of(METRIC_NAME_RESULT, "miss")), cache, ResultCache::getMisses);
+		registry.gauge(name + "_hit_ratio", metricTags, cache, ResultCache::getHitRatio);
+		registry.gauge(name + "_entries", metricTags, cache, ResultCache::size);
+		registry.gauge(name + "_bytes", metricTags, cache, ResultCache::getBytes);
+		resultCache = cache;
+	}
+
+	/*
+	 * Called for every entity read from persistence before it is put to the cache.
+	 */
+	protected T restore(T entity) {
+		return entity;
+	}
+
+	@Override
+	public void afterSingletonsInstantiated() {
+		var maxVersion = new AtomicLong(VERSION_MIN);
+		/* a removed state hides every state of the id up to its version, whatever the order they are read in */
+		var removedVersions = new ConcurrentHashMap<K, Long>();
+		persistence.load(stored -> {
+			var entity = restore(stored);
+			entityCache.compute(entity.getId(), (k, old) -> {
+				if (removedVersions.getOrDefault(k, VERSION_MIN - 1) >= entity.getVersion()) {
+					return old;
+				}
+				/* a fromHistory merge keeps the version, the later record wins on equal versions */
+				if (old == null || old.getVersion() <= entity.getVersion()) {
+					return entity;
+				}
+				return old;
+			});
+			maxVersion.accumulateAndGet(entity.getVersion(), Math::max);
+		}, removed -> {
+			removedVersions.merge(removed.getId(), removed.getVersion(), Math::max);
+			entityCache.computeIfPresent(removed.getId(), (k, old) -> old.getVersion() <= removed.getVersion() ? null : old);
+			maxVersion.accumulateAndGet(removed.getVersion(), Math::max);
+		});
+		incrementVersion.accumulateAndGet(maxVersion.get(), Math::max);
+		committedVersion.accumulateAndGet(maxVersion.get(), Math::max);
+		var ids = entityCache.keySet();
+		ids.forEach(id -> hashTree.update(null, entityCache.get(id)));
+		ids.forEach(id -> bitmapIndex.refresh(id, entityCache::get));
+		trigramIndexes.values().forEach(index -> ids.forEach(id -> index.refresh(id, entityCache::get)));
+		keySetChanged.accumulateAndGet(changeClock.incrementAndGet(), Math::max);
+		createResultCache();
+	}
+
+	@Scheduled(fixedRateString = "${persistence.snapshot.fixedrate:300}", timeUnit = TimeUnit.SECONDS)
+	public void snapshotScheduled() {
+		persistence.snapshot(() -> entityCache.keySet().stream()
+				.map(entityCache::get)
+				.filter(Objects::nonNull));
+	}
+
+	@PreDestroy
+	public void close() {
+		persistence.close();
+	}
+
+	public abstract EntityUpdateResult.Status addOrUpdate(T entity);
+
+	/*
+	 * Applies a whole request, a failed object does not stop the rest.
+	 */
+	public List<EntityUpdateResult<K>> addOrUpdateAll(List<T> entities) {
+		return applyAll(entities, this::addOrUpdate);
+	}
+
+	protected List<EntityUpdateResult<K>> applyAll(List<T> entities, Function<T, EntityUpdateResult.Status> apply) {
+		var out = new ArrayList<EntityUpdateResult<K>>(entities.size());
+		for (var entity : entities) {
+			try {
+				out.add(EntityUpdateResult.of(entity.getId(), apply.apply(entity)));
+			} catch (RuntimeException e) {
+				out.add(EntityUpdateResult.failed(entity.getId(), e));
+			}
+		}
+		return out;
+	}
 
 	public abstract Optional<T> deleteById(K entityId);
 
@@ -151,10 +582,12 @@ public abstract class EntityService<K, T extends Entity<K>> {
 	}
 
 	public List<T> deleteBySourceAndSourceKeyNot(String source, String sourceKey) {
-		var sourceIndex = entityCache.keySetIndexEq(Entity.FIELD_SOURCE, source);
-		var sourceKeyIndex = entityCache.keySetIndexEq(Entity.FIELD_SOURCEKEY, sourceKey);
-		sourceIndex.removeAll(sourceKeyIndex);
-		return sourceIndex.stream()
+		List<K> ids;
+		try (var reader = bitmapIndex.reader()) {
+			var ordinals = bitmapIndex.eq(Entity.FIELD_SOURCE, source).andNot(bitmapIndex.eq(Entity.FIELD_SOURCEKEY, sourceKey));
+			ids = bitmapIndex.keyListOf(ordinals);
+		}
+		return ids.stream()
 				.map(this::deleteById)
 				.filter(Optional::isPresent)
 				.map(Optional::get)
@@ -165,7 +598,12 @@ public abstract class EntityService<K, T extends Entity<K>> {
 
 	@Scheduled(fixedRateString = "${entity.delete.fixedrate:60}", timeUnit = TimeUnit.SECONDS)
 	public void deleteOldScheduled() {
-		entityCache.keySetIndexGetBefore(Entity.FIELD_DELETEDON, Instant.now().minusSeconds(seconds)).forEach(entityCache::remove);
+		entityCache.keySetIndexGetBefore(Entity.FIELD_DELETEDON, Instant.now().minusSeconds(seconds)).forEach(id -> {
+			var removed = entityCache.remove(id);
+			if (removed != null) {
+				entityChanged(removed, null);
+			}
+		});
 	}
 
 	public Comparator<T> getSortComparator(QuerySort sort) {
@@ -196,8 +634,16 @@ public abstract class EntityService<K, T extends Entity<K>> {
 	public <R> R sortAndLimitEnrich(MultiValueMap<String, String> reqParam
 			,Function<QueryParamsParser, Stream<T>> supplier,
 			BiFunction<Stream<T>, QueryParamsParser, R> jsonFilter) {
-		var qp = new QueryParamsParser(reqParam, this::fieldValueOf);
+		return sortAndLimitEnrich(new QueryParamsParser(reqParam, this::fieldValueOf), supplier, jsonFilter);
+	}
+
+	public <R> R sortAndLimitEnrich(QueryParamsParser qp
+			,Function<QueryParamsParser, Stream<T>> supplier,
+			BiFunction<Stream<T>, QueryParamsParser, R> jsonFilter) {
 		var stream = supplier.apply(qp);
+		if (qp.isHasCursor() && qp.isHasSearch()) {
+			stream = stream.filter(e -> e.getVersion() > qp.getCursorVersion());
+		}
 		stream = sortAndLimit(stream, qp.getSorts(), qp.getLimit());
 		stream = enrich(stream, qp);
 		return jsonFilter.apply(stream, qp);
@@ -210,6 +656,9 @@ public abstract class EntityService<K, T extends Entity<K>> {
 					.map(this::getSortComparator)
 					.reduce(Comparator::thenComparing)
 					.orElse((e1, e2) -> 0);
+			if (limit > 0 && limit <= Integer.MAX_VALUE) {
+				return data.collect(TopK.collector(comparator, (int) limit)).stream();
+			}
 			data = data.sorted(comparator);
 		}
 		if (limit > 0) {
@@ -219,36 +668,348 @@ public abstract class EntityService<K, T extends Entity<K>> {
 	}
 
 	public Stream<T> findByPredicates(List<QueryPredicate> predicates, Set<K> filterbyId) {
-		var opt = predicates.stream()
-				.map(this::find)
-				.reduce((result, el) -> { 
-					result.retainAll(el);
-					return result;
+		if (predicates.isEmpty()) {
+			return Stream.empty();
+		}
+		var plan = plan(predicates, filterbyId);
+		return filter(candidates(plan, filterbyId), plan, filterbyId);
+	}
+
+	/*
+	 * Cheapest predicate is answered from the index, the rest are checked on
+	 * every candidate entity instead of materializing their key sets.
+	 */
+	public QueryPlan plan(List<QueryPredicate> predicates, Set<K> filterbyId) {
+		var metrics = getChachedMetrics();
+		var objects = Math.max(metrics.objectsSize(), 1L);
+		var costs = predicates.stream()
+				.map(p -> new PredicateCost(p, access(p), estimate(p, objects, metrics.indexSize())))
+				.sorted(Comparator.comparingLong(PredicateCost::estimate).thenComparingInt(PredicateCost::rank))
+				.toList();
+		var steps = new ArrayList<QueryPlan.Step>();
+		var driverCost = costs.get(0);
+		QueryPredicate driver = driverCost.predicate();
+		List<PredicateCost> rest = costs.subList(1, costs.size());
+		if (!filterbyId.isEmpty() && filterbyId.size() < driverCost.estimate()) {
+			driver = null;
+			rest = costs;
+			steps.add(new QueryPlan.Step(Entity.FIELD_ID, null, null, QueryPlan.ACCESS_IDS, filterbyId.size()));
+		} else {
+			steps.add(QueryPlan.Step.of(driver, driverCost.access(), driverCost.estimate()));
+		}
+		var filters = new ArrayList<QueryPredicate>();
+		rest.stream()
+				.sorted(Comparator.comparingInt(PredicateCost::rank).thenComparingLong(PredicateCost::estimate))
+				.forEach(c -> {
+					filters.add(c.predicate());
+					steps.add(QueryPlan.Step.of(c.predicate(), QueryPlan.ACCESS_FILTER, c.estimate()));
 				});
-		var s = opt.orElse(Collections.emptySet()).stream();
-		if(filterbyId.size() > 0) {
+		return new QueryPlan(driver, filters, steps);
+	}
+
+	private record PredicateCost(QueryPredicate predicate, String access, long estimate) {
+
+		/*
+		 * Relative cost of checking the predicate on one entity.
+		 */
+		int rank() {
+			switch (predicate.getOperator()) {
+			case EQ:
+			case NI:
+			case ISNULL:
+				return 0;
+			case LT:
+			case GT:
+			case GE:
+				return 1;
+			default:
+				return QueryPlan.ACCESS_SCAN.equals(access) ? 3 : 2;
+			}
+		}
+
+	}
+
+	private String access(QueryPredicate predicate) {
+		var fieldName = predicate.getName();
+		if (predicate.getOperator() == Operator.CO && trigramIndexes.containsKey(fieldName)
+				&& trigramIndexes.get(fieldName).estimate(predicate.getValue()) >= 0) {
+			return QueryPlan.ACCESS_TRIGRAM;
+		}
+		if (indexValueMapper.containsKey(fieldName)) {
+			return QueryPlan.ACCESS_INDEX;
+		} else if (Entity.FIELD_ID.equals(fieldName)) {
+			return predicate.getOperator() == Operator.EQ ? QueryPlan.ACCESS_ID : QueryPlan.ACCESS_SCAN;
+		}
+		return QueryPlan.ACCESS_SCAN;
+	}
+
+	/*
+	 * Expected number of matching entities, index sizes are taken as the number of distinct values.
+	 * Bitmap postings give the exact number for one value.
+	 */
+	private long estimate(QueryPredicate predicate, long objects, Map<String, Long> indexSize) {
+		var fieldName = predicate.getName();
+		if (predicate.getOperator() == Operator.CO && trigramIndexes.containsKey(fieldName)) {
+			var candidates = trigramIndexes.get(fieldName).estimate(predicate.getValue());
+			if (candidates >= 0) {
+				return candidates;
+			}
+		}
+		var bitmapIndexed = bitmapIndex.contains(fieldName);
+		if (bitmapIndexed && predicate.getOperator() == Operator.EQ) {
+			return bitmapIndex.cardinality(fieldName, predicate.getValue());
+		} else if (bitmapIndexed && predicate.getOperator() == Operator.NI) {
+			return Math.max(objects - bitmapIndex.cardinality(fieldName, predicate.getValue()), 1L);
+		}
+		if (indexValueMapper.containsKey(fieldName)) {
+			var distinct = Math.max(bitmapIndexed ? bitmapIndex.size(fieldName) : indexSize.getOrDefault(fieldName, 1L), 1L);
+			var perValue = Math.max(objects / distinct, 1L);
+			switch (predicate.getOperator()) {
+			case EQ:
+				return perValue;
+			case NE:
+			case NI:
+				return Math.max(objects - perValue, 1L);
+			case LT:
+			case GT:
+			case GE:
+			case CO:
+			case NC:
+				return Math.max(objects / 2, 1L);
+			case ISNULL:
+				return objects;
+			default:
+				return 0;
+			}
+		} else if (Entity.FIELD_ID.equals(fieldName)) {
+			return predicate.getOperator() == Operator.EQ ? 1 : objects;
+		} else if (queryValueMapper.containsKey(fieldName)) {
+			return objects;
+		}
+		return 0;
+	}
+
+	/*
+	 * A driver on bitmap postings is resolved to ids once, other drivers are key sets already.
+	 */
+	private Collection<K> candidates(QueryPlan plan, Set<K> filterbyId) {
+		var driver = plan.driver();
+		if (driver == null) {
+			return filterbyId;
+		}
+		if (bitmapIndex.contains(driver.getName()) && !QueryPlan.ACCESS_TRIGRAM.equals(access(driver))) {
+			try (var reader = bitmapIndex.reader()) {
+				return bitmapIndex.keyListOf(findOrdinals(driver));
+			}
+		}
+		return keySetOf(driver);
+	}
+
+	private Stream<T> filter(Collection<K> candidates, QueryPlan plan, Set<K> filterbyId) {
+		var s = candidates.stream();
+		if (plan.driver() != null && filterbyId.size() > 0) {
 			s = s.filter(id -> filterbyId.contains(id));
 		}
-		return	s.map(this::findById)
-				.filter(Optional::isPresent)
-				.map(Optional::get);
+		var entities = s.map(entityCache::get).filter(Objects::nonNull);
+		for (var predicate : plan.filters()) {
+			entities = entities.filter(matcher(predicate));
+		}
+		return entities;
+	}
+
+	/*
+	 * Same answer as findOrdinals(predicate) gives for one entity.
+	 */
+	@SuppressWarnings("rawtypes")
+	private Predicate<T> matcher(QueryPredicate predicate) {
+		var fieldName = predicate.getName();
+		var test = predicate.getPredicate();
+		var value = predicate.getValue();
+		var indexMapper = indexValueMapper.get(fieldName);
+		if (indexMapper != null) {
+			switch (predicate.getOperator()) {
+			case EQ:
+				return e -> indexMapper.apply(e).contains(value);
+			case NI:
+				return e -> !indexMapper.apply(e).contains(value);
+			case NE:
+			case CO:
+			case NC:
+			case LT:
+			case GT:
+			case GE:
+				return e -> anyMatch(indexMapper.apply(e), test);
+			case ISNULL:
+				if (Entity.FIELD_FIELDS.equals(fieldName)) {
+					return e -> !anyMatch(indexMapper.apply(e), o -> ((Map.Entry) o).getKey().equals(value));
+				}
+				return e -> indexMapper.apply(e).isEmpty();
+			default:
+				return e -> false;
+			}
+		} else if (Entity.FIELD_ID.equals(fieldName)) {
+			if (predicate.getOperator() == Operator.EQ) {
+				return e -> e.getId().equals(value);
+			}
+			return e -> test.test(e.getId());
+		} else if (queryValueMapper.containsKey(fieldName)) {
+			var mapper = queryValueMapper.get(fieldName);
+			return e -> anyMatch(mapper.apply(e), test);
+		}
+		return e -> false;
+	}
+
+	private static boolean anyMatch(Set<Object> values, Predicate<Object> test) {
+		for (var value : values) {
+			if (value != null && test.test(value)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/*
+	 * Plans and runs the query the caller already parsed.
+	 */
+	public QueryExplain explain(QueryParamsParser qp) {
+		var start = System.nanoTime();
+		List<QueryPlan.Step> steps = List.of();
+		long candidates;
+		List<T> rows;
+		var planned = start;
+		var indexed = start;
+		if (qp.isHasSearch()) {
+			var ids = searchKeys(getSearchNode(qp.getSearch()), Collections.emptySet());
+			planned = indexed = System.nanoTime();
+			candidates = ids.size();
+			rows = ids.stream().map(entityCache::get).filter(Objects::nonNull).toList();
+		} else if (qp.getPredicates().isEmpty()) {
+			candidates = 0;
+			rows = List.of();
+		} else {
+			var plan = plan(qp.getPredicates(), Collections.emptySet());
+			steps = plan.steps();
+			planned = System.nanoTime();
+			var ids = candidates(plan, Collections.emptySet());
+			indexed = System.nanoTime();
+			candidates = ids.size();
+			rows = filter(ids, plan, Collections.emptySet()).toList();
+		}
+		var filtered = System.nanoTime();
+		var returned = sortAndLimit(rows.stream(), qp.getSorts(), qp.getLimit()).count();
+		var end = System.nanoTime();
+		return new QueryExplain(qp.isHasSearch() ? qp.getSearch() : null, steps, candidates, rows.size(), returned,
+				millis(start, planned), millis(planned, indexed), millis(indexed, filtered), millis(filtered, end), millis(start, end));
+	}
+
+	private static double millis(long from, long to) {
+		return (to - from) / 1_000_000.0;
 	}
 	
-	protected abstract EntitySearchResult<K> getEntitySearchResult(String search);
+	protected abstract SearchNode compileSearch(String search);
 
-	public Stream<T> findBySearch(String search, Set<K> filterbyId) {
-		var s = getEntitySearchResult(search).getResult().stream();
-		if(filterbyId.size() > 0) {
-			s = s.filter(id -> filterbyId.contains(id));
+	/*
+	 * Compiled searches are cached by the search string, the tree is evaluated on every call.
+	 * Clauses are combined as bitmaps of ordinals and ids are resolved once, for the result.
+	 */
+	private List<K> searchKeys(SearchNode node, Set<K> filterbyId) {
+		try (var reader = bitmapIndex.reader()) {
+			var ordinals = node.evaluate();
+			if (!filterbyId.isEmpty()) {
+				ordinals = ordinals.and(bitmapIndex.ordinalsOf(filterbyId));
+			}
+			return bitmapIndex.keyListOf(ordinals);
+		}
+	}
+
+	private SearchNode getSearchNode(String search) {
+		var node = searchCache.get(search);
+		if (node == null) {
+			metricSearchCacheMiss.increment();
+			node = compileSearch(search);
+			searchCache.put(search, node);
+		} else {
+			metricSearchCacheHit.increment();
 		}
-		return s.map(this::findById)
+		return node;
+	}
+
+	public Stream<T> findBySearch(String search, Set<K> filterbyId) {
+		return searchKeys(getSearchNode(search), filterbyId).stream()
+				.map(this::findById)
 				.filter(Optional::isPresent)
 				.map(Optional::get);
 	}
 
+	/*
+	 * Readers of another service keep its ordinals stable while a search resolves them.
+	 */
+	public BitmapIndex<K, T>.Reader reader() {
+		return bitmapIndex.reader();
+	}
+
+	public Bitmap ordinalsOf(Collection<K> keys) {
+		return bitmapIndex.ordinalsOf(keys);
+	}
+
+	public Set<K> keysOf(Bitmap ordinals) {
+		return bitmapIndex.keysOf(ordinals);
+	}
+
+	protected Set<K> keysEq(String fieldName, Object value) {
+		return bitmapIndex.keysEq(fieldName, value);
+	}
+
+	/*
+	 * Ordinals of the entities matching the predicate. Fields with bitmap postings are
+	 * answered from them, negations as a difference from every ordinal, the rest are
+	 * looked up as keys and mapped to ordinals.
+	 */
 	@SuppressWarnings("rawtypes")
-	public Set<K> find(QueryPredicate predicate) {
+	public Bitmap findOrdinals(QueryPredicate predicate) {
+		var fieldName = predicate.getName();
+		if (bitmapIndex.contains(fieldName) && !QueryPlan.ACCESS_TRIGRAM.equals(access(predicate))) {
+			var value = predicate.getValue();
+			switch (predicate.getOperator()) {
+			case EQ:
+				return bitmapIndex.eq(fieldName, value);
+			case NI:
+				return bitmapIndex.notEq(fieldName, value);
+			case NE:
+			case CO:
+			case NC:
+			case LT:
+			case GT:
+			case GE:
+				return bitmapIndex.matching(fieldName, predicate.getPredicate());
+			case ISNULL:
+				if (Entity.FIELD_FIELDS.equals(fieldName)) {
+					return bitmapIndex.notMatching(fieldName, o -> ((Map.Entry) o).getKey().equals(value));
+				}
+				return bitmapIndex.notMatching(fieldName, o -> true);
+			default:
+				return new Bitmap();
+			}
+		}
+		return bitmapIndex.ordinalsOf(keySetOf(predicate));
+	}
+
+	/*
+	 * Keys of the predicates that are not answered from bitmap postings.
+	 */
+	private Set<K> keySetOf(QueryPredicate predicate) {
 		var fieldName = predicate.getName();
+		if (predicate.getOperator() == Operator.CO && trigramIndexes.containsKey(fieldName)) {
+			var candidates = trigramIndexes.get(fieldName).candidates(predicate.getValue());
+			if (candidates != null) {
+				var match = matcher(predicate);
+				candidates.removeIf(id -> {
+					var entity = entityCache.get(id);
+					return entity == null || !match.test(entity);
+				});
+				return candidates;
+			}
+		}
 		var indexNames = entityCache.getIndexNames();
 		if (indexNames.contains(fieldName)) {
 			switch (predicate.getOperator()) {
@@ -259,10 +1020,7 @@ public abstract class EntityService<K, T extends Entity<K>> {
 			case NC:
 				return entityCache.keySetIndexPredicate(fieldName, predicate.getPredicate());
 			case NI:
-				var t = entityCache.keySetIndexEq(fieldName, predicate.getValue());
-				var r = entityCache.keySet();
-				r.removeAll(t);
-				return r;
+				return difference(entityCache.keySetIndexEq(fieldName, predicate.getValue()));
 			case LT:
 				return entityCache.keySetIndexGetBefore(fieldName, predicate.getValue());
 			case GT:
@@ -280,9 +1038,7 @@ public abstract class EntityService<K, T extends Entity<K>> {
 				} else {
 					eq = entityCache.keySetIndexAll(fieldName);
 				}
-				var all = entityCache.keySet();
-				all.removeAll(eq);
-				return all;
+				return difference(eq);
 			default:
 				return new HashSet<>(0);
 			}
@@ -302,6 +1058,12 @@ public abstract class EntityService<K, T extends Entity<K>> {
 		return new HashSet<>(0);
 	}
 
+	private Set<K> difference(Set<K> excluded) {
+		var keys = entityCache.keySet();
+		keys.removeAll(excluded);
+		return keys;
+	}
+
 	public Stream<T> find(QueryParamsParser qp, Set<K> filterbyId) {
 		if(qp.isHasSearch()) {
 			return findBySearch(qp.getSearch(), filterbyId);
@@ -311,6 +1073,11 @@ public abstract class EntityService<K, T extends Entity<K>> {
 	}
 
 	public Stream<T> find(QueryParamsParser qp) {
+		if (resultCache != null && (qp.isHasSearch() || !qp.getPredicates().isEmpty())) {
+			return findKeys(qp).stream()
+					.map(entityCache::get)
+					.filter(Objects::nonNull);
+		}
 		if(qp.isHasSearch()) {
 			return findBySearch(qp.getSearch(), Collections.emptySet());
 		} else {
@@ -318,6 +1085,171 @@ public abstract class EntityService<K, T extends Entity<K>> {
 		}
 	}
 
+	/*
+	 * Keys matched by the query, every key when it has neither search nor predicates.
+	 */
+	private Set<K> findKeys(QueryParamsParser qp) {
+		if (qp.isHasSearch()) {
+			var node = getSearchNode(qp.getSearch());
+			Supplier<Set<K>> query = () -> new HashSet<>(searchKeys(node, Collections.emptySet()));
+			if (resultCache == null) {
+				return query.get();
+			}
+			return resultCache.get("search:" + qp.getSearch(), () -> searchDependencies(node), query);
+		}
+		var predicates = qp.getPredicates();
+		if (predicates.isEmpty()) {
+			return entityCache.keySet();
+		}
+		Supplier<Set<K>> query = () -> findByPredicates(predicates, Collections.emptySet())
+				.map(Entity::getId)
+				.collect(Collectors.toSet());
+		if (resultCache == null) {
+			return query.get();
+		}
+		return resultCache.get(resultCacheKey(predicates), () -> predicateDependencies(predicates), query);
+	}
+
+	public QueryAggregate count(MultiValueMap<String, String> reqParam) {
+		var qp = new QueryParamsParser(reqParam, this::fieldValueOf);
+		return new QueryAggregate(matchedKeys(qp).size(), List.of(), List.of());
+	}
+
+	/*
+	 * Counts are taken from key sets, entities are only looked up to read
+	 * group values of fields without a small int index.
+	 */
+	public QueryAggregate aggregate(MultiValueMap<String, String> reqParam) {
+		var qp = new QueryParamsParser(reqParam, this::fieldValueOf);
+		var groupBy = qp.getGroupBy();
+		var keys = matchedKeys(qp);
+		if (groupBy.isEmpty()) {
+			return new QueryAggregate(keys.size(), groupBy, List.of());
+		}
+		var mappers = groupBy.stream().map(this::groupValueMapper).toList();
+		var counts = new HashMap<List<Object>, Long>();
+		if (groupBy.size() == 1 && smallIntIndexes.containsKey(groupBy.get(0))) {
+			var name = groupBy.get(0);
+			try (var reader = bitmapIndex.reader()) {
+				var matched = bitmapIndex.ordinalsOf(keys);
+				for (int i = 0; i < smallIntIndexes.get(name); i++) {
+					long count = matched.and(bitmapIndex.eq(name, i)).cardinality();
+					if (count > 0) {
+						counts.put(Collections.singletonList(i), count);
+					}
+				}
+			}
+		} else {
+			keys.forEach(id -> {
+				var entity = entityCache.get(id);
+				if (entity != null) {
+					groupKeys(entity, mappers, 0, new Object[mappers.size()], counts);
+				}
+			});
+		}
+		var groups = counts.entrySet().stream()
+				.sorted(Map.Entry.<List<Object>, Long>comparingByValue().reversed())
+				.map(e -> {
+					var key = new LinkedHashMap<String, Object>();
+					for (int i = 0; i < groupBy.size(); i++) {
+						key.put(groupBy.get(i), groupValueOf(groupBy.get(i), e.getKey().get(i)));
+					}
+					return new QueryAggregate.Group(key, e.getValue());
+				})
+				.toList();
+		return new QueryAggregate(keys.size(), groupBy, groups);
+	}
+
+	private Set<K> matchedKeys(QueryParamsParser qp) {
+		var keys = findKeys(qp);
+		if (qp.isHasSearch()) {
+			// keys filled from the other service may be gone already
+			return keys.stream().filter(id -> entityCache.get(id) != null).collect(Collectors.toSet());
+		}
+		return keys;
+	}
+
+	private Function<T, Set<Object>> groupValueMapper(String fieldName) {
+		var mapper = indexValueMapper.getOrDefault(fieldName, queryValueMapper.get(fieldName));
+		if (mapper == null || isTimeDependent(fieldName)) {
+			throw new QueryParamsParser.ErrorParsePredicateException("Can't group by " + fieldName);
+		}
+		return mapper;
+	}
+
+	/*
+	 * Multi-valued fields put the entity to a group per value, an entity without a value goes to the null group.
+	 */
+	private void groupKeys(T entity, List<Function<T, Set<Object>>> mappers, int pos, Object[] key, Map<List<Object>, Long> counts) {
+		if (pos == mappers.size()) {
+			counts.merge(Arrays.asList(key.clone()), 1L, Long::sum);
+			return;
+		}
+		var values = mappers.get(pos).apply(entity);
+		if (values.isEmpty()) {
+			key[pos] = null;
+			groupKeys(entity, mappers, pos + 1, key, counts);
+			return;
+		}
+		for (var value : values) {
+			key[pos] = value;
+			groupKeys(entity, mappers, pos + 1, key, counts);
+		}
+	}
+
+	/*
+	 * Index value as it is shown in a group key.
+	 */
+	protected Object groupValueOf(String fieldName, Object value) {
+		if (Entity.FIELD_STATUS.equals(fieldName) && value instanceof Integer i) {
+			return BaseStatus.fromInteger(i);
+		}
+		return value;
+	}
+
+	/*
+	 * Predicate order does not change the answer, so it does not take part in the key.
+	 */
+	private static String resultCacheKey(List<QueryPredicate> predicates) {
+		return predicates.stream()
+				.map(p -> p.getName() + ":" + p.getOperator() + ":" + p.getValue())
+				.sorted()
+				.collect(Collectors.joining("\n", "predicates:", ""));
+	}
+
+	private List<ResultCache.Dependency> predicateDependencies(List<QueryPredicate> predicates) {
+		var fields = new HashSet<String>();
+		for (var predicate : predicates) {
+			if (isTimeDependent(predicate.getName())) {
+				return null;
+			}
+			fields.add(predicate.getName());
+		}
+		return List.of(new ResultCache.Dependency(this, getChangeClock(), fields));
+	}
+
+	/*
+	 * Other services are read through fill, which uses fields the leaf does not name,
+	 * so they are tracked as a whole.
+	 */
+	private List<ResultCache.Dependency> searchDependencies(SearchNode node) {
+		var fields = new HashMap<EntityService<?, ?>, Set<String>>();
+		for (var leaf : node.leaves().toList()) {
+			for (var predicate : leaf.predicates()) {
+				if (leaf.service().isTimeDependent(predicate.getName())) {
+					return null;
+				}
+				fields.computeIfAbsent(leaf.service(), s -> new HashSet<>()).add(predicate.getName());
+			}
+		}
+		return fields.entrySet().stream()
+				.map(e -> {
+					var service = e.getKey();
+					return new ResultCache.Dependency(service, service.getChangeClock(), service == this ? e.getValue() : null);
+				})
+				.toList();
+	}
+
 	@Scheduled(fixedRateString = "5", timeUnit = TimeUnit.SECONDS)
 	public void updateMetrics() {
 		updateMetricsLock.lock();
@@ -0,0 +1,39 @@
+package ru.keich.mon.servicemanager.entity;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+/*
+ * Copyright 2026 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/*
+ * Outcome of one object of an ingest request, error is set for FAILED only.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public record EntityUpdateResult<K>(K id, Status status, String error) {
+
+	public enum Status {
+		CREATED, UPDATED, UNCHANGED, FAILED
+	}
+
+	public static <K> EntityUpdateResult<K> of(K id, Status status) {
+		return new EntityUpdateResult<>(id, status, null);
+	}
+
+	public static <K> EntityUpdateResult<K> failed(K id, Exception e) {
+		return new EntityUpdateResult<>(id, Status.FAILED, e.toString());
+	}
+
+}
@@ -0,0 +1,110 @@
+package ru.keich.mon.servicemanager.entity;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import ru.keich.mon.servicemanager.util.LruCache;
+
+/*
+ * Copyright 2026 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/*
+ * Key sets of finished queries. An entry is served while every service it read
+ * reports no change since the entry was computed, entities are looked up on every hit.
+ */
+class ResultCache<K> {
+	static final long BYTES_PER_ENTRY = 128;
+	static final long BYTES_PER_KEY = 48;
+
+	/*
+	 * Change clock of the service taken before the query ran. Fields are the ones
+	 * the query read, null means any change of the service invalidates the entry.
+	 */
+	record Dependency(EntityService<?, ?> service, long clock, Set<String> fields) {
+
+		boolean isValid(boolean byField) {
+			if (byField && fields != null) {
+				return service.isUnchangedSince(clock, fields);
+			}
+			return service.getChangeClock() == clock;
+		}
+
+	}
+
+	record Entry<K>(Set<K> keys, List<Dependency> dependencies, long bytes) {}
+
+	private final LruCache<String, Entry<K>> entries;
+	private final boolean byField;
+	private final int maxKeys;
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+
+	ResultCache(int size, boolean byField, int maxKeys) {
+		this.entries = new LruCache<>(size);
+		this.byField = byField;
+		this.maxKeys = maxKeys;
+	}
+
+	/*
+	 * dependencies returns null for queries which answer changes without a mutation.
+	 */
+	Set<K> get(String key, Supplier<List<Dependency>> dependencies, Supplier<Set<K>> query) {
+		var entry = entries.get(key);
+		if (entry != null && entry.dependencies().stream().allMatch(d -> d.isValid(byField))) {
+			hits.incrementAndGet();
+			return entry.keys();
+		}
+		misses.incrementAndGet();
+		var deps = dependencies.get();
+		var keys = query.get();
+		if (deps != null && keys.size() <= maxKeys) {
+			var bytes = BYTES_PER_ENTRY + key.length() * 2L + keys.size() * BYTES_PER_KEY;
+			keys = Collections.unmodifiableSet(keys);
+			entries.put(key, new Entry<>(keys, deps, bytes));
+		}
+		return keys;
+	}
+
+	void clear() {
+		entries.clear();
+	}
+
+	long getHits() {
+		return hits.get();
+	}
+
+	long getMisses() {
+		return misses.get();
+	}
+
+	double getHitRatio() {
+		var h = hits.get();
+		var total = h + misses.get();
+		return total == 0 ? 0 : (double) h / total;
+	}
+
+	int size() {
+		return entries.size();
+	}
+
+	long getBytes() {
+		return entries.values().stream().mapToLong(Entry::bytes).sum();
+	}
+
+}
@@ -0,0 +1,94 @@
+package ru.keich.mon.servicemanager.entity;
+
+import java.util.List;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+import ru.keich.mon.servicemanager.query.QueryPredicate;
+import ru.keich.mon.servicemanager.util.Bitmap;
+
+/*
+ * Copyright 2026 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/*
+ * Compiled KSearch expression. Nodes are immutable, so one tree serves every
+ * request with the same search string. evaluate returns a new bitmap of
+ * ordinals of the searched service, the caller resolves ids once for the result
+ * and keeps a reader of that service open until then.
+ */
+public interface SearchNode {
+
+	Bitmap evaluate();
+
+	Stream<Leaf> leaves();
+
+	public record And(SearchNode left, SearchNode right) implements SearchNode {
+
+		@Override
+		public Bitmap evaluate() {
+			var result = left.evaluate();
+			if (result.isEmpty()) {
+				return result;
+			}
+			return result.and(right.evaluate());
+		}
+
+		@Override
+		public Stream<Leaf> leaves() {
+			return Stream.concat(left.leaves(), right.leaves());
+		}
+
+	}
+
+	public record Or(SearchNode left, SearchNode right) implements SearchNode {
+
+		@Override
+		public Bitmap evaluate() {
+			return left.evaluate().or(right.evaluate());
+		}
+
+		@Override
+		public Stream<Leaf> leaves() {
+			return Stream.concat(left.leaves(), right.leaves());
+		}
+
+	}
+
+	/*
+	 * Union of the predicates on the service, mapped to ordinals of the searched service by fill.
+	 * The reader keeps the ordinals of the service stable until fill has resolved them.
+	 */
+	public record Leaf(EntityService<?, ?> service,
+			List<QueryPredicate> predicates,
+			Function<QueryPredicate, Bitmap> find,
+			Function<Bitmap, Bitmap> fill) implements SearchNode {
+
+		@Override
+		public Bitmap evaluate() {
+			try (var reader = service.reader()) {
+				var ordinals = predicates.size() == 1 ? find.apply(predicates.get(0)) : Bitmap.or(predicates.stream().map(find).toList());
+				return fill.apply(ordinals);
+			}
+		}
+
+		@Override
+		public Stream<Leaf> leaves() {
+			return Stream.of(this);
+		}
+
+	}
+
+}
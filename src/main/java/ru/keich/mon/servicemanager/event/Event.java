@@ -2,10 +2,10 @@ package ru.keich.mon.servicemanager.event;
 
 import java.time.Instant;
 import java.util.Collections;
-import java.util.HashSet;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
-import java.util.function.Consumer;
+import java.util.function.UnaryOperator;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
@@ -14,6 +14,8 @@ import lombok.Getter;
 import ru.keich.mon.servicemanager.BaseStatus;
 import ru.keich.mon.servicemanager.SourceType;
 import ru.keich.mon.servicemanager.entity.Entity;
+import ru.keich.mon.servicemanager.entity.EntityHashTree;
+import ru.keich.mon.servicemanager.util.PersistentHashSet;
 
 /*
  * Copyright 2024 the original author or authors.
@@ -74,7 +76,7 @@ public class Event extends Entity<String> {
 		this.node = node;
 		this.summary = summary;
 		this.endsOn = endsOn;
-		this.itemIds = itemIds;
+		this.itemIds = PersistentHashSet.of(itemIds);
 		this.calculated = calculated;
 	}
 
@@ -94,6 +96,26 @@ public class Event extends Entity<String> {
 		return Collections.singleton(event.getSummary());
 	}
 	
+	@Override
+	public boolean hasSameContent(Entity<String> stored) {
+		if (!(stored instanceof Event other) || !super.hasSameContent(stored)) {
+			return false;
+		}
+		return type == other.type
+				&& Objects.equals(node, other.node)
+				&& Objects.equals(summary, other.summary)
+				&& Objects.equals(endsOn, other.endsOn);
+	}
+
+	@Override
+	public long contentHash() {
+		var hash = EntityHashTree.hash(super.contentHash(), EntityHashTree.hashOf(type));
+		hash = EntityHashTree.hash(hash, EntityHashTree.hashOf(getStatus()));
+		hash = EntityHashTree.hash(hash, Objects.hashCode(node));
+		hash = EntityHashTree.hash(hash, Objects.hashCode(summary));
+		return EntityHashTree.hash(hash, Objects.hashCode(endsOn));
+	}
+
 	@Override
 	public String toString() {
 		return "Event [id=" + getId() + ", type=" + type + ", status=" + getStatus() +
@@ -196,9 +218,8 @@ public class Event extends Entity<String> {
 			return this;
 		}
 		
-		public Builder itemIdsUpdate(Consumer<Set<String>> s) {
-			itemIds = new HashSet<>(itemIds);
-			s.accept(itemIds);
+		public Builder itemIdsUpdate(UnaryOperator<PersistentHashSet<String>> s) {
+			itemIds = s.apply(PersistentHashSet.of(itemIds));
 			return this;
 		}
 
@@ -0,0 +1,52 @@
+package ru.keich.mon.servicemanager.event;
+
+import ru.keich.mon.servicemanager.persistence.EntityBinaryCodec;
+import ru.keich.mon.servicemanager.persistence.EntityHeader;
+import ru.keich.mon.servicemanager.persistence.EntityInput;
+import ru.keich.mon.servicemanager.persistence.EntityOutput;
+
+/*
+ * Copyright 2026 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+public class EventBinaryCodec implements EntityBinaryCodec<Event> {
+
+	@Override
+	public void write(Event event, EntityOutput out) {
+		out.writeString(event.getId());
+		EntityBinaryCodec.writeEntity(event, out);
+		out.writeString(event.getNode());
+		out.writeString(event.getSummary());
+		out.writeEnum(event.getType());
+		out.writeInstant(event.getEndsOn());
+		out.writeStringSet(event.getItemIds());
+		out.writeBoolean(Boolean.TRUE.equals(event.getCalculated()));
+	}
+
+	@Override
+	public Event read(EntityHeader header, EntityInput in) {
+		var builder = new Event.Builder(in.readString());
+		EntityBinaryCodec.readEntity(builder, header, in);
+		return builder.node(in.readString())
+				.summary(in.readString())
+				.type(in.readEnum(Event.EventType.values()))
+				.endsOn(in.readInstant())
+				.itemIds(in.readStringSet())
+				.calculated(in.readBoolean())
+				.status(header.status())
+				.build();
+	}
+
+}
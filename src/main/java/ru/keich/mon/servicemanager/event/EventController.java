@@ -1,8 +1,12 @@
 package ru.keich.mon.servicemanager.event;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.List;
 import java.util.Map;
 
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.util.MultiValueMap;
 import org.springframework.web.bind.annotation.CrossOrigin;
@@ -11,11 +15,19 @@ import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import ru.keich.mon.servicemanager.entity.EntityController;
+import ru.keich.mon.servicemanager.entity.EntityHashTree;
+import ru.keich.mon.servicemanager.entity.EntityIngestSummary;
+import ru.keich.mon.servicemanager.entity.EntityUpdateResult;
+import ru.keich.mon.servicemanager.persistence.BinaryChangeStream;
 
 /*
  * Copyright 2024 the original author or authors.
@@ -39,21 +51,64 @@ public class EventController extends EntityController<String, Event> {
 	final EventService eventService;
 
 	public EventController(EventService eventService) {
-		super(eventService);
+		super(eventService, new EventBinaryCodec());
 		this.eventService = eventService;
 	}
 
 	@Override
 	@PostMapping(value = "/event", produces = "application/json")
-	public ResponseEntity<String> addOrUpdate(@RequestBody List<Event> events) {
+	public ResponseEntity<List<EntityUpdateResult<String>>> addOrUpdate(@RequestBody List<Event> events) {
 		return super.addOrUpdate(events);
 	}
 
+	@PostMapping(value = "/event", consumes = "application/x-ndjson", produces = "application/json")
+	public ResponseEntity<EntityIngestSummary<String>> addOrUpdateNdjson(InputStream body) throws IOException {
+		return super.addOrUpdateNdjson(body, Event.class);
+	}
+
+	@Override
+	@GetMapping(value = "/event", produces = { "application/json", "application/x-ndjson" })
+	@CrossOrigin(origins = "*")
+	public ResponseEntity<StreamingResponseBody> find(@RequestParam MultiValueMap<String, String> reqParam,
+			@RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept) {
+		return super.find(reqParam, accept);
+	}
+
+	@GetMapping(value = "/event/_changes", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+	public SseEmitter changes(@RequestParam(name = CHANGES_SINCE, defaultValue = "0") long since,
+			@RequestHeader(name = "Last-Event-ID", required = false) String lastEventId,
+			@RequestParam(name = CHANGES_EXCLUDE, required = false) String exclude,
+			@RequestParam(name = CHANGES_FOLLOW, defaultValue = "true") boolean follow,
+			@RequestParam(name = CHANGES_BUCKETS, required = false) String buckets) {
+		return super.changes(since, lastEventId, exclude, follow, buckets);
+	}
+
+	@GetMapping(value = "/event/_changes", produces = BinaryChangeStream.MEDIA_TYPE)
+	public ResponseEntity<ResponseBodyEmitter> changesBinary(@RequestParam(name = CHANGES_SINCE, defaultValue = "0") long since,
+			@RequestParam(name = CHANGES_EXCLUDE, required = false) String exclude,
+			@RequestParam(name = CHANGES_FOLLOW, defaultValue = "true") boolean follow,
+			@RequestParam(name = CHANGES_BUCKETS, required = false) String buckets) {
+		return super.changesBinary(since, exclude, follow, buckets);
+	}
+
+	@GetMapping(value = "/event/_tree", produces = "application/json")
+	public ResponseEntity<EntityHashTree.Level> tree(@RequestParam(name = TREE_LEVEL, defaultValue = "0") int level,
+			@RequestParam(name = TREE_NODES, required = false) String nodes) {
+		return super.tree(level, nodes);
+	}
+
+	@Override
+	@GetMapping(value = "/event/_count", produces = "application/json")
+	@CrossOrigin(origins = "*")
+	public ResponseEntity<String> count(@RequestParam MultiValueMap<String, String> reqParam) {
+		return super.count(reqParam);
+	}
+
 	@Override
-	@GetMapping(value = "/event", produces = "application/json")
+	@GetMapping(value = "/event/_aggregate", produces = "application/json")
 	@CrossOrigin(origins = "*")
-	public ResponseEntity<String> find(@RequestParam MultiValueMap<String, String> reqParam) {
-		return super.find(reqParam);
+	public ResponseEntity<String> aggregate(@RequestParam MultiValueMap<String, String> reqParam) {
+		return super.aggregate(reqParam);
 	}
 
 	@GetMapping(value = "/event/{id}", produces = "application/json")
@@ -19,33 +19,35 @@ package ru.keich.mon.servicemanager.event;
 import java.time.Instant;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
-import org.antlr.v4.runtime.CharStreams;
-import org.antlr.v4.runtime.CommonTokenStream;
-import org.antlr.v4.runtime.tree.ParseTreeWalker;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
 import io.micrometer.core.instrument.MeterRegistry;
-import ru.keich.mon.servicemanager.KSearchLexer;
-import ru.keich.mon.servicemanager.KSearchParser;
+import ru.keich.mon.servicemanager.BaseStatus;
 import ru.keich.mon.servicemanager.QueueInfo;
-import ru.keich.mon.servicemanager.entity.EntityErrorListener;
+import ru.keich.mon.servicemanager.QueueThreadReaderFactory;
 import ru.keich.mon.servicemanager.entity.EntitySearchListener;
 import ru.keich.mon.servicemanager.entity.EntitySearchListener.ServiceType;
-import ru.keich.mon.servicemanager.entity.EntitySearchResult;
+import ru.keich.mon.servicemanager.entity.SearchNode;
 import ru.keich.mon.servicemanager.entity.EntityService;
+import ru.keich.mon.servicemanager.entity.EntityUpdateResult;
 import ru.keich.mon.servicemanager.item.ItemService;
+import ru.keich.mon.servicemanager.persistence.EntityPersistenceFactory;
 import ru.keich.mon.servicemanager.query.Operator;
 import ru.keich.mon.servicemanager.query.QueryParamsParser;
 import ru.keich.mon.servicemanager.query.QuerySort;
+import ru.keich.mon.servicemanager.util.PersistentHashMap;
 
 @Service
 public class EventService extends EntityService<String, Event>{
@@ -54,20 +56,42 @@ public class EventService extends EntityService<String, Event>{
 
 	public void setItemService(ItemService itemService) {
 		this.itemService = itemService;
-		entityCache.addIndexSorted(Event.FIELD_ENDSON, Event::getEndsOnForIndex);
+		addIndexSorted(Event.FIELD_ENDSON, Event::getEndsOnForIndex);
 	}
 
-	public EventService(@Value("${replication.nodename}") String nodeName, MeterRegistry registry) {
-		super(nodeName, registry);
+	public EventService(@Value("${replication.nodename}") String nodeName, MeterRegistry registry, EntityPersistenceFactory persistenceFactory,
+			QueueThreadReaderFactory queueFactory) {
+		super(nodeName, registry, persistenceFactory.create("event", Event.class, new EventBinaryCodec()), queueFactory);
 		queryValueMapper.put(Event.FIELD_NODE, Event::getNodeForQuery);
 		queryValueMapper.put(Event.FIELD_SUMMARY, Event::getSummaryForQuery);
-		entityCache.addIndexSmallInt(Event.FIELD_CALCULATED, 2, Event::getCalculatedForIndex);
+		addTrigramIndex(Event.FIELD_NODE);
+		addTrigramIndex(Event.FIELD_SUMMARY);
+		addIndexSmallInt(Event.FIELD_CALCULATED, 2, Event::getCalculatedForIndex);
 		registerIndexMetrics();
 	}
 
 	@Override
-	public void addOrUpdate(Event event) {
-		entityCache.compute(event.getId(), (eventId, oldEvent) -> {
+	public EntityUpdateResult.Status addOrUpdate(Event event) {
+		return addOrUpdate(event, null);
+	}
+
+	/*
+	 * Calculates the changed events in place and applies the item changes of the
+	 * whole batch at the end, one eventsStatus update per affected item.
+	 */
+	@Override
+	public List<EntityUpdateResult<String>> addOrUpdateAll(List<Event> events) {
+		var itemChanges = new HashMap<String, Map<String, BaseStatus>>();
+		var out = applyAll(events, event -> addOrUpdate(event, itemChanges));
+		itemService.eventsChanged(itemChanges);
+		return out;
+	}
+
+	/*
+	 * Without itemChanges the calculation is left to the queue.
+	 */
+	private EntityUpdateResult.Status addOrUpdate(Event event, Map<String, Map<String, BaseStatus>> itemChanges) {
+		return update(event.getId(), (eventId, oldEvent) -> {
 			Event.Builder builder;
 			if(oldEvent != null) {
 				builder = new Event.Builder(oldEvent);
@@ -81,7 +105,7 @@ public class EventService extends EntityService<String, Event>{
 			if(event.getFields() != null) {
 				var fields = event.getFields().entrySet().stream()
 						.collect(Collectors.toMap(e -> e.getKey().intern(), e -> e.getValue().intern()));
-				builder.fields(Collections.unmodifiableMap(fields));
+				builder.fields(PersistentHashMap.of(fields));
 			}
 			Set<String> fromHistory = new HashSet<String>();
 			fromHistory.add(nodeName);
@@ -113,21 +137,54 @@ public class EventService extends EntityService<String, Event>{
 			if(event.getSourceType() != null) {
 				builder.sourceType(event.getSourceType());
 			}
-			entityChangedQueue.add(new QueueInfo<String>(event.getId(), QueueInfo.QueueInfoType.UPDATE));
-			return builder
-					.source(event.getSource())
+			builder.source(event.getSource())
 					.sourceKey(event.getSourceKey())
 					.status(event.getStatus())
 					.type(event.getType())
-					.endsOn(event.getEndsOn())
+					.endsOn(event.getEndsOn());
+			var unchanged = suppressUnchanged(oldEvent, builder.build());
+			if (unchanged != null) {
+				return unchanged;
+			}
+			if (itemChanges == null) {
+				entityChangedQueue.add(new QueueInfo<String>(event.getId(), QueueInfo.QueueInfoType.UPDATE));
+			} else {
+				calculate(builder, itemChanges);
+			}
+			return builder
 					.version(getNextVersion())
 					.build();
 		});
 	}
 
+	/*
+	 * Same result as queueRead, the item side is collected into itemChanges,
+	 * a null status removes the event from the item.
+	 */
+	private void calculate(Event.Builder builder, Map<String, Map<String, BaseStatus>> itemChanges) {
+		var event = builder.build();
+		var eventId = event.getId();
+		if (event.isDeleted()) {
+			itemService.findItemIdsByEventId(eventId)
+					.forEach(itemId -> itemChanges.computeIfAbsent(itemId, k -> new HashMap<>()).put(eventId, null));
+		} else {
+			var statuses = itemService.matchEvent(event);
+			statuses.forEach((itemId, status) -> itemChanges.computeIfAbsent(itemId, k -> new HashMap<>()).put(eventId, status));
+			builder.calculated(true).itemIdsUpdate(s -> s.plusAll(statuses.keySet()));
+		}
+	}
+
+	@Override
+	protected Event withFromHistory(Event event, Set<String> fromHistory) {
+		return new Event.Builder(event)
+				.calculated(event.getCalculated())
+				.fromHistory(fromHistory)
+				.build();
+	}
+
 	@Override
 	public Optional<Event> deleteById(String eventId) {
-		return Optional.ofNullable(entityCache.computeIfPresent(eventId, (k, oldEvent) -> {
+		return Optional.ofNullable(computeIfPresent(eventId, (k, oldEvent) -> {
 			if (oldEvent.isDeleted()) {
 				return oldEvent;
 			}
@@ -145,7 +202,7 @@ public class EventService extends EntityService<String, Event>{
 	protected void queueRead(QueueInfo<String> info) {
 		switch (info.getType()) {
 		case UPDATE:
-			entityCache.computeIfPresent(info.getId(), (k, event) -> {
+			computeIfPresent(info.getId(), (k, event) -> {
 				if (event.isDeleted()) {
 					itemService.eventRemoved(event);
 				} else {
@@ -153,13 +210,11 @@ public class EventService extends EntityService<String, Event>{
 					return new Event.Builder(event)
 							.calculated(true)
 							.version(getNextVersion())
-							.itemIdsUpdate(s-> s.addAll(itemIds))
+							.itemIdsUpdate(s -> s.plusAll(itemIds))
 							.build();
 				}
 				return event;
 			});
-		case UPDATED:
-			// not used
 			break;
 		}
 	}
@@ -197,17 +252,8 @@ public class EventService extends EntityService<String, Event>{
 	}
 
 	@Override
-	protected EntitySearchResult<String> getEntitySearchResult(String search) {
-		var lexer = new KSearchLexer(CharStreams.fromString(search));
-		lexer.removeErrorListeners();
-		lexer.addErrorListener(new EntityErrorListener());
-		var tokens = new CommonTokenStream(lexer);
-		var parser = new KSearchParser(tokens);
-		var tree = parser.parse();
-		var walker = new ParseTreeWalker();
-		var q = new EntitySearchListener(this, itemService, ServiceType.EVENT);
-		walker.walk(q, tree);
-		return q;
+	protected SearchNode compileSearch(String search) {
+		return EntitySearchListener.compile(search, this, itemService, ServiceType.EVENT);
 	}
 
 }
@@ -0,0 +1,124 @@
+package ru.keich.mon.servicemanager.item;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+import ru.keich.mon.servicemanager.BaseStatus;
+
+/*
+ * Copyright 2026 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/*
+ * Immutable count of live children per BaseStatus.
+ */
+public class ChildStatusHistogram {
+
+	public static final ChildStatusHistogram EMPTY = new ChildStatusHistogram(new int[BaseStatus.length], 0);
+
+	private final int[] counts;
+	private final int total;
+
+	private ChildStatusHistogram(int[] counts, int total) {
+		this.counts = counts;
+		this.total = total;
+	}
+
+	public static ChildStatusHistogram of(Collection<BaseStatus> statuses) {
+		var counts = new int[BaseStatus.length];
+		statuses.forEach(s -> counts[s.ordinal()]++);
+		return new ChildStatusHistogram(counts, statuses.size());
+	}
+
+	/*
+	 * Replaces one contribution. Null means the child is not counted.
+	 */
+	public ChildStatusHistogram replace(BaseStatus removed, BaseStatus added) {
+		if (removed == added) {
+			return this;
+		}
+		var c = Arrays.copyOf(counts, counts.length);
+		var t = total;
+		if (removed != null) {
+			c[removed.ordinal()]--;
+			t--;
+		}
+		if (added != null) {
+			c[added.ordinal()]++;
+			t++;
+		}
+		return new ChildStatusHistogram(c, t);
+	}
+
+	public int getTotal() {
+		return total;
+	}
+
+	public int getCount(BaseStatus status) {
+		return counts[status.ordinal()];
+	}
+
+	public BaseStatus getMax() {
+		for (int i = counts.length - 1; i > 0; i--) {
+			if (counts[i] > 0) {
+				return BaseStatus.values()[i];
+			}
+		}
+		return BaseStatus.CLEAR;
+	}
+
+	public int countAtLeast(BaseStatus threshold) {
+		var count = 0;
+		for (int i = threshold.ordinal(); i < counts.length; i++) {
+			count += counts[i];
+		}
+		return count;
+	}
+
+	/*
+	 * Lowest status that is not less than threshold, null when there is none.
+	 */
+	public BaseStatus minAtLeast(BaseStatus threshold) {
+		for (int i = threshold.ordinal(); i < counts.length; i++) {
+			if (counts[i] > 0) {
+				return BaseStatus.values()[i];
+			}
+		}
+		return null;
+	}
+
+	@Override
+	public int hashCode() {
+		return Arrays.hashCode(counts);
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (obj == null)
+			return false;
+		if (getClass() != obj.getClass())
+			return false;
+		ChildStatusHistogram other = (ChildStatusHistogram) obj;
+		return Arrays.equals(counts, other.counts);
+	}
+
+	@Override
+	public String toString() {
+		return "ChildStatusHistogram [counts=" + Arrays.toString(counts) + ", total=" + total + "]";
+	}
+
+}
@@ -0,0 +1,74 @@
+package ru.keich.mon.servicemanager.item;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+import ru.keich.mon.servicemanager.BaseStatus;
+
+/*
+ * Copyright 2026 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/*
+ * Live children of one parent item. Every change reads the latest state from
+ * the cache under the lock, so out of order notifications converge.
+ */
+class ChildStatuses {
+
+	private final Map<String, BaseStatus> children = new HashMap<>();
+	private volatile ChildStatusHistogram histogram = ChildStatusHistogram.EMPTY;
+
+	public ChildStatusHistogram getHistogram() {
+		return histogram;
+	}
+
+	/*
+	 * Returns true if the histogram changed.
+	 */
+	public synchronized boolean refresh(String parentId, String childId, Function<String, Item> items) {
+		var added = childrenIdsOf(items.apply(parentId)).contains(childId) ? statusOf(items.apply(childId)) : null;
+		var removed = added == null ? children.remove(childId) : children.put(childId, added);
+		var next = histogram.replace(removed, added);
+		var changed = next != histogram;
+		histogram = next;
+		return changed;
+	}
+
+	public synchronized boolean rebuild(String parentId, Function<String, Item> items) {
+		children.clear();
+		for (var childId : childrenIdsOf(items.apply(parentId))) {
+			var status = statusOf(items.apply(childId));
+			if (status != null) {
+				children.put(childId, status);
+			}
+		}
+		var next = ChildStatusHistogram.of(children.values());
+		var changed = !next.equals(histogram);
+		histogram = next;
+		return changed;
+	}
+
+	private static Set<String> childrenIdsOf(Item parent) {
+		return parent == null || parent.getChildrenIds() == null ? Collections.emptySet() : parent.getChildrenIds();
+	}
+
+	private static BaseStatus statusOf(Item item) {
+		return item == null || item.isDeleted() ? null : item.getStatus();
+	}
+
+}
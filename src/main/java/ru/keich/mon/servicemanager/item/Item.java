@@ -2,21 +2,25 @@ package ru.keich.mon.servicemanager.item;
 
 import java.time.Instant;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
-import java.util.function.Consumer;
+import java.util.function.UnaryOperator;
 import java.util.stream.Collectors;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
 import lombok.Getter;
 import ru.keich.mon.servicemanager.BaseStatus;
 import ru.keich.mon.servicemanager.SourceType;
 import ru.keich.mon.servicemanager.entity.Entity;
+import ru.keich.mon.servicemanager.entity.EntityHashTree;
 import ru.keich.mon.servicemanager.event.Event;
+import ru.keich.mon.servicemanager.util.PersistentHashMap;
+import ru.keich.mon.servicemanager.util.PersistentHashSet;
 import tools.jackson.databind.annotation.JsonSerialize;
 
 /*
@@ -57,6 +61,9 @@ public class Item extends Entity<String> {
 	private final boolean hasChildren;
 	
 	private final String name;
+
+	@JsonIgnore
+	private final String nameUpperCase;
 	
 	
 	private final Map<String, BaseStatus> eventsStatus;
@@ -98,11 +105,12 @@ public class Item extends Entity<String> {
 			) {
 		super(id, version, source, sourceKey, sourceType, fields, fromHistory, createdOn, updatedOn, deletedOn, status);
 		this.name = name;
+		this.nameUpperCase = name == null ? null : name.toUpperCase();
 		this.rules = rules;
 		this.filters = filters;
-		this.childrenIds = childrenIds;
+		this.childrenIds = PersistentHashSet.of(childrenIds);
 		this.hasChildren = childrenIds != null ? this.childrenIds.size() > 0 : false;
-		this.eventsStatus = eventsStatus;
+		this.eventsStatus = PersistentHashMap.of(eventsStatus);
 		this.children = children;
 		this.parents = parents;
 		this.events = events;
@@ -128,7 +136,7 @@ public class Item extends Entity<String> {
 	}
 	
 	public static Set<Object> getNameForQuery(Item item) {
-		return Collections.singleton(item.getName().toUpperCase());
+		return Collections.singleton(item.nameUpperCase);
 	}
 	
 	public static Set<Object> getEventsIdsForIndex(Item item) {
@@ -156,6 +164,30 @@ public class Item extends Entity<String> {
 		}
 		return Entity.fieldValueOf(fieldName, str);
 	}
+	@Override
+	public boolean hasSameContent(Entity<String> stored) {
+		if (!(stored instanceof Item other) || !super.hasSameContent(stored)) {
+			return false;
+		}
+		return Objects.equals(name, other.name)
+				&& Objects.equals(rules, other.rules)
+				&& Objects.equals(filters, other.filters)
+				&& Objects.equals(childrenIds, other.childrenIds)
+				&& Objects.equals(maintenance, other.maintenance);
+	}
+
+	/*
+	 * The status is calculated on every node, so it is not part of the hash.
+	 */
+	@Override
+	public long contentHash() {
+		var hash = EntityHashTree.hash(super.contentHash(), Objects.hashCode(name));
+		hash = EntityHashTree.hash(hash, EntityHashTree.hashOf(rules));
+		hash = EntityHashTree.hash(hash, EntityHashTree.hashOf(filters));
+		hash = EntityHashTree.hash(hash, Objects.hashCode(childrenIds));
+		return EntityHashTree.hash(hash, Objects.hashCode(maintenance));
+	}
+
 	@Override
 	public String toString() {
 		return "Item [name=" + name + ", status=" + getStatus() + ", fields=" + getFields() + ", rules=" + rules + ", filters=" + filters
@@ -221,7 +253,7 @@ public class Item extends Entity<String> {
 			createdOn,
 			updatedOn,
 			deletedOn,
-			Collections.unmodifiableMap(eventsStatus),
+			eventsStatus,
 			aggStatus,
 			children,
 			parents,
@@ -263,9 +295,8 @@ public class Item extends Entity<String> {
 			return this;
 		}
 
-		public Builder eventsStatusUpdate(Consumer<Map<String, BaseStatus>> s) {
-			eventsStatus =  new HashMap<>(eventsStatus);
-			s.accept(eventsStatus);
+		public Builder eventsStatusUpdate(UnaryOperator<PersistentHashMap<String, BaseStatus>> s) {
+			eventsStatus = s.apply(PersistentHashMap.of(eventsStatus));
 			return this;
 		}
 
@@ -361,7 +392,7 @@ public class Item extends Entity<String> {
 		}
 
 		public Builder childrenIds(Set<String> childrenIds) {
-			this.childrenIds = childrenIds;
+			this.childrenIds = PersistentHashSet.of(childrenIds);
 			return this;
 		}
 
@@ -0,0 +1,112 @@
+package ru.keich.mon.servicemanager.item;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import ru.keich.mon.servicemanager.BaseStatus;
+import ru.keich.mon.servicemanager.persistence.EntityBinaryCodec;
+import ru.keich.mon.servicemanager.persistence.EntityHeader;
+import ru.keich.mon.servicemanager.persistence.EntityInput;
+import ru.keich.mon.servicemanager.persistence.EntityOutput;
+
+/*
+ * Copyright 2026 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+public class ItemBinaryCodec implements EntityBinaryCodec<Item> {
+
+	@Override
+	public void write(Item item, EntityOutput out) {
+		out.writeString(item.getId());
+		EntityBinaryCodec.writeEntity(item, out);
+		out.writeString(item.getName());
+		var rules = item.getRules() == null ? Collections.<String, ItemRule>emptyMap() : item.getRules();
+		out.writeVarInt(rules.size());
+		rules.forEach((name, rule) -> {
+			out.writeString(name);
+			out.writeEnum(rule.getResultStatus());
+			out.writeBoolean(rule.isUsingResultStatus());
+			out.writeEnum(rule.getStatusThreshold());
+			out.writeVarInt(rule.getValueThreshold());
+			out.writeEnum(rule.getType());
+		});
+		var filters = item.getFilters() == null ? Collections.<String, ItemFilter>emptyMap() : item.getFilters();
+		out.writeVarInt(filters.size());
+		filters.forEach((name, filter) -> {
+			out.writeString(name);
+			out.writeEnum(filter.getResultStatus());
+			out.writeBoolean(filter.isUsingResultStatus());
+			out.writeStringMap(filter.getEqualFields());
+		});
+		out.writeStringSet(item.getChildrenIds());
+		var eventsStatus = item.getEventsStatus();
+		out.writeVarInt(eventsStatus.size());
+		eventsStatus.forEach((id, status) -> {
+			out.writeString(id);
+			out.writeEnum(status);
+		});
+		var absolute = item.getMaintenance() == null ? null : item.getMaintenance().getAbsolute();
+		out.writeBoolean(absolute != null);
+		if (absolute != null) {
+			out.writeInstant(absolute.getStartsOn());
+			out.writeInstant(absolute.getEndsOn());
+		}
+	}
+
+	@Override
+	public Item read(EntityHeader header, EntityInput in) {
+		var builder = new Item.Builder(in.readString());
+		EntityBinaryCodec.readEntity(builder, header, in);
+		builder.name(in.readString());
+		var size = in.readVarInt();
+		var rules = new HashMap<String, ItemRule>(size * 2);
+		for (int i = 0; i < size; i++) {
+			rules.put(in.readString(), new ItemRule(in.readEnum(BaseStatus.values()),
+					in.readBoolean(),
+					in.readEnum(BaseStatus.values()),
+					in.readVarInt(),
+					in.readEnum(ItemRule.RuleType.values())));
+		}
+		size = in.readVarInt();
+		var filters = new HashMap<String, ItemFilter>(size * 2);
+		for (int i = 0; i < size; i++) {
+			filters.put(in.readString(), new ItemFilter(in.readEnum(BaseStatus.values()),
+					in.readBoolean(),
+					in.readStringMap()));
+		}
+		var childrenIds = in.readStringSet();
+		size = in.readVarInt();
+		Map<String, BaseStatus> eventsStatus = new HashMap<>(size * 2);
+		for (int i = 0; i < size; i++) {
+			eventsStatus.put(in.readString(), in.readEnum(BaseStatus.values()));
+		}
+		var maintenance = ItemMaintenance.EMPTY;
+		if (in.readBoolean()) {
+			maintenance = new ItemMaintenance(new ItemMaintenance.AbsoluteMaintenance(in.readInstant(), in.readInstant()));
+		}
+		return builder.rules(Collections.unmodifiableMap(rules))
+				.filters(Collections.unmodifiableMap(filters))
+				.childrenIds(childrenIds)
+				.eventsStatus(eventsStatus)
+				.maintenance(maintenance)
+				.status(header.status())
+				.children(Collections.emptyList())
+				.parents(Collections.emptyList())
+				.events(Collections.emptyList())
+				.build();
+	}
+
+}
@@ -1,10 +1,14 @@
 package ru.keich.mon.servicemanager.item;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.stream.Stream;
 
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.util.MultiValueMap;
 import org.springframework.web.bind.annotation.CrossOrigin;
@@ -13,12 +17,20 @@ import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import lombok.extern.java.Log;
 import ru.keich.mon.servicemanager.entity.EntityController;
+import ru.keich.mon.servicemanager.entity.EntityHashTree;
+import ru.keich.mon.servicemanager.entity.EntityIngestSummary;
+import ru.keich.mon.servicemanager.entity.EntityUpdateResult;
+import ru.keich.mon.servicemanager.persistence.BinaryChangeStream;
 import ru.keich.mon.servicemanager.event.Event;
 import ru.keich.mon.servicemanager.event.EventService;
 
@@ -52,22 +64,65 @@ public class ItemController extends EntityController<String, Item> {
 	private final EventService eventService;
 
 	public ItemController(ItemService itemService, EventService eventService) {
-		super(itemService);
+		super(itemService, new ItemBinaryCodec());
 		this.itemService = itemService;
 		this.eventService = eventService;
 	}
 
 	@Override
 	@PostMapping(value = "/item", produces = "application/json")
-	public ResponseEntity<String> addOrUpdate(@RequestBody List<Item> items) {
+	public ResponseEntity<List<EntityUpdateResult<String>>> addOrUpdate(@RequestBody List<Item> items) {
 		return super.addOrUpdate(items);
 	}
 
+	@PostMapping(value = "/item", consumes = "application/x-ndjson", produces = "application/json")
+	public ResponseEntity<EntityIngestSummary<String>> addOrUpdateNdjson(InputStream body) throws IOException {
+		return super.addOrUpdateNdjson(body, Item.class);
+	}
+
+	@Override
+	@GetMapping(value = "/item", produces = { "application/json", "application/x-ndjson" })
+	@CrossOrigin(origins = "*")
+	public ResponseEntity<StreamingResponseBody> find(@RequestParam MultiValueMap<String, String> reqParam,
+			@RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept) {
+		return super.find(reqParam, accept);
+	}
+
+	@GetMapping(value = "/item/_changes", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+	public SseEmitter changes(@RequestParam(name = CHANGES_SINCE, defaultValue = "0") long since,
+			@RequestHeader(name = "Last-Event-ID", required = false) String lastEventId,
+			@RequestParam(name = CHANGES_EXCLUDE, required = false) String exclude,
+			@RequestParam(name = CHANGES_FOLLOW, defaultValue = "true") boolean follow,
+			@RequestParam(name = CHANGES_BUCKETS, required = false) String buckets) {
+		return super.changes(since, lastEventId, exclude, follow, buckets);
+	}
+
+	@GetMapping(value = "/item/_changes", produces = BinaryChangeStream.MEDIA_TYPE)
+	public ResponseEntity<ResponseBodyEmitter> changesBinary(@RequestParam(name = CHANGES_SINCE, defaultValue = "0") long since,
+			@RequestParam(name = CHANGES_EXCLUDE, required = false) String exclude,
+			@RequestParam(name = CHANGES_FOLLOW, defaultValue = "true") boolean follow,
+			@RequestParam(name = CHANGES_BUCKETS, required = false) String buckets) {
+		return super.changesBinary(since, exclude, follow, buckets);
+	}
+
+	@GetMapping(value = "/item/_tree", produces = "application/json")
+	public ResponseEntity<EntityHashTree.Level> tree(@RequestParam(name = TREE_LEVEL, defaultValue = "0") int level,
+			@RequestParam(name = TREE_NODES, required = false) String nodes) {
+		return super.tree(level, nodes);
+	}
+
+	@Override
+	@GetMapping(value = "/item/_count", produces = "application/json")
+	@CrossOrigin(origins = "*")
+	public ResponseEntity<String> count(@RequestParam MultiValueMap<String, String> reqParam) {
+		return super.count(reqParam);
+	}
+
 	@Override
-	@GetMapping(value = "/item", produces = "application/json")
+	@GetMapping(value = "/item/_aggregate", produces = "application/json")
 	@CrossOrigin(origins = "*")
-	public ResponseEntity<String> find(@RequestParam MultiValueMap<String, String> reqParam) {
-		return super.find(reqParam);
+	public ResponseEntity<String> aggregate(@RequestParam MultiValueMap<String, String> reqParam) {
+		return super.aggregate(reqParam);
 	}
 
 	@GetMapping(value = "/item/{id}", produces = "application/json")
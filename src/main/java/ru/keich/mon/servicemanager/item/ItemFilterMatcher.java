@@ -0,0 +1,160 @@
+package ru.keich.mon.servicemanager.item;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+
+/*
+ * Copyright 2026 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/*
+ * Inverted index of ItemFilter.equalFields. Every filter is posted once,
+ * under the (field, value) pair that had the shortest posting list when the
+ * filter was added. An event is matched in one pass over its fields: each hit
+ * checks the remaining pairs of the posted filters with direct lookups, so
+ * common pairs like env=prod do not make every event touch every filter.
+ * Filters without equal fields never match.
+ */
+public class ItemFilterMatcher {
+
+	public record Match(String itemId, ItemFilter filter) {}
+
+	/*
+	 * order is the position in item.getFilters(), the first matching filter of an item wins.
+	 */
+	private record CompiledFilter(String itemId, String name, ItemFilter filter, Map.Entry<String, String> anchor, int order) {}
+
+	private final Map<Map.Entry<String, String>, Set<CompiledFilter>> postings = new HashMap<>();
+	private final Map<String, List<CompiledFilter>> itemFilters = new HashMap<>();
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+	/*
+	 * Reindexes one item from its current state, so calls may come in any order.
+	 */
+	public void refresh(String itemId, Function<String, Item> items) {
+		lock.writeLock().lock();
+		try {
+			remove(itemId);
+			var item = items.apply(itemId);
+			if (item == null || item.isDeleted() || item.getFilters() == null) {
+				return;
+			}
+			var compiled = new ArrayList<CompiledFilter>(item.getFilters().size());
+			var order = 0;
+			for (var e : item.getFilters().entrySet()) {
+				var anchor = anchorOf(e.getValue());
+				if (anchor != null) {
+					var c = new CompiledFilter(itemId, e.getKey(), e.getValue(), anchor, order);
+					compiled.add(c);
+					postings.computeIfAbsent(anchor, k -> new HashSet<>()).add(c);
+				}
+				order++;
+			}
+			if (!compiled.isEmpty()) {
+				itemFilters.put(itemId, compiled);
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	private Map.Entry<String, String> anchorOf(ItemFilter filter) {
+		Map.Entry<String, String> anchor = null;
+		var anchorSize = Integer.MAX_VALUE;
+		for (var e : filter.getEqualFields().entrySet()) {
+			var filters = postings.get(e);
+			var size = filters == null ? 0 : filters.size();
+			if (size < anchorSize) {
+				anchor = Map.entry(e.getKey(), e.getValue());
+				anchorSize = size;
+			}
+		}
+		return anchor;
+	}
+
+	private void remove(String itemId) {
+		var compiled = itemFilters.remove(itemId);
+		if (compiled == null) {
+			return;
+		}
+		for (var c : compiled) {
+			var filters = postings.get(c.anchor());
+			if (filters != null) {
+				filters.remove(c);
+				if (filters.isEmpty()) {
+					postings.remove(c.anchor());
+				}
+			}
+		}
+	}
+
+	/*
+	 * Returns at most one filter per item: of the filters that match, the first in
+	 * item.getFilters() order, whatever order the postings are reached in.
+	 */
+	public List<Match> match(Map<String, String> fields) {
+		if (fields == null || fields.isEmpty()) {
+			return Collections.emptyList();
+		}
+		lock.readLock().lock();
+		try {
+			var matched = new HashMap<String, CompiledFilter>();
+			for (var field : fields.entrySet()) {
+				var filters = postings.get(field);
+				if (filters == null) {
+					continue;
+				}
+				for (var c : filters) {
+					var first = matched.get(c.itemId());
+					if ((first == null || c.order() < first.order()) && matches(c.filter(), fields)) {
+						matched.put(c.itemId(), c);
+					}
+				}
+			}
+			var out = new ArrayList<Match>(matched.size());
+			matched.values().forEach(c -> out.add(new Match(c.itemId(), c.filter())));
+			return out;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	private static boolean matches(ItemFilter filter, Map<String, String> fields) {
+		for (var e : filter.getEqualFields().entrySet()) {
+			if (!e.getValue().equals(fields.get(e.getKey()))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	public int size() {
+		lock.readLock().lock();
+		try {
+			return itemFilters.size();
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+}
@@ -2,6 +2,7 @@ package ru.keich.mon.servicemanager.item;
 
 import java.time.Instant;
 import java.util.Collections;
+import java.util.Objects;
 import java.util.Set;
 import java.util.function.Supplier;
 
@@ -30,6 +31,23 @@ public class ItemMaintenance {
 			this.endsOn = endsOn;
 		}
 
+		@Override
+		public int hashCode() {
+			return Objects.hash(startsOn, endsOn);
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj)
+				return true;
+			if (obj == null)
+				return false;
+			if (getClass() != obj.getClass())
+				return false;
+			AbsoluteMaintenance other = (AbsoluteMaintenance) obj;
+			return Objects.equals(startsOn, other.startsOn) && Objects.equals(endsOn, other.endsOn);
+		}
+
 		@Override
 		public String toString() {
 			return "AbsoluteMaintenance [startsOn=" + startsOn + ", endsOn=" + endsOn + "]";
@@ -66,6 +84,23 @@ public class ItemMaintenance {
 		absoluteEndsOnForIndex = Collections.emptySet();
 	}
 
+	@Override
+	public int hashCode() {
+		return Objects.hash(absolute);
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (obj == null)
+			return false;
+		if (getClass() != obj.getClass())
+			return false;
+		ItemMaintenance other = (ItemMaintenance) obj;
+		return Objects.equals(absolute, other.absolute);
+	}
+
 	@Override
 	public String toString() {
 		return "ItemMaintenance [absolute=" + absolute + "]";
@@ -1,7 +1,6 @@
 package ru.keich.mon.servicemanager.item;
 
 import java.util.Collection;
-import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 
@@ -89,10 +88,10 @@ public class ItemRule {
 		this.type = type;
 	}
 	
-	public static BaseStatus calculateMax(Collection<ItemRule> rules, List<Item> items) {
+	public static BaseStatus calculateMax(Collection<ItemRule> rules, ChildStatusHistogram children) {
 		var maxStatus = BaseStatus.CLEAR;
 		for (var rule : rules) {
-			var status = rule.calculate(items);
+			var status = rule.calculate(children);
 			if (maxStatus.lessThen(status)) {
 				maxStatus = status;
 			}
@@ -103,51 +102,32 @@ public class ItemRule {
 		return maxStatus;
 	}
 
-	public BaseStatus calculate(List<Item> items) {
+	public BaseStatus calculate(ChildStatusHistogram children) {
 		switch(type) {
 		case CLUSTER:
-			return doCluster(items);
+			return doCluster(children);
 		default:
-			return doDefault(items);
+			return doDefault(children);
 		}
 	}
 
-	private BaseStatus doCluster(List<Item> items) {	
-		if (items.size() == 0) {
+	private BaseStatus doCluster(ChildStatusHistogram children) {
+		if (children.getTotal() == 0) {
 			return BaseStatus.CLEAR;
 		}
-		int filteredCount = 0;
-		var minStatus = BaseStatus.MAX;
-		for(var item: items) {
-			var status = item.getStatus();
-			if (statusThreshold.lessThenOrEqual(status)) {
-				if (minStatus.moreThen(status)) {
-					minStatus = status;
-				}
-				filteredCount++;
-			}
-		}
-		if (100 * filteredCount / items.size() >= valueThreshold) {
+		int filteredCount = children.countAtLeast(statusThreshold);
+		if (100 * filteredCount / children.getTotal() >= valueThreshold) {
 			if (usingResultStatus) {
 				return getResultStatus();
 			}
-			return minStatus;
+			var minStatus = children.minAtLeast(statusThreshold);
+			return minStatus == null ? BaseStatus.MAX : minStatus;
 		}
 		return BaseStatus.CLEAR;
 	}
 
-	public static BaseStatus doDefault(List<Item> items) {
-		var maxStatus = BaseStatus.CLEAR;
-		for(var item: items) {
-			var status = item.getStatus();
-			if(maxStatus.lessThen(status)) {
-				maxStatus = status;
-			}
-			if(maxStatus.equals(BaseStatus.MAX)) {
-				break;
-			}
-		}
-		return maxStatus;
+	public static BaseStatus doDefault(ChildStatusHistogram children) {
+		return children.getMax();
 	}
 
 }
@@ -1,24 +1,22 @@
 package ru.keich.mon.servicemanager.item;
 
 import java.time.Instant;
-import java.util.ArrayList;
-import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
-import java.util.function.Consumer;
+import java.util.function.UnaryOperator;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
-import org.antlr.v4.runtime.CharStreams;
-import org.antlr.v4.runtime.CommonTokenStream;
-import org.antlr.v4.runtime.tree.ParseTreeWalker;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
@@ -26,19 +24,21 @@ import org.springframework.stereotype.Service;
 import io.micrometer.core.instrument.MeterRegistry;
 import lombok.extern.java.Log;
 import ru.keich.mon.servicemanager.BaseStatus;
-import ru.keich.mon.servicemanager.KSearchLexer;
-import ru.keich.mon.servicemanager.KSearchParser;
 import ru.keich.mon.servicemanager.QueueInfo;
-import ru.keich.mon.servicemanager.entity.EntityErrorListener;
+import ru.keich.mon.servicemanager.QueueThreadReaderFactory;
 import ru.keich.mon.servicemanager.entity.EntitySearchListener;
 import ru.keich.mon.servicemanager.entity.EntitySearchListener.ServiceType;
-import ru.keich.mon.servicemanager.entity.EntitySearchResult;
+import ru.keich.mon.servicemanager.entity.SearchNode;
 import ru.keich.mon.servicemanager.entity.EntityService;
+import ru.keich.mon.servicemanager.entity.EntityUpdateResult;
 import ru.keich.mon.servicemanager.event.Event;
 import ru.keich.mon.servicemanager.event.EventService;
+import ru.keich.mon.servicemanager.persistence.EntityPersistenceFactory;
 import ru.keich.mon.servicemanager.query.Operator;
 import ru.keich.mon.servicemanager.query.QueryParamsParser;
 import ru.keich.mon.servicemanager.query.QuerySort;
+import ru.keich.mon.servicemanager.util.PersistentHashMap;
+import ru.keich.mon.servicemanager.util.PersistentHashSet;
 
 
 /*
@@ -63,28 +63,33 @@ import ru.keich.mon.servicemanager.query.QuerySort;
 public class ItemService extends EntityService<String, Item> {
 	
 	private final EventService eventService;
+	private final Map<String, ChildStatuses> childStatuses = new ConcurrentHashMap<>();
+	private final ItemFilterMatcher filterMatcher = new ItemFilterMatcher();
 	
 	public ItemService(@Value("${replication.nodename}") String nodeName
 			,EventService eventService
 			,MeterRegistry registry
+			,EntityPersistenceFactory persistenceFactory
+			,QueueThreadReaderFactory queueFactory
 			,@Value("${item.aggstatus.seconds:60}") Long aggStatusSeconds) {
-		super(nodeName, registry);
+		super(nodeName, registry, persistenceFactory.create("item", Item.class, new ItemBinaryCodec()), queueFactory);
 		AggregateStatus.setSeconds(aggStatusSeconds);
-		entityCache.addIndexEqual(Item.FIELD_FILTERS_EQL, Item::getFiltersForIndex);
-		entityCache.addIndexEqual(Item.FIELD_PARENTS, Item::getParentsForIndex);
-		entityCache.addIndexEqual(Item.FIELD_EVENTIDS, Item::getEventsIdsForIndex);
-		entityCache.addIndexSorted(Item.FIELD_MAINTENANCE_ABSOLUTE_STARTSON, Item::getMaintenanceAbsolutStartOnForIndex);
-		entityCache.addIndexSorted(Item.FIELD_MAINTENANCE_ABSOLUTE_ENDSON, Item::getMaintenanceAbsolutEndOnForIndex);
+		addIndexEqual(Item.FIELD_FILTERS_EQL, Item::getFiltersForIndex);
+		addIndexEqual(Item.FIELD_PARENTS, Item::getParentsForIndex);
+		addIndexEqual(Item.FIELD_EVENTIDS, Item::getEventsIdsForIndex);
+		addIndexSorted(Item.FIELD_MAINTENANCE_ABSOLUTE_STARTSON, Item::getMaintenanceAbsolutStartOnForIndex);
+		addIndexSorted(Item.FIELD_MAINTENANCE_ABSOLUTE_ENDSON, Item::getMaintenanceAbsolutEndOnForIndex);
 		this.eventService = eventService;
 		eventService.setItemService(this);
 		queryValueMapper.put(Item.FIELD_NAME, Item::getNameForQuery);
 		queryValueMapper.put(Item.FIELD_AGGSTATUS, Item::getAggStatusForQuery);
+		addTrigramIndex(Item.FIELD_NAME);
 		registerIndexMetrics();
 	}
 
 	@Override
-	public void addOrUpdate(Item item) {
-		entityCache.compute(item.getId(), (itemId, oldItem) -> {
+	public EntityUpdateResult.Status addOrUpdate(Item item) {
+		return update(item.getId(), (itemId, oldItem) -> {
 			Item.Builder builder;
 			if(oldItem != null) {
 				builder = new Item.Builder(oldItem);
@@ -98,7 +103,7 @@ public class ItemService extends EntityService<String, Item> {
 			if(item.getFields() != null) {
 				var fields = item.getFields().entrySet().stream()
 						.collect(Collectors.toMap(e -> e.getKey().intern(), e -> e.getValue().intern()));
-				builder.fields(Collections.unmodifiableMap(fields));
+				builder.fields(PersistentHashMap.of(fields));
 			}
 			Set<String> fromHistory = new HashSet<String>();
 			fromHistory.add(nodeName);
@@ -127,7 +132,7 @@ public class ItemService extends EntityService<String, Item> {
 				builder.filters(Collections.unmodifiableMap(item.getFilters()));
 			}
 			if(item.getChildrenIds() != null) {
-				builder.childrenIds(Collections.unmodifiableSet(item.getChildrenIds()));
+				builder.childrenIds(PersistentHashSet.of(item.getChildrenIds()));
 			}
 			if(item.getMaintenance() != null) {
 				builder.maintenance(item.getMaintenance());
@@ -137,19 +142,87 @@ public class ItemService extends EntityService<String, Item> {
 			if(item.getSourceType()  != null) {
 				builder.sourceType(item.getSourceType());
 			}
+			builder.source(item.getSource())
+					.sourceKey(item.getSourceKey());
+			var unchanged = suppressUnchanged(oldItem, builder.build());
+			if (unchanged != null) {
+				return unchanged;
+			}
 			entityChangedQueue.add(new QueueInfo<String>(item.getId(), QueueInfo.QueueInfoType.UPDATE));
 			return builder
 					.version(getNextVersion())
-					.source(item.getSource())
-					.sourceKey(item.getSourceKey())
 					.build();
 		});
 
 	}
 
+	/*
+	 * Keeps parent histograms in step with committed children. Parents are
+	 * queued only when a histogram really changed.
+	 */
+	@Override
+	protected void entityChanged(Item oldItem, Item item) {
+		super.entityChanged(oldItem, item);
+		if (item == null) {
+			childStatuses.remove(oldItem.getId());
+			filterMatcher.refresh(oldItem.getId(), entityCache::get);
+			return;
+		}
+		var id = item.getId();
+		if (oldItem == null || oldItem.isDeleted() != item.isDeleted() || !Objects.equals(oldItem.getFilters(), item.getFilters())) {
+			filterMatcher.refresh(id, entityCache::get);
+		}
+		if (oldItem == null || !Objects.equals(oldItem.getChildrenIds(), item.getChildrenIds())) {
+			var hasChildren = item.getChildrenIds() != null && !item.getChildrenIds().isEmpty();
+			if (hasChildren || childStatuses.containsKey(id)) {
+				if (childStatusesOf(id).rebuild(id, entityCache::get)) {
+					entityChangedQueue.add(new QueueInfo<String>(id, QueueInfo.QueueInfoType.UPDATE));
+				}
+			}
+		}
+		if (oldItem == null || oldItem.getStatus() != item.getStatus() || oldItem.isDeleted() != item.isDeleted()) {
+			for (var parentId : findParentIdsById(id)) {
+				if (childStatusesOf(parentId).refresh(parentId, id, entityCache::get)) {
+					entityChangedQueue.add(new QueueInfo<String>(parentId, QueueInfo.QueueInfoType.UPDATE));
+				}
+			}
+		}
+	}
+
+	private ChildStatuses childStatusesOf(String itemId) {
+		return childStatuses.computeIfAbsent(itemId, k -> new ChildStatuses());
+	}
+
+	@Override
+	public void afterSingletonsInstantiated() {
+		super.afterSingletonsInstantiated();
+		entityCache.keySet().forEach(id -> {
+			var item = entityCache.get(id);
+			filterMatcher.refresh(id, entityCache::get);
+			if (item != null && item.getChildrenIds() != null && !item.getChildrenIds().isEmpty()) {
+				childStatusesOf(id).rebuild(id, entityCache::get);
+			}
+		});
+	}
+
+	@Override
+	protected Item restore(Item item) {
+		return new Item.Builder(item)
+				.aggStatus(AggregateStatus.EMPTY)
+				.status(item.getStatus())
+				.build();
+	}
+
+	@Override
+	protected Item withFromHistory(Item item, Set<String> fromHistory) {
+		return new Item.Builder(item)
+				.fromHistory(fromHistory)
+				.build();
+	}
+
 	@Override
 	public Optional<Item> deleteById(String itemId) {
-		return Optional.ofNullable(entityCache.computeIfPresent(itemId,  (k, item) -> {
+		return Optional.ofNullable(computeIfPresent(itemId,  (k, item) -> {
 			if (item.isDeleted()) {
 				return item;
 			}
@@ -166,13 +239,12 @@ public class ItemService extends EntityService<String, Item> {
 	protected void queueRead(QueueInfo<String> info) {
 		switch(info.getType()) {
 		case UPDATE:
-			entityCache.computeIfPresent(info.getId(), (id, item) -> {
+			computeIfPresent(info.getId(), (id, item) -> {
 				var newStatus = BaseStatus.CLEAR;
 				if(item.isNotDeleted() && !item.isMaintenanceOn()) {
 					newStatus = calculateStatus(item);
 				}
 				if(item.getStatus() != newStatus) {
-					entityChangedQueue.add(new QueueInfo<String>(id, QueueInfo.QueueInfoType.UPDATED));
 					return new Item.Builder(item)
 							.version(getNextVersion())
 							.status(newStatus)
@@ -181,20 +253,13 @@ public class ItemService extends EntityService<String, Item> {
 				return item;
 			});
 			break;
-		case UPDATED:
-			entityCache.computeIfPresent(info.getId(), (id, item) -> {
-				findParentIdsById(info.getId())
-						.forEach(parentId -> entityChangedQueue.add(new QueueInfo<String>(parentId, QueueInfo.QueueInfoType.UPDATE)));
-				return item;
-			});
-			break;
 		default:
 			break;
 		}
 	}
 
-	public void itemUpdateEventsStatus(String itemId, Consumer<Map<String, BaseStatus>> s) {
-		entityCache.computeIfPresent(itemId, (k, item) -> {
+	public void itemUpdateEventsStatus(String itemId, UnaryOperator<PersistentHashMap<String, BaseStatus>> s) {
+		computeIfPresent(itemId, (k, item) -> {
 			entityChangedQueue.add(new QueueInfo<String>(itemId, QueueInfo.QueueInfoType.UPDATE));
 			return new Item.Builder(item)
 					.version(getNextVersion())
@@ -204,54 +269,60 @@ public class ItemService extends EntityService<String, Item> {
 	}
 
 	public void eventRemoved(Event event) {
-		entityCache.keySetIndexEq(Item.FIELD_EVENTIDS, event.getId())
-				.forEach(itemId -> itemUpdateEventsStatus(itemId, m -> m.remove(event.getId())));
+		keysEq(Item.FIELD_EVENTIDS, event.getId())
+				.forEach(itemId -> itemUpdateEventsStatus(itemId, m -> m.minus(event.getId())));
 	}
 
 	public List<String> eventChanged(Event event) {
-		var itemFilters = findFiltersByEqualFields(event.getFields());
-		var out = new ArrayList<String>(itemFilters.size());
-		for(var itft: itemFilters) {
-			var itemId = itft.item.getId();
-			out.add(itemId);
-			itemUpdateEventsStatus(itemId, m -> m.put(event.getId(), itft.itemFilter.getStatus(event)));
+		var statuses = matchEvent(event);
+		statuses.forEach((itemId, status) -> itemUpdateEventsStatus(itemId, m -> m.plus(event.getId(), status)));
+		return List.copyOf(statuses.keySet());
+	}
+
+	/*
+	 * Status the event gives to each item whose filter matches it.
+	 */
+	public Map<String, BaseStatus> matchEvent(Event event) {
+		var out = new LinkedHashMap<String, BaseStatus>();
+		for (var itft : findFiltersByEqualFields(event.getFields())) {
+			out.put(itft.itemId(), itft.filter().getStatus(event));
 		}
 		return out;
 	}
 
+	public Set<String> findItemIdsByEventId(String eventId) {
+		return keysEq(Item.FIELD_EVENTIDS, eventId);
+	}
+
+	/*
+	 * Applies the event changes of a batch with one update per item, so each item
+	 * is recalculated once. A null status removes the event from the item.
+	 */
+	public void eventsChanged(Map<String, Map<String, BaseStatus>> itemChanges) {
+		itemChanges.forEach((itemId, statuses) -> itemUpdateEventsStatus(itemId, m -> {
+			var out = m;
+			for (var e : statuses.entrySet()) {
+				out = e.getValue() == null ? out.minus(e.getKey()) : out.plus(e.getKey(), e.getValue());
+			}
+			return out;
+		}));
+	}
+
 	private BaseStatus calculateStatus(Item item) {
-		var children = findByIds(item.getChildrenIds());
-		children.removeIf(child -> child.isDeleted());
-		children.sort((a, b) -> b.getStatus().compareTo(a.getStatus()));
+		var statuses = childStatuses.get(item.getId());
+		var children = statuses == null ? ChildStatusHistogram.EMPTY : statuses.getHistogram();
 		var rulesStatus = ItemRule.calculateMax(item.getRules().values(), children);
 		var eventsStatus = BaseStatus.max(item.getEventsStatus().values());
 		return eventsStatus.lessThen(rulesStatus) ? rulesStatus : eventsStatus;
 	}
 	
 	
-	private record ItemsFiltres(Item item, ItemFilter itemFilter) {};
-
-	private List<ItemsFiltres> findFiltersByEqualFields(Map<String, String> fields) {
-		Collection<?> k = fields.entrySet();
-		@SuppressWarnings("unchecked")
-		var ids = entityCache.keySetIndexEqAll(Item.FIELD_FILTERS_EQL, (Collection<Object>) k);
-		var out = new ArrayList<ItemsFiltres>();
-		var set = fields.entrySet();
-		for (var item : findByIds(ids)) {
-			if (item.isDeleted())
-				continue;
-			for (var f : item.getFilters().values()) {
-				if (f.test(set)) {
-					out.add(new ItemsFiltres(item, f));
-					break;
-				}
-			}
-		}
-		return out;
+	private List<ItemFilterMatcher.Match> findFiltersByEqualFields(Map<String, String> fields) {
+		return filterMatcher.match(fields);
 	}
 
 	private Set<String> findParentIdsById(String itemId) {
-		return entityCache.keySetIndexEq(Item.FIELD_PARENTS, itemId);
+		return keysEq(Item.FIELD_PARENTS, itemId);
 	}
 
 	public Set<String> findParentIds(Item item) {
@@ -330,7 +401,7 @@ public class ItemService extends EntityService<String, Item> {
 	}
 
 	public Set<String> findItemIdsByEvent(Event event) {
-		return entityCache.keySetIndexEq(Item.FIELD_EVENTIDS, event.getId());
+		return keysEq(Item.FIELD_EVENTIDS, event.getId());
 	}
 
 	// TODO move code from getTree
@@ -348,18 +419,17 @@ public class ItemService extends EntityService<String, Item> {
 				.build();
 	}
 
+	/*
+	 * Aggregate status is computed over a window ending now.
+	 */
+	@Override
+	protected boolean isTimeDependent(String fieldName) {
+		return Item.FIELD_AGGSTATUS.equals(fieldName);
+	}
+
 	@Override
-	protected EntitySearchResult<String> getEntitySearchResult(String search) {
-		var lexer = new KSearchLexer(CharStreams.fromString(search));
-		lexer.removeErrorListeners();
-		lexer.addErrorListener(new EntityErrorListener());
-		var tokens = new CommonTokenStream(lexer);
-		var parser = new KSearchParser(tokens);
-		var tree = parser.parse();
-		var walker = new ParseTreeWalker();
-		var q = new EntitySearchListener(eventService, this, ServiceType.ITEM);
-		walker.walk(q, tree);
-		return q;
+	protected SearchNode compileSearch(String search) {
+		return EntitySearchListener.compile(search, eventService, this, ServiceType.ITEM);
 	}
 
 	@Scheduled(fixedRateString = "${item.maintenance.fixedrate:60}", timeUnit = TimeUnit.SECONDS)
@@ -0,0 +1,231 @@
+package ru.keich.mon.servicemanager.persistence;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+
+import ru.keich.mon.servicemanager.BaseStatus;
+import ru.keich.mon.servicemanager.entity.Entity;
+
+/*
+ * Copyright 2026 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/*
+ * Change feed in length prefixed frames. Entity frames carry the EntityHeader columns
+ * and the codec body. Strings go through a dictionary that lives as long as the
+ * stream: the first use sends the bytes and takes the next id, later uses send the
+ * id. Both ends stop adding at DICTIONARY_LIMIT, later new strings are sent inline.
+ */
+public class BinaryChangeStream {
+	public static final String MEDIA_TYPE = "application/x-ksm-changes";
+
+	public static final byte FRAME_ENTITY = 1;
+	public static final byte FRAME_WATERMARK = 2;
+	public static final byte FRAME_SYNCED = 3;
+	public static final byte FRAME_HEARTBEAT = 4;
+
+	static final int DICTIONARY_LIMIT = 1 << 20;
+	static final int STRING_NULL = 0;
+	static final int STRING_NEW = 1;
+	static final int STRING_ID = 2;
+
+	/*
+	 * entity is set for FRAME_ENTITY, version for the watermark and synced frames.
+	 */
+	public record Frame<T>(byte type, T entity, long version) {}
+
+	public static class Writer<T extends Entity<?>> extends BinarySnapshot.BufferOutput {
+		private final EntityBinaryCodec<T> codec;
+
+		public Writer(EntityBinaryCodec<T> codec) {
+			this.codec = codec;
+		}
+
+		public void entity(T entity) {
+			var start = begin(FRAME_ENTITY);
+			writeLong(entity.getVersion() == null ? 0L : entity.getVersion());
+			writeEnum(entity.getStatus());
+			writeInstant(entity.getCreatedOn());
+			writeInstant(entity.getUpdatedOn());
+			writeInstant(entity.getDeletedOn());
+			codec.write(entity, this);
+			end(start);
+		}
+
+		public void marker(byte type, long version) {
+			var start = begin(type);
+			writeLong(version);
+			end(start);
+		}
+
+		public void heartbeat() {
+			end(begin(FRAME_HEARTBEAT));
+		}
+
+		public int size() {
+			return size;
+		}
+
+		/*
+		 * Frames written so far, the buffer is reused for the next ones.
+		 */
+		public byte[] drain() {
+			var out = Arrays.copyOf(bytes, size);
+			size = 0;
+			return out;
+		}
+
+		private int begin(byte type) {
+			var start = size;
+			ensureLength(Integer.BYTES + 1);
+			size += Integer.BYTES;
+			writeByte(type);
+			return start;
+		}
+
+		private void end(int start) {
+			var length = size - start - Integer.BYTES;
+			for (int i = 0; i < Integer.BYTES; i++) {
+				bytes[start + i] = (byte) (length >>> (24 - i * 8));
+			}
+		}
+
+		private void ensureLength(int length) {
+			if (size + length > bytes.length) {
+				bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + length));
+			}
+		}
+
+		@Override
+		public void writeString(String value) {
+			if (value == null) {
+				writeVarInt(STRING_NULL);
+				return;
+			}
+			var id = dictionary.get(value);
+			if (id != null) {
+				writeVarInt(id + STRING_ID);
+				return;
+			}
+			writeVarInt(STRING_NEW);
+			var utf8 = value.getBytes(StandardCharsets.UTF_8);
+			writeVarInt(utf8.length);
+			ensureLength(utf8.length);
+			System.arraycopy(utf8, 0, bytes, size, utf8.length);
+			size += utf8.length;
+			if (dictionary.size() < DICTIONARY_LIMIT) {
+				dictionary.put(value, dictionary.size());
+			}
+		}
+
+	}
+
+	/*
+	 * Takes the stream in chunks of any size, a frame split between chunks is kept
+	 * until the rest arrives.
+	 */
+	public static class Reader<T extends Entity<?>> {
+		private final EntityBinaryCodec<T> codec;
+		private final List<String> dictionary = new ArrayList<>();
+		private final BaseStatus[] statusValues = BaseStatus.values();
+		private ByteBuffer pending = ByteBuffer.allocate(1 << 16).flip();
+
+		public Reader(EntityBinaryCodec<T> codec) {
+			this.codec = codec;
+		}
+
+		public void read(ByteBuffer chunk, Consumer<Frame<T>> consumer) {
+			append(chunk);
+			while (pending.remaining() >= Integer.BYTES) {
+				var length = pending.getInt(pending.position());
+				if (pending.remaining() < Integer.BYTES + length) {
+					break;
+				}
+				var frame = pending.slice(pending.position() + Integer.BYTES, length);
+				pending.position(pending.position() + Integer.BYTES + length);
+				consumer.accept(decode(new FrameInput(frame)));
+			}
+		}
+
+		private void append(ByteBuffer chunk) {
+			if (pending.capacity() - pending.limit() < chunk.remaining()) {
+				if (pending.capacity() >= pending.remaining() + chunk.remaining()) {
+					pending.compact().flip();
+					append(chunk);
+					return;
+				}
+				var grown = ByteBuffer.allocate(Math.max(pending.capacity(), pending.remaining() + chunk.remaining()) * 2);
+				grown.put(pending);
+				pending = grown.flip();
+			}
+			var position = pending.position();
+			pending.position(pending.limit()).limit(pending.capacity());
+			pending.put(chunk);
+			pending.flip().position(position);
+		}
+
+		private Frame<T> decode(FrameInput in) {
+			var type = in.readByte();
+			switch (type) {
+			case FRAME_ENTITY:
+				var version = in.readLong();
+				var status = in.readByte();
+				var header = new EntityHeader(version,
+						status < 0 ? null : statusValues[status],
+						in.readInstant(),
+						in.readInstant(),
+						in.readInstant());
+				return new Frame<>(type, codec.read(header, in), version);
+			case FRAME_WATERMARK:
+			case FRAME_SYNCED:
+				return new Frame<>(type, null, in.readLong());
+			default:
+				return new Frame<>(type, null, 0L);
+			}
+		}
+
+		private class FrameInput extends BinarySnapshot.BufferInput {
+
+			FrameInput(ByteBuffer buffer) {
+				super(buffer, null);
+			}
+
+			@Override
+			public String readString() {
+				var code = readVarInt();
+				if (code == STRING_NULL) {
+					return null;
+				}
+				if (code >= STRING_ID) {
+					return dictionary.get(code - STRING_ID);
+				}
+				var utf8 = new byte[readVarInt()];
+				buffer.get(utf8);
+				var value = new String(utf8, StandardCharsets.UTF_8).intern();
+				if (dictionary.size() < DICTIONARY_LIMIT) {
+					dictionary.add(value);
+				}
+				return value;
+			}
+
+		}
+
+	}
+
+}
@@ -0,0 +1,296 @@
+package ru.keich.mon.servicemanager.persistence;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import ru.keich.mon.servicemanager.BaseStatus;
+import ru.keich.mon.servicemanager.entity.Entity;
+
+/*
+ * Copyright 2026 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/*
+ * File layout:
+ *   int magic, int format
+ *   block*         int length, block bytes
+ *   int 0
+ *
+ * Block layout:
+ *   int count
+ *   int dictionary size, (int length, utf8 bytes)*
+ *   long[count] version
+ *   byte[count] status
+ *   (long seconds, int nanos)[count] createdOn, updatedOn, deletedOn
+ *   int[count] offset of entity in variable section
+ *   int variable section length, variable section bytes
+ *
+ * Blocks are self contained, so they are decoded in parallel.
+ */
+public class BinarySnapshot<T extends Entity<String>> {
+	static final int MAGIC = 0x4B534D53;
+	static final int FORMAT = 1;
+	static final int BLOCK_ENTITIES = 16384;
+	static final int INSTANT_BYTES = Long.BYTES + Integer.BYTES;
+
+	private final EntityBinaryCodec<T> codec;
+
+	public BinarySnapshot(EntityBinaryCodec<T> codec) {
+		this.codec = codec;
+	}
+
+	public void write(FileChannel channel, Iterator<T> entities) throws IOException {
+		var header = ByteBuffer.allocate(Integer.BYTES * 2).putInt(MAGIC).putInt(FORMAT).flip();
+		writeFully(channel, header);
+		var block = new ArrayList<T>(BLOCK_ENTITIES);
+		while (entities.hasNext()) {
+			block.add(entities.next());
+			if (block.size() == BLOCK_ENTITIES) {
+				writeFully(channel, encode(block));
+				block.clear();
+			}
+		}
+		if (!block.isEmpty()) {
+			writeFully(channel, encode(block));
+		}
+		writeFully(channel, ByteBuffer.allocate(Integer.BYTES).putInt(0).flip());
+	}
+
+	/*
+	 * Consumer is called concurrently from the common fork join pool.
+	 */
+	public void read(Path file, Consumer<T> consumer) throws IOException {
+		try (var channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			var blocks = new ArrayList<long[]>();
+			var size = channel.size();
+			var header = ByteBuffer.allocate(Integer.BYTES * 2);
+			channel.read(header, 0);
+			header.flip();
+			if (header.remaining() < Integer.BYTES * 2 || header.getInt() != MAGIC || header.getInt() != FORMAT) {
+				throw new IOException("Unknown snapshot format " + file);
+			}
+			long position = Integer.BYTES * 2;
+			var length = ByteBuffer.allocate(Integer.BYTES);
+			while (true) {
+				length.clear();
+				if (channel.read(length, position) != Integer.BYTES) {
+					throw new IOException("Truncated snapshot " + file);
+				}
+				var blockLength = length.flip().getInt();
+				if (blockLength == 0) {
+					break;
+				}
+				position += Integer.BYTES;
+				if (blockLength < 0 || position + blockLength > size) {
+					throw new IOException("Truncated snapshot " + file);
+				}
+				blocks.add(new long[] { position, blockLength });
+				position += blockLength;
+			}
+			blocks.parallelStream().forEach(b -> {
+				try {
+					decode(channel.map(FileChannel.MapMode.READ_ONLY, b[0], b[1]), consumer);
+				} catch (IOException e) {
+					throw new IllegalStateException("Can't map snapshot " + file + ": " + e.getMessage(), e);
+				}
+			});
+		}
+	}
+
+	private ByteBuffer encode(List<T> block) {
+		var count = block.size();
+		var out = new BufferOutput();
+		var offsets = new int[count];
+		for (int i = 0; i < count; i++) {
+			offsets[i] = out.size;
+			codec.write(block.get(i), out);
+		}
+		var dictionary = new byte[out.dictionary.size()][];
+		var dictionaryBytes = 0;
+		for (var e : out.dictionary.entrySet()) {
+			var bytes = e.getKey().getBytes(StandardCharsets.UTF_8);
+			dictionary[e.getValue() - 1] = bytes;
+			dictionaryBytes += Integer.BYTES + bytes.length;
+		}
+		var blockLength = Integer.BYTES * 2 + dictionaryBytes
+				+ count * (Long.BYTES + 1 + INSTANT_BYTES * 3 + Integer.BYTES)
+				+ Integer.BYTES + out.size;
+		var buffer = ByteBuffer.allocate(Integer.BYTES + blockLength);
+		buffer.putInt(blockLength);
+		buffer.putInt(count);
+		buffer.putInt(dictionary.length);
+		for (var bytes : dictionary) {
+			buffer.putInt(bytes.length).put(bytes);
+		}
+		block.forEach(e -> buffer.putLong(e.getVersion() == null ? 0L : e.getVersion()));
+		block.forEach(e -> buffer.put((byte) (e.getStatus() == null ? -1 : e.getStatus().ordinal())));
+		block.forEach(e -> putInstant(buffer, e.getCreatedOn()));
+		block.forEach(e -> putInstant(buffer, e.getUpdatedOn()));
+		block.forEach(e -> putInstant(buffer, e.getDeletedOn()));
+		Arrays.stream(offsets).forEach(buffer::putInt);
+		buffer.putInt(out.size);
+		buffer.put(out.bytes, 0, out.size);
+		return buffer.flip();
+	}
+
+	private void decode(ByteBuffer buffer, Consumer<T> consumer) {
+		var count = buffer.getInt();
+		var dictionary = new String[buffer.getInt() + 1];
+		for (int i = 1; i < dictionary.length; i++) {
+			var bytes = new byte[buffer.getInt()];
+			buffer.get(bytes);
+			dictionary[i] = new String(bytes, StandardCharsets.UTF_8).intern();
+		}
+		var versions = buffer.position();
+		var statuses = versions + count * Long.BYTES;
+		var createdOn = statuses + count;
+		var updatedOn = createdOn + count * INSTANT_BYTES;
+		var deletedOn = updatedOn + count * INSTANT_BYTES;
+		var offsets = deletedOn + count * INSTANT_BYTES;
+		var variable = offsets + count * Integer.BYTES + Integer.BYTES;
+		var statusValues = BaseStatus.values();
+		var in = new BufferInput(buffer, dictionary);
+		for (int i = 0; i < count; i++) {
+			var status = buffer.get(statuses + i);
+			var header = new EntityHeader(buffer.getLong(versions + i * Long.BYTES),
+					status < 0 ? null : statusValues[status],
+					getInstant(buffer, createdOn + i * INSTANT_BYTES),
+					getInstant(buffer, updatedOn + i * INSTANT_BYTES),
+					getInstant(buffer, deletedOn + i * INSTANT_BYTES));
+			buffer.position(variable + buffer.getInt(offsets + i * Integer.BYTES));
+			consumer.accept(codec.read(header, in));
+		}
+	}
+
+	private static void putInstant(ByteBuffer buffer, Instant value) {
+		if (value == null) {
+			buffer.putLong(Long.MIN_VALUE).putInt(0);
+		} else {
+			buffer.putLong(value.getEpochSecond()).putInt(value.getNano());
+		}
+	}
+
+	private static Instant getInstant(ByteBuffer buffer, int index) {
+		var seconds = buffer.getLong(index);
+		if (seconds == Long.MIN_VALUE) {
+			return null;
+		}
+		return Instant.ofEpochSecond(seconds, buffer.getInt(index + Long.BYTES));
+	}
+
+	private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+	}
+
+	static class BufferOutput implements EntityOutput {
+		final Map<String, Integer> dictionary = new HashMap<>();
+		byte[] bytes = new byte[1 << 16];
+		int size = 0;
+
+		private void ensure(int length) {
+			if (size + length > bytes.length) {
+				bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + length));
+			}
+		}
+
+		@Override
+		public void writeByte(int value) {
+			ensure(1);
+			bytes[size++] = (byte) value;
+		}
+
+		@Override
+		public void writeVarInt(int value) {
+			ensure(5);
+			while ((value & ~0x7F) != 0) {
+				bytes[size++] = (byte) ((value & 0x7F) | 0x80);
+				value >>>= 7;
+			}
+			bytes[size++] = (byte) value;
+		}
+
+		@Override
+		public void writeLong(long value) {
+			ensure(Long.BYTES);
+			for (int shift = 56; shift >= 0; shift -= 8) {
+				bytes[size++] = (byte) (value >>> shift);
+			}
+		}
+
+		@Override
+		public void writeString(String value) {
+			if (value == null) {
+				writeVarInt(0);
+				return;
+			}
+			writeVarInt(dictionary.computeIfAbsent(value, k -> dictionary.size() + 1));
+		}
+
+	}
+
+	static class BufferInput implements EntityInput {
+		final ByteBuffer buffer;
+		private final String[] dictionary;
+
+		BufferInput(ByteBuffer buffer, String[] dictionary) {
+			this.buffer = buffer;
+			this.dictionary = dictionary;
+		}
+
+		@Override
+		public byte readByte() {
+			return buffer.get();
+		}
+
+		@Override
+		public int readVarInt() {
+			int value = 0;
+			int shift = 0;
+			byte b;
+			do {
+				b = buffer.get();
+				value |= (b & 0x7F) << shift;
+				shift += 7;
+			} while ((b & 0x80) != 0);
+			return value;
+		}
+
+		@Override
+		public long readLong() {
+			return buffer.getLong();
+		}
+
+		@Override
+		public String readString() {
+			return dictionary[readVarInt()];
+		}
+
+	}
+
+}
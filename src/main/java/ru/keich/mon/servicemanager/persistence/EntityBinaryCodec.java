@@ -0,0 +1,51 @@
+package ru.keich.mon.servicemanager.persistence;
+
+import ru.keich.mon.servicemanager.SourceType;
+import ru.keich.mon.servicemanager.entity.Entity;
+
+/*
+ * Copyright 2026 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+public interface EntityBinaryCodec<T extends Entity<?>> {
+
+	/*
+	 * Writes everything except the EntityHeader columns.
+	 */
+	public void write(T entity, EntityOutput out);
+
+	public T read(EntityHeader header, EntityInput in);
+
+	public static void writeEntity(Entity<String> entity, EntityOutput out) {
+		out.writeString(entity.getSource());
+		out.writeString(entity.getSourceKey());
+		out.writeEnum(entity.getSourceType());
+		out.writeStringMap(entity.getFields());
+		out.writeStringSet(entity.getFromHistory());
+	}
+
+	public static void readEntity(Entity.Builder<String, ?> builder, EntityHeader header, EntityInput in) {
+		builder.source(in.readString())
+				.sourceKey(in.readString())
+				.sourceType(in.readEnum(SourceType.values()))
+				.fields(in.readStringMap())
+				.fromHistory(in.readStringSet())
+				.version(header.version())
+				.createdOn(header.createdOn())
+				.updatedOn(header.updatedOn())
+				.deletedOn(header.deletedOn());
+	}
+
+}
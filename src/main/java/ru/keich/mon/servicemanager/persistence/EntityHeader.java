@@ -0,0 +1,26 @@
+package ru.keich.mon.servicemanager.persistence;
+
+import java.time.Instant;
+
+import ru.keich.mon.servicemanager.BaseStatus;
+
+/*
+ * Copyright 2026 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/*
+ * Fixed width part of an entity, stored in columns by the binary snapshot.
+ */
+public record EntityHeader(Long version, BaseStatus status, Instant createdOn, Instant updatedOn, Instant deletedOn) {}
@@ -0,0 +1,70 @@
+package ru.keich.mon.servicemanager.persistence;
+
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/*
+ * Copyright 2026 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+public interface EntityInput {
+
+	public byte readByte();
+
+	public int readVarInt();
+
+	public long readLong();
+
+	public String readString();
+
+	public default boolean readBoolean() {
+		return readByte() != 0;
+	}
+
+	public default Instant readInstant() {
+		var seconds = readLong();
+		if (seconds == Long.MIN_VALUE) {
+			return null;
+		}
+		return Instant.ofEpochSecond(seconds, readVarInt());
+	}
+
+	public default <E extends Enum<E>> E readEnum(E[] values) {
+		var ordinal = readByte();
+		return ordinal < 0 ? null : values[ordinal];
+	}
+
+	public default Map<String, String> readStringMap() {
+		var size = readVarInt();
+		var map = new HashMap<String, String>(size * 2);
+		for (int i = 0; i < size; i++) {
+			map.put(readString(), readString());
+		}
+		return map;
+	}
+
+	public default Set<String> readStringSet() {
+		var size = readVarInt();
+		var set = new HashSet<String>(size * 2);
+		for (int i = 0; i < size; i++) {
+			set.add(readString());
+		}
+		return set;
+	}
+
+}
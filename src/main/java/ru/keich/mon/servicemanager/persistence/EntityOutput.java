@@ -0,0 +1,74 @@
+package ru.keich.mon.servicemanager.persistence;
+
+import java.time.Instant;
+import java.util.Map;
+import java.util.Set;
+
+/*
+ * Copyright 2026 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+public interface EntityOutput {
+
+	public void writeByte(int value);
+
+	public void writeVarInt(int value);
+
+	public void writeLong(long value);
+
+	/*
+	 * Strings are written as references to a dictionary owned by the output.
+	 */
+	public void writeString(String value);
+
+	public default void writeBoolean(boolean value) {
+		writeByte(value ? 1 : 0);
+	}
+
+	public default void writeInstant(Instant value) {
+		if (value == null) {
+			writeLong(Long.MIN_VALUE);
+			return;
+		}
+		writeLong(value.getEpochSecond());
+		writeVarInt(value.getNano());
+	}
+
+	public default void writeEnum(Enum<?> value) {
+		writeByte(value == null ? -1 : value.ordinal());
+	}
+
+	public default void writeStringMap(Map<String, String> map) {
+		if (map == null) {
+			writeVarInt(0);
+			return;
+		}
+		writeVarInt(map.size());
+		map.forEach((k, v) -> {
+			writeString(k);
+			writeString(v);
+		});
+	}
+
+	public default void writeStringSet(Set<String> set) {
+		if (set == null) {
+			writeVarInt(0);
+			return;
+		}
+		writeVarInt(set.size());
+		set.forEach(this::writeString);
+	}
+
+}
@@ -0,0 +1,84 @@
+package ru.keich.mon.servicemanager.persistence;
+
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+/*
+ * Copyright 2026 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+public interface EntityPersistence<T> {
+
+	/**
+	 * Writes a committed entity state to the log. Replay keeps the highest
+	 * version per id, so records may arrive in any order.
+	 */
+	public void append(T entity);
+
+	/**
+	 * Writes a tombstone for the last state of an entity that is gone from the cache,
+	 * so replay does not bring it back.
+	 */
+	public void remove(T entity);
+
+	/**
+	 * Reads the latest snapshot and the log written after it. Binary snapshot
+	 * blocks are decoded in parallel, so the consumer must be thread safe.
+	 * Tombstones go to removed in log order, after the states they cover.
+	 */
+	public void load(Consumer<T> consumer, Consumer<T> removed);
+
+	public default void load(Consumer<T> consumer) {
+		load(consumer, removed -> {});
+	}
+
+	/**
+	 * Writes a compacted snapshot and drops the log segments it covers.
+	 */
+	public void snapshot(Supplier<Stream<T>> entities);
+
+	public void close();
+
+	@SuppressWarnings("unchecked")
+	public static <T> EntityPersistence<T> none() {
+		return (EntityPersistence<T>) NONE;
+	}
+
+	static final EntityPersistence<Object> NONE = new EntityPersistence<Object>() {
+
+		@Override
+		public void append(Object entity) {
+		}
+
+		@Override
+		public void remove(Object entity) {
+		}
+
+		@Override
+		public void load(Consumer<Object> consumer, Consumer<Object> removed) {
+		}
+
+		@Override
+		public void snapshot(Supplier<Stream<Object>> entities) {
+		}
+
+		@Override
+		public void close() {
+		}
+
+	};
+
+}
@@ -0,0 +1,62 @@
+package ru.keich.mon.servicemanager.persistence;
+
+import java.nio.file.Path;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import ru.keich.mon.servicemanager.entity.Entity;
+import ru.keich.mon.servicemanager.entity.EntityController;
+import tools.jackson.databind.DeserializationFeature;
+import tools.jackson.databind.json.JsonMapper;
+import tools.jackson.databind.ser.std.SimpleBeanPropertyFilter;
+import tools.jackson.databind.ser.std.SimpleFilterProvider;
+
+/*
+ * Copyright 2026 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+@Component
+public class EntityPersistenceFactory {
+
+	private final String path;
+	private final long segmentSize;
+	private final long fsyncMillis;
+	private final boolean binarySnapshot;
+	private final JsonMapper mapper;
+
+	public EntityPersistenceFactory(@Value("${persistence.path:}") String path,
+			@Value("${persistence.wal.segmentsize:67108864}") long segmentSize,
+			@Value("${persistence.wal.fsyncmillis:1000}") long fsyncMillis,
+			@Value("${persistence.snapshot.format:binary}") String snapshotFormat) {
+		this.path = path;
+		this.segmentSize = segmentSize;
+		this.fsyncMillis = fsyncMillis;
+		this.binarySnapshot = !"json".equalsIgnoreCase(snapshotFormat);
+		this.mapper = JsonMapper.builder()
+				.filterProvider(new SimpleFilterProvider().addFilter(EntityController.FILTER_NAME, SimpleBeanPropertyFilter.serializeAll()))
+				.disable(DeserializationFeature.FAIL_ON_NULL_FOR_PRIMITIVES)
+				.disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES)
+				.build();
+	}
+
+	public <T extends Entity<String>> EntityPersistence<T> create(String name, Class<T> type, EntityBinaryCodec<T> codec) {
+		if (path.isBlank()) {
+			return EntityPersistence.none();
+		}
+		return new FileEntityPersistence<T>(Path.of(path, name), type, mapper, segmentSize, fsyncMillis, new BinarySnapshot<T>(codec), binarySnapshot);
+	}
+
+}
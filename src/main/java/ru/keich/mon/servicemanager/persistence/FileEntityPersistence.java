@@ -0,0 +1,416 @@
+package ru.keich.mon.servicemanager.persistence;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+import lombok.extern.java.Log;
+import ru.keich.mon.servicemanager.entity.Entity;
+import tools.jackson.databind.json.JsonMapper;
+
+/*
+ * Copyright 2026 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/*
+ * Directory layout:
+ *   wal-<seq>.log       JSON line per committed entity state, a tombstone line
+ *                       is the last state of a removed entity behind TOMBSTONE
+ *   snapshot-<seq>.json JSON line per entity, covers every segment below <seq>
+ *   snapshot-<seq>.bin  same as above in BinarySnapshot format
+ *
+ * append only queues the record, one writer thread drains the queue, writes every
+ * record taken in one go and flushes once per batch. A process crash loses the
+ * records still queued, the file is forced to disk at most fsyncMillis after a
+ * write, so a host crash loses up to that much more. Snapshots and closed
+ * segments are always forced.
+ */
+@Log
+public class FileEntityPersistence<T extends Entity<String>> implements EntityPersistence<T> {
+	static final String WAL_PREFIX = "wal-";
+	static final String WAL_SUFFIX = ".log";
+	static final String SNAPSHOT_PREFIX = "snapshot-";
+	static final String SNAPSHOT_SUFFIX = ".json";
+	static final String BINARY_SNAPSHOT_SUFFIX = ".bin";
+	static final String TMP_SUFFIX = ".tmp";
+	static final int QUEUE_CAPACITY = 65536;
+	static final long POLL_MILLIS = 100;
+	static final byte TOMBSTONE = '-';
+	private static final byte[] WAKE = new byte[0];
+
+	private final Path path;
+	private final Class<T> type;
+	private final JsonMapper mapper;
+	private final long segmentSize;
+	private final BinarySnapshot<T> binarySnapshot;
+	private final boolean writeBinary;
+	private final long fsyncMillis;
+	private final ReentrantLock lock = new ReentrantLock();
+	private final BlockingQueue<byte[]> queue = new LinkedBlockingQueue<>(QUEUE_CAPACITY);
+	private volatile Thread writer;
+	private long forcedOn = 0;
+	private boolean dirty = false;
+
+	private long segment = 0;
+	private long segmentWritten = 0;
+	private FileOutputStream walFile;
+	private OutputStream wal;
+
+	/*
+	 * Both snapshot formats are readable, writeBinary selects the one new snapshots use.
+	 * fsyncMillis 0 forces the log after every batch.
+	 */
+	public FileEntityPersistence(Path path, Class<T> type, JsonMapper mapper, long segmentSize, long fsyncMillis,
+			BinarySnapshot<T> binarySnapshot, boolean writeBinary) {
+		this.path = path;
+		this.type = type;
+		this.mapper = mapper;
+		this.segmentSize = segmentSize;
+		this.fsyncMillis = fsyncMillis;
+		this.binarySnapshot = binarySnapshot;
+		this.writeBinary = writeBinary;
+	}
+
+	/*
+	 * Blocks only when the writer is QUEUE_CAPACITY records behind.
+	 */
+	@Override
+	public void append(T entity) {
+		queue(mapper.writeValueAsBytes(entity));
+	}
+
+	@Override
+	public void remove(T entity) {
+		var json = mapper.writeValueAsBytes(entity);
+		var bytes = new byte[json.length + 1];
+		bytes[0] = TOMBSTONE;
+		System.arraycopy(json, 0, bytes, 1, json.length);
+		queue(bytes);
+	}
+
+	private void queue(byte[] bytes) {
+		startWriter();
+		try {
+			queue.put(bytes);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			log.severe("Persistence " + path + ". Interrupted, record is not logged: " + new String(bytes, StandardCharsets.UTF_8));
+		}
+	}
+
+	/*
+	 * The lock is held by the writer while it does I/O, so only the first append takes it.
+	 */
+	private void startWriter() {
+		if (writer != null) {
+			return;
+		}
+		lock.lock();
+		try {
+			if (writer == null) {
+				writer = Thread.startVirtualThread(this::write);
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/*
+	 * Runs until close replaces it, the poll timeout lets an idle log be forced.
+	 */
+	private void write() {
+		var running = true;
+		while (running) {
+			byte[] first;
+			try {
+				first = queue.poll(fsyncMillis > 0 ? Math.min(fsyncMillis, POLL_MILLIS) : POLL_MILLIS, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+			lock.lock();
+			try {
+				writePending(first);
+				forceIfDue();
+			} catch (IOException e) {
+				log.severe("Persistence " + path + ". Can't write log: " + e.getMessage());
+			} finally {
+				running = writer == Thread.currentThread();
+				lock.unlock();
+			}
+		}
+	}
+
+	/*
+	 * Writes first and everything queued behind it.
+	 */
+	private void writePending(byte[] first) throws IOException {
+		var batch = new ArrayList<byte[]>();
+		if (first != null) {
+			batch.add(first);
+		}
+		queue.drainTo(batch);
+		for (var bytes : batch) {
+			if (bytes == WAKE) {
+				continue;
+			}
+			if (wal == null) {
+				open();
+			}
+			wal.write(bytes);
+			wal.write('\n');
+			dirty = true;
+			segmentWritten += bytes.length + 1;
+			if (segmentWritten >= segmentSize) {
+				roll();
+			}
+		}
+		if (wal != null) {
+			wal.flush();
+		}
+	}
+
+	private void forceIfDue() throws IOException {
+		var now = System.currentTimeMillis();
+		if (dirty && wal != null && now - forcedOn >= fsyncMillis) {
+			walFile.getChannel().force(false);
+			dirty = false;
+			forcedOn = now;
+		}
+	}
+
+	@Override
+	public void load(Consumer<T> consumer, Consumer<T> removed) {
+		try {
+			Files.createDirectories(path);
+			var snapshot = latestSnapshot();
+			long fromSegment = 0;
+			if (snapshot != null) {
+				if (snapshot.getFileName().toString().endsWith(BINARY_SNAPSHOT_SUFFIX)) {
+					fromSegment = sequenceOf(snapshot, SNAPSHOT_PREFIX, BINARY_SNAPSHOT_SUFFIX);
+					binarySnapshot.read(snapshot, consumer);
+				} else {
+					fromSegment = sequenceOf(snapshot, SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX);
+					read(snapshot, consumer, removed);
+				}
+			}
+			long lastSegment = fromSegment;
+			for (var file : list(WAL_PREFIX, WAL_SUFFIX)) {
+				var seq = sequenceOf(file, WAL_PREFIX, WAL_SUFFIX);
+				lastSegment = Math.max(lastSegment, seq);
+				if (seq >= fromSegment) {
+					read(file, consumer, removed);
+				}
+			}
+			lock.lock();
+			try {
+				// never append to a segment that may end with a torn record
+				segment = lastSegment + 1;
+			} finally {
+				lock.unlock();
+			}
+		} catch (IOException e) {
+			throw new IllegalStateException("Persistence " + path + ". Can't load: " + e.getMessage(), e);
+		}
+	}
+
+	@Override
+	public void snapshot(Supplier<Stream<T>> entities) {
+		final long seq;
+		lock.lock();
+		try {
+			writePending(null);
+			roll();
+			seq = segment;
+		} catch (IOException e) {
+			log.severe("Persistence " + path + ". Can't roll log: " + e.getMessage());
+			return;
+		} finally {
+			lock.unlock();
+		}
+		var suffix = writeBinary ? BINARY_SNAPSHOT_SUFFIX : SNAPSHOT_SUFFIX;
+		var target = path.resolve(fileName(SNAPSHOT_PREFIX, seq, suffix));
+		var tmp = path.resolve(fileName(SNAPSHOT_PREFIX, seq, suffix + TMP_SUFFIX));
+		try {
+			Files.createDirectories(path);
+			if (writeBinary) {
+				try (var channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+					binarySnapshot.write(channel, entities.get().iterator());
+					channel.force(true);
+				}
+			} else {
+				writeJson(tmp, entities);
+			}
+			Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			for (var file : list(WAL_PREFIX, WAL_SUFFIX)) {
+				if (sequenceOf(file, WAL_PREFIX, WAL_SUFFIX) < seq) {
+					Files.deleteIfExists(file);
+				}
+			}
+			for (var snapshotSuffix : List.of(SNAPSHOT_SUFFIX, BINARY_SNAPSHOT_SUFFIX)) {
+				for (var file : list(SNAPSHOT_PREFIX, snapshotSuffix)) {
+					if (sequenceOf(file, SNAPSHOT_PREFIX, snapshotSuffix) < seq) {
+						Files.deleteIfExists(file);
+					}
+				}
+			}
+		} catch (IOException e) {
+			log.severe("Persistence " + path + ". Can't write snapshot: " + e.getMessage());
+		}
+	}
+
+	/*
+	 * Stops the writer and writes what it left queued.
+	 */
+	@Override
+	public void close() {
+		Thread stopped;
+		lock.lock();
+		try {
+			stopped = writer;
+			writer = null;
+		} finally {
+			lock.unlock();
+		}
+		try {
+			if (stopped != null) {
+				queue.offer(WAKE);
+				stopped.join();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		lock.lock();
+		try {
+			writePending(null);
+			closeSegment();
+		} catch (IOException e) {
+			log.severe("Persistence " + path + ". Can't close log: " + e.getMessage());
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void open() throws IOException {
+		Files.createDirectories(path);
+		walFile = new FileOutputStream(path.resolve(fileName(WAL_PREFIX, segment, WAL_SUFFIX)).toFile(), true);
+		wal = new BufferedOutputStream(walFile, 1 << 16);
+		segmentWritten = 0;
+	}
+
+	private void closeSegment() throws IOException {
+		if (wal != null) {
+			wal.flush();
+			walFile.getChannel().force(true);
+			wal.close();
+			wal = null;
+			walFile = null;
+			dirty = false;
+		}
+	}
+
+	private void roll() throws IOException {
+		closeSegment();
+		segment++;
+	}
+
+	private void writeJson(Path file, Supplier<Stream<T>> entities) throws IOException {
+		try (var fileOut = new FileOutputStream(file.toFile()); var out = new BufferedOutputStream(fileOut, 1 << 16)) {
+			var it = entities.get().iterator();
+			while (it.hasNext()) {
+				out.write(mapper.writeValueAsBytes(it.next()));
+				out.write('\n');
+			}
+			out.flush();
+			fileOut.getChannel().force(true);
+		}
+	}
+
+	private Path latestSnapshot() throws IOException {
+		var json = list(SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX).stream();
+		var binary = list(SNAPSHOT_PREFIX, BINARY_SNAPSHOT_SUFFIX).stream();
+		return Stream.concat(json, binary)
+				.max(Comparator.comparingLong(file -> {
+					var name = file.getFileName().toString();
+					var suffix = name.endsWith(BINARY_SNAPSHOT_SUFFIX) ? BINARY_SNAPSHOT_SUFFIX : SNAPSHOT_SUFFIX;
+					return sequenceOf(file, SNAPSHOT_PREFIX, suffix);
+				}))
+				.orElse(null);
+	}
+
+	private void read(Path file, Consumer<T> consumer, Consumer<T> removed) throws IOException {
+		try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+			String line;
+			long lineNumber = 0;
+			while ((line = reader.readLine()) != null) {
+				lineNumber++;
+				if (line.isBlank()) {
+					continue;
+				}
+				try {
+					if (line.charAt(0) == TOMBSTONE) {
+						removed.accept(mapper.readValue(line.substring(1), type));
+					} else {
+						consumer.accept(mapper.readValue(line, type));
+					}
+				} catch (Exception e) {
+					log.warning("Persistence " + file + ". Skip broken record at line " + lineNumber + ": " + e.getMessage());
+				}
+			}
+		}
+	}
+
+	private List<Path> list(String prefix, String suffix) throws IOException {
+		if (!Files.isDirectory(path)) {
+			return List.of();
+		}
+		try (var files = Files.list(path)) {
+			return files.filter(p -> {
+						var name = p.getFileName().toString();
+						return name.startsWith(prefix) && name.endsWith(suffix);
+					})
+					.sorted()
+					.toList();
+		}
+	}
+
+	static String fileName(String prefix, long seq, String suffix) {
+		return prefix + String.format("%020d", seq) + suffix;
+	}
+
+	static long sequenceOf(Path file, String prefix, String suffix) {
+		var name = file.getFileName().toString();
+		return Long.parseLong(name.substring(prefix.length(), name.length() - suffix.length()));
+	}
+
+}
@@ -0,0 +1,30 @@
+package ru.keich.mon.servicemanager.query;
+
+import java.util.List;
+import java.util.Map;
+
+/*
+ * Copyright 2026 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/*
+ * Number of entities matched by a query and their counts per groupBy values,
+ * groups are ordered by count.
+ */
+public record QueryAggregate(long count, List<String> groupBy, List<Group> groups) {
+
+	public record Group(Map<String, Object> key, long count) {}
+
+}
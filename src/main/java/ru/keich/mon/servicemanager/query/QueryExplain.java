@@ -0,0 +1,36 @@
+package ru.keich.mon.servicemanager.query;
+
+import java.util.List;
+
+/*
+ * Copyright 2026 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/*
+ * Answer to a query with the explain param. Times are in milliseconds, rows is
+ * the count before sort and limit, returned is the count after them.
+ */
+public record QueryExplain(String search,
+		List<QueryPlan.Step> plan,
+		long candidates,
+		long rows,
+		long returned,
+		double planMs,
+		double indexMs,
+		double filterMs,
+		double sortMs,
+		double totalMs) {
+
+}
@@ -1,6 +1,9 @@
 package ru.keich.mon.servicemanager.query;
 
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -33,13 +36,22 @@ public class QueryParamsParser {
 	public static final String QUERY_LIMIT = "limit";
 	public static final String QUERY_ID = "id";
 	public static final String QUERY_ENRICH = "enrich";
+	public static final String QUERY_EXPLAIN = "explain";
+	public static final String QUERY_CURSOR = "cursor";
+	public static final String QUERY_GROUPBY = "groupby";
+	public static final long CURSOR_DEFAULT_LIMIT = 1000;
+	static final String CURSOR_FIELD = "version";
 	private final List<QuerySort> sorts = new ArrayList<QuerySort>();
 	private final Set<String> properties = new HashSet<String>();
 	private final Set<String> enrich = new HashSet<String>();
+	private final List<String> groupBy = new ArrayList<String>();
 	private long limit = -1;
 	private String search = "";
 	private boolean hasSearch = false;
 	private boolean hasPredicates = false;
+	private boolean explain = false;
+	private boolean hasCursor = false;
+	private long cursorVersion = 0;
 	private final List<QueryPredicate> predicates = new ArrayList<QueryPredicate>();
 	
 	public QueryParamsParser(MultiValueMap<String, String> reqParam, BiFunction<String, String, Object> valueConverter) {	
@@ -79,6 +91,26 @@ public class QueryParamsParser {
 				}
 				value.forEach(enrich::add);
 				break;
+			case QUERY_GROUPBY:
+				if(size == 0) {
+					throw new ErrorParsePredicateException("Param " + lowerParam + " is empty");
+				}
+				value.stream()
+						.flatMap(v -> Arrays.stream(v.split(",")))
+						.map(String::trim)
+						.filter(v -> !v.isEmpty() && !groupBy.contains(v))
+						.forEach(groupBy::add);
+				break;
+			case QUERY_CURSOR:
+				if (size > 1) {
+					throw new ErrorParsePredicateException("Param " + lowerParam + " has multiple values");
+				}
+				hasCursor = true;
+				cursorVersion = size == 0 ? 0 : decodeCursor(value.get(0));
+				break;
+			case QUERY_EXPLAIN:
+				explain = size == 0 || !"false".equalsIgnoreCase(value.get(0));
+				break;
 			default:
 				value.forEach(v -> {
 					var qparam = getQueryParams(param, v, valueConverter);
@@ -98,6 +130,48 @@ public class QueryParamsParser {
 		if(properties.size() > 0) {
 			properties.add(QUERY_ID);
 		}
+		if (hasCursor) {
+			applyCursor();
+		}
+	}
+
+	/*
+	 * Pages are ordered by the unique version, the next page starts after the last version sent.
+	 * The version index has no bounded range walk, so the GT predicate still collects every id
+	 * after the cursor and a page costs O(remaining), not O(limit); sortAndLimit keeps only limit rows.
+	 */
+	private void applyCursor() {
+		if (sorts.stream().anyMatch(s -> !CURSOR_FIELD.equals(s.getName()) || s.getOperator() != Operator.SORT)) {
+			throw new ErrorParsePredicateException("Param " + QUERY_CURSOR + " pages in " + CURSOR_FIELD + " order only");
+		}
+		sorts.clear();
+		sorts.add(new QuerySort(CURSOR_FIELD, Operator.SORT, 0));
+		if (limit <= 0) {
+			limit = CURSOR_DEFAULT_LIMIT;
+		}
+		hasPredicates = true;
+		predicates.add(QueryPredicate.greaterThan(CURSOR_FIELD, cursorVersion));
+	}
+
+	public static String encodeCursor(long version) {
+		var str = CURSOR_FIELD + ":" + version;
+		return Base64.getUrlEncoder().withoutPadding().encodeToString(str.getBytes(StandardCharsets.UTF_8));
+	}
+
+	public static long decodeCursor(String cursor) {
+		if (cursor == null || cursor.isEmpty()) {
+			return 0;
+		}
+		try {
+			var str = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+			var arr = str.split(":", 2);
+			if (arr.length == 2 && CURSOR_FIELD.equals(arr[0])) {
+				return Long.parseLong(arr[1]);
+			}
+		} catch (IllegalArgumentException e) {
+			// Reported below
+		}
+		throw new ErrorParsePredicateException("Param " + QUERY_CURSOR + " is not valid: " + cursor);
 	}
 	
 	public void addPropertyIfNotEmpty(String name) {
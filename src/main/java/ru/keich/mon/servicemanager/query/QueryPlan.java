@@ -0,0 +1,44 @@
+package ru.keich.mon.servicemanager.query;
+
+import java.util.List;
+
+/*
+ * Copyright 2026 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/*
+ * driver is answered from the index and produces the candidates, every filter
+ * is checked on the candidate entity. A null driver means the candidates are
+ * the ids the caller restricted the query to.
+ */
+public record QueryPlan(QueryPredicate driver, List<QueryPredicate> filters, List<Step> steps) {
+
+	public static final String ACCESS_INDEX = "index";
+	public static final String ACCESS_ID = "id";
+	public static final String ACCESS_IDS = "ids";
+	public static final String ACCESS_SCAN = "scan";
+	public static final String ACCESS_TRIGRAM = "trigram";
+	public static final String ACCESS_FILTER = "filter";
+
+	public record Step(String name, Operator operator, String value, String access, long estimate) {
+
+		public static Step of(QueryPredicate predicate, String access, long estimate) {
+			var value = predicate.getValue() == null ? null : predicate.getValue().toString();
+			return new Step(predicate.getName(), predicate.getOperator(), value, access, estimate);
+		}
+
+	}
+
+}
@@ -1,5 +1,6 @@
 package ru.keich.mon.servicemanager.replication;
 
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 
 import org.springframework.scheduling.annotation.Scheduled;
@@ -25,18 +26,25 @@ import ru.keich.mon.servicemanager.item.Item;
  */
 
 public class Replication {
-	final private EntityReplication<String, Event> eventReplication;
-	final private EntityReplication<String, Item> itemReplication;
+
+	/*
+	 * Items of a peer are replicated before its events, the events carry the item ids.
+	 */
+	public record Peer(EntityReplication<String, Item> itemReplication, EntityReplication<String, Event> eventReplication) {}
+
+	final private List<Peer> peers;
 	
-	public Replication(EntityReplication<String, Event> eventReplication, EntityReplication<String, Item> itemReplication) {
+	public Replication(List<Peer> peers) {
 		super();
-		this.eventReplication = eventReplication;
-		this.itemReplication = itemReplication;
+		this.peers = peers;
 	}
 	
-	//TODO to params
-	@Scheduled(fixedRate = 5, timeUnit = TimeUnit.SECONDS)
+	/*
+	 * Change feeds stay connected, the schedule only reconnects a dropped one. Every peer
+	 * has its own state and resume version, the feeds are pulled side by side.
+	 */
+	@Scheduled(fixedRateString = "${replication.reconnect.seconds:5}", timeUnit = TimeUnit.SECONDS)
 	public void replicationScheduled() {
-		itemReplication.doReplication(() -> eventReplication.doReplication());
+		peers.forEach(peer -> peer.itemReplication().doReplication(() -> peer.eventReplication().doReplication()));
 	}
 }
@@ -0,0 +1,528 @@
+package ru.keich.mon.servicemanager.util;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.IntConsumer;
+
+/*
+ * Copyright 2026 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/*
+ * Compressed set of non negative ints in the Roaring layout: values are split
+ * by the high 16 bits into chunks, a chunk is a sorted char array while it has
+ * up to 4096 values and a 65536 bit set above that.
+ * Not thread safe, and, or and andNot return new bitmaps.
+ */
+public class Bitmap {
+
+	static final int ARRAY_MAX = 4096;
+	private static final int BITSET_WORDS = 1024;
+
+	private char[] keys = new char[4];
+	private Container[] containers = new Container[4];
+	private int size = 0;
+
+	public Bitmap() {
+	}
+
+	private Bitmap(int capacity) {
+		keys = new char[Math.max(capacity, 1)];
+		containers = new Container[Math.max(capacity, 1)];
+	}
+
+	public static Bitmap of(int... values) {
+		var bitmap = new Bitmap();
+		for (var value : values) {
+			bitmap.add(value);
+		}
+		return bitmap;
+	}
+
+	public boolean add(int value) {
+		var high = (char) (value >>> 16);
+		var i = find(high);
+		if (i < 0) {
+			i = -i - 1;
+			insert(i, high, new ArrayContainer());
+		}
+		var container = containers[i];
+		var card = container.cardinality();
+		containers[i] = container.add((char) value);
+		return containers[i].cardinality() != card;
+	}
+
+	public boolean remove(int value) {
+		var i = find((char) (value >>> 16));
+		if (i < 0) {
+			return false;
+		}
+		var card = containers[i].cardinality();
+		containers[i] = containers[i].remove((char) value);
+		var removed = containers[i].cardinality() != card;
+		if (containers[i].cardinality() == 0) {
+			System.arraycopy(keys, i + 1, keys, i, size - i - 1);
+			System.arraycopy(containers, i + 1, containers, i, size - i - 1);
+			containers[--size] = null;
+		}
+		return removed;
+	}
+
+	public boolean contains(int value) {
+		var i = find((char) (value >>> 16));
+		return i >= 0 && containers[i].contains((char) value);
+	}
+
+	public int cardinality() {
+		var card = 0;
+		for (int i = 0; i < size; i++) {
+			card += containers[i].cardinality();
+		}
+		return card;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	public void forEach(IntConsumer consumer) {
+		for (int i = 0; i < size; i++) {
+			containers[i].forEach(keys[i] << 16, consumer);
+		}
+	}
+
+	public int[] toArray() {
+		var out = new int[cardinality()];
+		var pos = new int[1];
+		forEach(v -> out[pos[0]++] = v);
+		return out;
+	}
+
+	public Bitmap copy() {
+		var result = new Bitmap(size);
+		for (int i = 0; i < size; i++) {
+			result.append(keys[i], containers[i].copy());
+		}
+		return result;
+	}
+
+	/*
+	 * Union of many bitmaps, merged pairwise so every value is copied about log n times.
+	 */
+	public static Bitmap or(List<Bitmap> bitmaps) {
+		if (bitmaps.isEmpty()) {
+			return new Bitmap();
+		}
+		if (bitmaps.size() == 1) {
+			return bitmaps.get(0).copy();
+		}
+		var mid = bitmaps.size() / 2;
+		return or(bitmaps.subList(0, mid)).or(or(bitmaps.subList(mid, bitmaps.size())));
+	}
+
+	public Bitmap and(Bitmap other) {
+		var result = new Bitmap(Math.min(size, other.size));
+		int i = 0, j = 0;
+		while (i < size && j < other.size) {
+			if (keys[i] < other.keys[j]) {
+				i++;
+			} else if (keys[i] > other.keys[j]) {
+				j++;
+			} else {
+				var c = containers[i].and(other.containers[j]);
+				if (c.cardinality() > 0) {
+					result.append(keys[i], c);
+				}
+				i++;
+				j++;
+			}
+		}
+		return result;
+	}
+
+	public Bitmap or(Bitmap other) {
+		var result = new Bitmap(size + other.size);
+		int i = 0, j = 0;
+		while (i < size || j < other.size) {
+			if (j == other.size || (i < size && keys[i] < other.keys[j])) {
+				result.append(keys[i], containers[i].copy());
+				i++;
+			} else if (i == size || keys[i] > other.keys[j]) {
+				result.append(other.keys[j], other.containers[j].copy());
+				j++;
+			} else {
+				result.append(keys[i], containers[i].or(other.containers[j]));
+				i++;
+				j++;
+			}
+		}
+		return result;
+	}
+
+	public Bitmap andNot(Bitmap other) {
+		var result = new Bitmap(size);
+		int i = 0, j = 0;
+		while (i < size) {
+			if (j == other.size || keys[i] < other.keys[j]) {
+				result.append(keys[i], containers[i].copy());
+				i++;
+			} else if (keys[i] > other.keys[j]) {
+				j++;
+			} else {
+				var c = containers[i].andNot(other.containers[j]);
+				if (c.cardinality() > 0) {
+					result.append(keys[i], c);
+				}
+				i++;
+				j++;
+			}
+		}
+		return result;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (!(obj instanceof Bitmap other) || other.cardinality() != cardinality()) {
+			return false;
+		}
+		return Arrays.equals(toArray(), other.toArray());
+	}
+
+	@Override
+	public int hashCode() {
+		return Arrays.hashCode(toArray());
+	}
+
+	@Override
+	public String toString() {
+		return Arrays.toString(toArray());
+	}
+
+	private int find(char high) {
+		return Arrays.binarySearch(keys, 0, size, high);
+	}
+
+	private void insert(int i, char high, Container container) {
+		ensureCapacity(size + 1);
+		System.arraycopy(keys, i, keys, i + 1, size - i);
+		System.arraycopy(containers, i, containers, i + 1, size - i);
+		keys[i] = high;
+		containers[i] = container;
+		size++;
+	}
+
+	private void append(char high, Container container) {
+		ensureCapacity(size + 1);
+		keys[size] = high;
+		containers[size++] = container;
+	}
+
+	private void ensureCapacity(int capacity) {
+		if (capacity > keys.length) {
+			var length = Math.max(capacity, keys.length * 2);
+			keys = Arrays.copyOf(keys, length);
+			containers = Arrays.copyOf(containers, length);
+		}
+	}
+
+	private static abstract class Container {
+
+		abstract Container add(char value);
+
+		abstract Container remove(char value);
+
+		abstract boolean contains(char value);
+
+		abstract int cardinality();
+
+		abstract void forEach(int high, IntConsumer consumer);
+
+		abstract Container copy();
+
+		abstract Container and(Container other);
+
+		abstract Container or(Container other);
+
+		abstract Container andNot(Container other);
+
+	}
+
+	private static final class ArrayContainer extends Container {
+		private char[] values;
+		private int card;
+
+		ArrayContainer() {
+			this(new char[4], 0);
+		}
+
+		ArrayContainer(char[] values, int card) {
+			this.values = values;
+			this.card = card;
+		}
+
+		@Override
+		Container add(char value) {
+			var i = Arrays.binarySearch(values, 0, card, value);
+			if (i >= 0) {
+				return this;
+			}
+			if (card == ARRAY_MAX) {
+				return toBitset().add(value);
+			}
+			i = -i - 1;
+			if (card == values.length) {
+				values = Arrays.copyOf(values, Math.min(values.length * 2, ARRAY_MAX));
+			}
+			System.arraycopy(values, i, values, i + 1, card - i);
+			values[i] = value;
+			card++;
+			return this;
+		}
+
+		@Override
+		Container remove(char value) {
+			var i = Arrays.binarySearch(values, 0, card, value);
+			if (i >= 0) {
+				System.arraycopy(values, i + 1, values, i, card - i - 1);
+				card--;
+			}
+			return this;
+		}
+
+		@Override
+		boolean contains(char value) {
+			return Arrays.binarySearch(values, 0, card, value) >= 0;
+		}
+
+		@Override
+		int cardinality() {
+			return card;
+		}
+
+		@Override
+		void forEach(int high, IntConsumer consumer) {
+			for (int i = 0; i < card; i++) {
+				consumer.accept(high | values[i]);
+			}
+		}
+
+		@Override
+		Container copy() {
+			return new ArrayContainer(Arrays.copyOf(values, Math.max(card, 1)), card);
+		}
+
+		BitsetContainer toBitset() {
+			var words = new long[BITSET_WORDS];
+			for (int i = 0; i < card; i++) {
+				words[values[i] >>> 6] |= 1L << values[i];
+			}
+			return new BitsetContainer(words, card);
+		}
+
+		@Override
+		Container and(Container other) {
+			var out = new char[Math.min(card, other.cardinality())];
+			var n = 0;
+			if (other instanceof ArrayContainer a) {
+				int i = 0, j = 0;
+				while (i < card && j < a.card) {
+					if (values[i] < a.values[j]) {
+						i++;
+					} else if (values[i] > a.values[j]) {
+						j++;
+					} else {
+						out[n++] = values[i];
+						i++;
+						j++;
+					}
+				}
+			} else {
+				for (int i = 0; i < card; i++) {
+					if (other.contains(values[i])) {
+						out[n++] = values[i];
+					}
+				}
+			}
+			return new ArrayContainer(out, n);
+		}
+
+		@Override
+		Container or(Container other) {
+			if (other instanceof BitsetContainer b) {
+				return b.or(this);
+			}
+			var a = (ArrayContainer) other;
+			if (card + a.card > ARRAY_MAX) {
+				var bitset = toBitset();
+				for (int j = 0; j < a.card; j++) {
+					bitset.add(a.values[j]);
+				}
+				return bitset;
+			}
+			var out = new char[card + a.card];
+			int i = 0, j = 0, n = 0;
+			while (i < card || j < a.card) {
+				if (j == a.card || (i < card && values[i] < a.values[j])) {
+					out[n++] = values[i++];
+				} else if (i == card || values[i] > a.values[j]) {
+					out[n++] = a.values[j++];
+				} else {
+					out[n++] = values[i];
+					i++;
+					j++;
+				}
+			}
+			return new ArrayContainer(out, n);
+		}
+
+		@Override
+		Container andNot(Container other) {
+			var out = new char[card];
+			var n = 0;
+			for (int i = 0; i < card; i++) {
+				if (!other.contains(values[i])) {
+					out[n++] = values[i];
+				}
+			}
+			return new ArrayContainer(out, n);
+		}
+
+	}
+
+	private static final class BitsetContainer extends Container {
+		private final long[] words;
+		private int card;
+
+		BitsetContainer(long[] words, int card) {
+			this.words = words;
+			this.card = card;
+		}
+
+		static Container of(long[] words) {
+			var card = 0;
+			for (var word : words) {
+				card += Long.bitCount(word);
+			}
+			var bitset = new BitsetContainer(words, card);
+			return card > ARRAY_MAX ? bitset : bitset.toArray();
+		}
+
+		@Override
+		Container add(char value) {
+			var word = words[value >>> 6];
+			var next = word | (1L << value);
+			if (next != word) {
+				words[value >>> 6] = next;
+				card++;
+			}
+			return this;
+		}
+
+		@Override
+		Container remove(char value) {
+			var word = words[value >>> 6];
+			var next = word & ~(1L << value);
+			if (next != word) {
+				words[value >>> 6] = next;
+				card--;
+			}
+			return card <= ARRAY_MAX ? toArray() : this;
+		}
+
+		@Override
+		boolean contains(char value) {
+			return (words[value >>> 6] & (1L << value)) != 0;
+		}
+
+		@Override
+		int cardinality() {
+			return card;
+		}
+
+		@Override
+		void forEach(int high, IntConsumer consumer) {
+			for (int w = 0; w < BITSET_WORDS; w++) {
+				var word = words[w];
+				while (word != 0) {
+					consumer.accept(high | (w << 6) | Long.numberOfTrailingZeros(word));
+					word &= word - 1;
+				}
+			}
+		}
+
+		@Override
+		Container copy() {
+			return new BitsetContainer(words.clone(), card);
+		}
+
+		ArrayContainer toArray() {
+			var values = new char[Math.max(card, 1)];
+			var n = new int[1];
+			forEach(0, v -> values[n[0]++] = (char) v);
+			return new ArrayContainer(values, card);
+		}
+
+		@Override
+		Container and(Container other) {
+			if (other instanceof ArrayContainer a) {
+				return a.and(this);
+			}
+			var b = (BitsetContainer) other;
+			var out = new long[BITSET_WORDS];
+			for (int w = 0; w < BITSET_WORDS; w++) {
+				out[w] = words[w] & b.words[w];
+			}
+			return of(out);
+		}
+
+		@Override
+		Container or(Container other) {
+			var out = words.clone();
+			if (other instanceof ArrayContainer a) {
+				var result = new BitsetContainer(out, card);
+				for (int i = 0; i < a.card; i++) {
+					result.add(a.values[i]);
+				}
+				return result;
+			}
+			var b = (BitsetContainer) other;
+			for (int w = 0; w < BITSET_WORDS; w++) {
+				out[w] |= b.words[w];
+			}
+			return of(out);
+		}
+
+		@Override
+		Container andNot(Container other) {
+			var out = words.clone();
+			if (other instanceof ArrayContainer a) {
+				for (int i = 0; i < a.card; i++) {
+					out[a.values[i] >>> 6] &= ~(1L << a.values[i]);
+				}
+			} else {
+				var b = (BitsetContainer) other;
+				for (int w = 0; w < BITSET_WORDS; w++) {
+					out[w] &= ~b.words[w];
+				}
+			}
+			return of(out);
+		}
+
+	}
+
+}
@@ -0,0 +1,323 @@
+package ru.keich.mon.servicemanager.util;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/*
+ * Copyright 2026 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/*
+ * Equality postings of entity fields as bitmaps of dense ordinals. An entity
+ * takes an ordinal when it is first indexed and gives it back when it is gone.
+ * Queries return new bitmaps, so the caller combines them without the lock.
+ * An ordinal given back is not handed out again while a Reader opened before
+ * that is still open, so ordinals read under a Reader keep naming the same key.
+ */
+public class BitmapIndex<K, T> {
+
+	private final Map<String, Function<T, Set<Object>>> mappers = new HashMap<>();
+	private final Map<String, Map<Object, Bitmap>> postings = new HashMap<>();
+	private final OrdinalRegistry<K> ordinals = new OrdinalRegistry<>();
+	private final Bitmap all = new Bitmap();
+	private Object[] indexed = new Object[1024];
+
+	/*
+	 * Retired ordinals with the epoch they were retired at, and open readers by the epoch they started at.
+	 */
+	private final ArrayDeque<long[]> retired = new ArrayDeque<>();
+	private final TreeMap<Long, Integer> readers = new TreeMap<>();
+	private long epoch = 0;
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+	/*
+	 * Indexes are added before the first refresh.
+	 */
+	public void addIndex(String name, Function<T, Set<Object>> mapper) {
+		mappers.put(name, mapper);
+		postings.put(name, new HashMap<>());
+	}
+
+	public boolean contains(String name) {
+		return mappers.containsKey(name);
+	}
+
+	public Set<String> getIndexNames() {
+		return Collections.unmodifiableSet(mappers.keySet());
+	}
+
+	/*
+	 * Reindexes one entity from its current state, so calls may come in any order.
+	 */
+	@SuppressWarnings("unchecked")
+	public void refresh(K id, Function<K, T> entities) {
+		lock.writeLock().lock();
+		try {
+			var entity = entities.apply(id);
+			var ordinal = ordinals.ordinalOf(id);
+			var prev = ordinal < 0 ? null : (T) indexed[ordinal];
+			if (prev == entity) {
+				return;
+			}
+			if (entity == null) {
+				update(ordinal, prev, null);
+				all.remove(ordinal);
+				indexed[ordinal] = null;
+				ordinals.retire(id);
+				retired.add(new long[] { ordinal, ++epoch });
+				return;
+			}
+			if (ordinal < 0) {
+				reuseRetired();
+				ordinal = ordinals.acquire(id);
+				if (ordinal >= indexed.length) {
+					indexed = Arrays.copyOf(indexed, Math.max(indexed.length * 2, ordinal + 1));
+				}
+				all.add(ordinal);
+			}
+			update(ordinal, prev, entity);
+			indexed[ordinal] = entity;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	private void update(int ordinal, T prev, T next) {
+		mappers.forEach((name, mapper) -> {
+			var prevValues = prev == null ? Collections.emptySet() : mapper.apply(prev);
+			var nextValues = next == null ? Collections.emptySet() : mapper.apply(next);
+			if (Objects.equals(prevValues, nextValues)) {
+				return;
+			}
+			var byValue = postings.get(name);
+			for (var value : prevValues) {
+				if (value != null && !nextValues.contains(value)) {
+					var bitmap = byValue.get(value);
+					if (bitmap != null && bitmap.remove(ordinal) && bitmap.isEmpty()) {
+						byValue.remove(value);
+					}
+				}
+			}
+			for (var value : nextValues) {
+				if (value != null && !prevValues.contains(value)) {
+					byValue.computeIfAbsent(value, v -> new Bitmap()).add(ordinal);
+				}
+			}
+		});
+	}
+
+	/*
+	 * Ordinals retired before the oldest open reader started go back to the registry.
+	 */
+	private void reuseRetired() {
+		long oldest;
+		synchronized (readers) {
+			oldest = readers.isEmpty() ? Long.MAX_VALUE : readers.firstKey();
+		}
+		while (!retired.isEmpty() && retired.peekFirst()[1] <= oldest) {
+			ordinals.reuse((int) retired.pollFirst()[0]);
+		}
+	}
+
+	public Reader reader() {
+		lock.readLock().lock();
+		try {
+			var start = epoch;
+			synchronized (readers) {
+				readers.merge(start, 1, Integer::sum);
+			}
+			return new Reader(start);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	public class Reader implements AutoCloseable {
+		private final long start;
+		private boolean closed = false;
+
+		private Reader(long start) {
+			this.start = start;
+		}
+
+		@Override
+		public void close() {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			synchronized (readers) {
+				readers.computeIfPresent(start, (k, count) -> count == 1 ? null : count - 1);
+			}
+		}
+
+	}
+
+	public Bitmap all() {
+		lock.readLock().lock();
+		try {
+			return all.copy();
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	public Bitmap eq(String name, Object value) {
+		lock.readLock().lock();
+		try {
+			var bitmap = postings.get(name).get(value);
+			return bitmap == null ? new Bitmap() : bitmap.copy();
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	public Bitmap notEq(String name, Object value) {
+		lock.readLock().lock();
+		try {
+			var bitmap = postings.get(name).get(value);
+			return bitmap == null ? all.copy() : all.andNot(bitmap);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/*
+	 * Entities with a value the test accepts, the test runs once per distinct value.
+	 */
+	public Bitmap matching(String name, Predicate<Object> test) {
+		lock.readLock().lock();
+		try {
+			return Bitmap.or(matchingPostings(name, test));
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/*
+	 * Entities without any value the test accepts, including entities without a value.
+	 */
+	public Bitmap notMatching(String name, Predicate<Object> test) {
+		lock.readLock().lock();
+		try {
+			return all.andNot(Bitmap.or(matchingPostings(name, test)));
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	private List<Bitmap> matchingPostings(String name, Predicate<Object> test) {
+		var out = new ArrayList<Bitmap>();
+		postings.get(name).forEach((value, bitmap) -> {
+			if (test.test(value)) {
+				out.add(bitmap);
+			}
+		});
+		return out;
+	}
+
+	/*
+	 * Keys without an ordinal are not indexed yet and are left out.
+	 */
+	public Bitmap ordinalsOf(Collection<K> keys) {
+		lock.readLock().lock();
+		try {
+			var values = new int[keys.size()];
+			var n = 0;
+			for (var key : keys) {
+				var ordinal = ordinals.ordinalOf(key);
+				if (ordinal >= 0) {
+					values[n++] = ordinal;
+				}
+			}
+			Arrays.sort(values, 0, n);
+			var bitmap = new Bitmap();
+			for (int i = 0; i < n; i++) {
+				bitmap.add(values[i]);
+			}
+			return bitmap;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	public Set<K> keysOf(Bitmap bitmap) {
+		lock.readLock().lock();
+		try {
+			return ordinals.keysOf(bitmap);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/*
+	 * Keys in ordinal order, for a result that is only streamed.
+	 */
+	public List<K> keyListOf(Bitmap bitmap) {
+		lock.readLock().lock();
+		try {
+			return ordinals.keyListOf(bitmap);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	public Set<K> keysEq(String name, Object value) {
+		lock.readLock().lock();
+		try {
+			var bitmap = postings.get(name).get(value);
+			return bitmap == null ? new HashSet<>() : ordinals.keysOf(bitmap);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	public int cardinality(String name, Object value) {
+		lock.readLock().lock();
+		try {
+			var bitmap = postings.get(name).get(value);
+			return bitmap == null ? 0 : bitmap.cardinality();
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/*
+	 * Number of distinct values of the index.
+	 */
+	public long size(String name) {
+		lock.readLock().lock();
+		try {
+			return postings.get(name).size();
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+}
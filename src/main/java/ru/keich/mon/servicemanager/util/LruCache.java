@@ -0,0 +1,78 @@
+package ru.keich.mon.servicemanager.util;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/*
+ * Copyright 2026 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/*
+ * Bounded map that evicts the least recently used entry.
+ */
+public class LruCache<K, V> {
+
+	private final LinkedHashMap<K, V> map;
+
+	public LruCache(int capacity) {
+		this.map = new LinkedHashMap<K, V>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+				return size() > capacity;
+			}
+		};
+	}
+
+	public synchronized V get(K key) {
+		return map.get(key);
+	}
+
+	public synchronized void put(K key, V value) {
+		map.put(key, value);
+	}
+
+	/*
+	 * mappingFunction runs outside the lock, concurrent misses on one key may both compute it.
+	 */
+	public V computeIfAbsent(K key, Function<? super K, ? extends V> mappingFunction) {
+		var value = get(key);
+		if (value != null) {
+			return value;
+		}
+		value = mappingFunction.apply(key);
+		synchronized (this) {
+			var prev = map.putIfAbsent(key, value);
+			return prev == null ? value : prev;
+		}
+	}
+
+	public synchronized List<V> values() {
+		return new ArrayList<>(map.values());
+	}
+
+	public synchronized int size() {
+		return map.size();
+	}
+
+	public synchronized void clear() {
+		map.clear();
+	}
+
+}
@@ -0,0 +1,126 @@
+package ru.keich.mon.servicemanager.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/*
+ * Copyright 2026 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/*
+ * Dense int ordinal per key for bitmap postings. Released ordinals are reused,
+ * so a key is released only after every posting of it is removed.
+ * Not thread safe, the owner guards it with the lock of its postings.
+ */
+public class OrdinalRegistry<K> {
+
+	private final Map<K, Integer> ordinals = new HashMap<>();
+	private Object[] keys = new Object[1024];
+	private int[] free = new int[64];
+	private int freeSize = 0;
+	private int next = 0;
+
+	/*
+	 * Ordinal of the key, a new one when the key has none.
+	 */
+	public int acquire(K key) {
+		var ordinal = ordinals.get(key);
+		if (ordinal != null) {
+			return ordinal;
+		}
+		int value = freeSize > 0 ? free[--freeSize] : next++;
+		if (value == keys.length) {
+			keys = Arrays.copyOf(keys, keys.length * 2);
+		}
+		keys[value] = key;
+		ordinals.put(key, value);
+		return value;
+	}
+
+	/*
+	 * Returns -1 when the key has no ordinal.
+	 */
+	public int ordinalOf(K key) {
+		var ordinal = ordinals.get(key);
+		return ordinal == null ? -1 : ordinal;
+	}
+
+	public void release(K key) {
+		var ordinal = retire(key);
+		if (ordinal >= 0) {
+			reuse(ordinal);
+		}
+	}
+
+	/*
+	 * Drops the key but keeps its ordinal out of use until reuse is called with it.
+	 * Returns -1 when the key has no ordinal.
+	 */
+	public int retire(K key) {
+		var ordinal = ordinals.remove(key);
+		if (ordinal == null) {
+			return -1;
+		}
+		keys[ordinal] = null;
+		return ordinal;
+	}
+
+	public void reuse(int ordinal) {
+		if (freeSize == free.length) {
+			free = Arrays.copyOf(free, free.length * 2);
+		}
+		free[freeSize++] = ordinal;
+	}
+
+	@SuppressWarnings("unchecked")
+	public K keyOf(int ordinal) {
+		return ordinal < keys.length ? (K) keys[ordinal] : null;
+	}
+
+	public Set<K> keysOf(Bitmap bitmap) {
+		var result = new HashSet<K>(Math.max(16, (int) (bitmap.cardinality() / 0.75f) + 1));
+		bitmap.forEach(ordinal -> {
+			var key = keyOf(ordinal);
+			if (key != null) {
+				result.add(key);
+			}
+		});
+		return result;
+	}
+
+	/*
+	 * Keys in ordinal order.
+	 */
+	public List<K> keyListOf(Bitmap bitmap) {
+		var result = new ArrayList<K>(bitmap.cardinality());
+		bitmap.forEach(ordinal -> {
+			var key = keyOf(ordinal);
+			if (key != null) {
+				result.add(key);
+			}
+		});
+		return result;
+	}
+
+	public int size() {
+		return ordinals.size();
+	}
+
+}
@@ -0,0 +1,424 @@
+package ru.keich.mon.servicemanager.util;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+
+/*
+ * Copyright 2026 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/*
+ * Immutable hash array mapped trie. plus and minus return a new map that
+ * shares every untouched node with this one, so an update costs O(log32 n)
+ * instead of a full copy. Mutators inherited from Map throw
+ * UnsupportedOperationException. Null keys are not supported.
+ */
+public final class PersistentHashMap<K, V> extends AbstractMap<K, V> {
+
+	private static final PersistentHashMap<?, ?> EMPTY = new PersistentHashMap<>(null, 0);
+	private static final Object NOT_FOUND = new Object();
+	private static final int BITS = 5;
+	private static final int MASK = (1 << BITS) - 1;
+
+	private final Node root;
+	private final int size;
+	private Set<Entry<K, V>> entrySet;
+
+	private PersistentHashMap(Node root, int size) {
+		this.root = root;
+		this.size = size;
+	}
+
+	@SuppressWarnings("unchecked")
+	public static <K, V> PersistentHashMap<K, V> empty() {
+		return (PersistentHashMap<K, V>) EMPTY;
+	}
+
+	/*
+	 * Returns the map itself when it is already persistent. Null stays null.
+	 */
+	@SuppressWarnings("unchecked")
+	public static <K, V> PersistentHashMap<K, V> of(Map<? extends K, ? extends V> map) {
+		if (map == null) {
+			return null;
+		}
+		if (map instanceof PersistentHashMap) {
+			return (PersistentHashMap<K, V>) map;
+		}
+		return PersistentHashMap.<K, V>empty().plusAll(map);
+	}
+
+	public PersistentHashMap<K, V> plus(K key, V value) {
+		Objects.requireNonNull(key);
+		var added = new boolean[1];
+		var newRoot = (root == null ? BitmapNode.EMPTY : root).put(0, hash(key), key, value, added);
+		if (newRoot == root) {
+			return this;
+		}
+		return new PersistentHashMap<>(newRoot, added[0] ? size + 1 : size);
+	}
+
+	public PersistentHashMap<K, V> plusAll(Map<? extends K, ? extends V> map) {
+		var out = this;
+		for (var e : map.entrySet()) {
+			out = out.plus(e.getKey(), e.getValue());
+		}
+		return out;
+	}
+
+	public PersistentHashMap<K, V> minus(Object key) {
+		if (root == null || key == null) {
+			return this;
+		}
+		var newRoot = root.remove(0, hash(key), key);
+		if (newRoot == root) {
+			return this;
+		}
+		return newRoot == null ? empty() : new PersistentHashMap<>(newRoot, size - 1);
+	}
+
+	public PersistentHashMap<K, V> minusAll(Iterable<?> keys) {
+		var out = this;
+		for (var key : keys) {
+			out = out.minus(key);
+		}
+		return out;
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		return find(key) != NOT_FOUND;
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public V get(Object key) {
+		var value = find(key);
+		return value == NOT_FOUND ? null : (V) value;
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public V getOrDefault(Object key, V defaultValue) {
+		var value = find(key);
+		return value == NOT_FOUND ? defaultValue : (V) value;
+	}
+
+	private Object find(Object key) {
+		if (root == null || key == null) {
+			return NOT_FOUND;
+		}
+		return root.find(0, hash(key), key);
+	}
+
+	@Override
+	public Set<Entry<K, V>> entrySet() {
+		if (entrySet == null) {
+			entrySet = new AbstractSet<Entry<K, V>>() {
+
+				@Override
+				public Iterator<Entry<K, V>> iterator() {
+					return new EntryIterator<>(root);
+				}
+
+				@Override
+				public int size() {
+					return size;
+				}
+
+				@Override
+				public boolean contains(Object o) {
+					if (!(o instanceof Entry<?, ?> e)) {
+						return false;
+					}
+					var value = find(e.getKey());
+					return value != NOT_FOUND && Objects.equals(value, e.getValue());
+				}
+
+			};
+		}
+		return entrySet;
+	}
+
+	static int hash(Object key) {
+		var h = key.hashCode();
+		return h ^ (h >>> 16);
+	}
+
+	private static int bit(int hash, int shift) {
+		return 1 << ((hash >>> shift) & MASK);
+	}
+
+	private static abstract class Node {
+
+		abstract Node put(int shift, int hash, Object key, Object value, boolean[] added);
+
+		/*
+		 * Returns this when nothing changed and null when the node became empty.
+		 */
+		abstract Node remove(int shift, int hash, Object key);
+
+		abstract Object find(int shift, int hash, Object key);
+
+		/*
+		 * Pairs of key and value. A null key marks a child node in the value slot.
+		 */
+		abstract Object[] array();
+
+	}
+
+	private static final class BitmapNode extends Node {
+
+		static final BitmapNode EMPTY = new BitmapNode(0, new Object[0]);
+
+		final int bitmap;
+		final Object[] array;
+
+		BitmapNode(int bitmap, Object[] array) {
+			this.bitmap = bitmap;
+			this.array = array;
+		}
+
+		@Override
+		Object[] array() {
+			return array;
+		}
+
+		private int index(int bit) {
+			return Integer.bitCount(bitmap & (bit - 1));
+		}
+
+		@Override
+		Object find(int shift, int hash, Object key) {
+			var bit = bit(hash, shift);
+			if ((bitmap & bit) == 0) {
+				return NOT_FOUND;
+			}
+			var idx = index(bit) * 2;
+			var k = array[idx];
+			if (k == null) {
+				return ((Node) array[idx + 1]).find(shift + BITS, hash, key);
+			}
+			return key.equals(k) ? array[idx + 1] : NOT_FOUND;
+		}
+
+		@Override
+		Node put(int shift, int hash, Object key, Object value, boolean[] added) {
+			var bit = bit(hash, shift);
+			var idx = index(bit) * 2;
+			if ((bitmap & bit) == 0) {
+				var a = new Object[array.length + 2];
+				System.arraycopy(array, 0, a, 0, idx);
+				a[idx] = key;
+				a[idx + 1] = value;
+				System.arraycopy(array, idx, a, idx + 2, array.length - idx);
+				added[0] = true;
+				return new BitmapNode(bitmap | bit, a);
+			}
+			var k = array[idx];
+			var v = array[idx + 1];
+			if (k == null) {
+				var node = ((Node) v).put(shift + BITS, hash, key, value, added);
+				return node == v ? this : with(idx, null, node);
+			}
+			if (key.equals(k)) {
+				return v == value ? this : with(idx, k, value);
+			}
+			added[0] = true;
+			return with(idx, null, pair(shift + BITS, k, v, hash, key, value));
+		}
+
+		@Override
+		Node remove(int shift, int hash, Object key) {
+			var bit = bit(hash, shift);
+			if ((bitmap & bit) == 0) {
+				return this;
+			}
+			var idx = index(bit) * 2;
+			var k = array[idx];
+			if (k == null) {
+				var child = (Node) array[idx + 1];
+				var node = child.remove(shift + BITS, hash, key);
+				if (node == child) {
+					return this;
+				}
+				if (node != null) {
+					return with(idx, null, node);
+				}
+			} else if (!key.equals(k)) {
+				return this;
+			}
+			if (bitmap == bit) {
+				return null;
+			}
+			var a = new Object[array.length - 2];
+			System.arraycopy(array, 0, a, 0, idx);
+			System.arraycopy(array, idx + 2, a, idx, array.length - idx - 2);
+			return new BitmapNode(bitmap & ~bit, a);
+		}
+
+		private BitmapNode with(int idx, Object key, Object value) {
+			var a = array.clone();
+			a[idx] = key;
+			a[idx + 1] = value;
+			return new BitmapNode(bitmap, a);
+		}
+
+		private static Node pair(int shift, Object k1, Object v1, int hash2, Object k2, Object v2) {
+			var hash1 = hash(k1);
+			if (hash1 == hash2) {
+				return new CollisionNode(hash1, new Object[] { k1, v1, k2, v2 });
+			}
+			var added = new boolean[1];
+			return EMPTY.put(shift, hash1, k1, v1, added).put(shift, hash2, k2, v2, added);
+		}
+
+	}
+
+	private static final class CollisionNode extends Node {
+
+		final int hash;
+		final Object[] array;
+
+		CollisionNode(int hash, Object[] array) {
+			this.hash = hash;
+			this.array = array;
+		}
+
+		@Override
+		Object[] array() {
+			return array;
+		}
+
+		private int index(Object key) {
+			for (int i = 0; i < array.length; i += 2) {
+				if (key.equals(array[i])) {
+					return i;
+				}
+			}
+			return -1;
+		}
+
+		@Override
+		Object find(int shift, int hash, Object key) {
+			var idx = index(key);
+			return idx < 0 ? NOT_FOUND : array[idx + 1];
+		}
+
+		@Override
+		Node put(int shift, int hash, Object key, Object value, boolean[] added) {
+			if (hash != this.hash) {
+				return new BitmapNode(bit(this.hash, shift), new Object[] { null, this }).put(shift, hash, key, value, added);
+			}
+			var idx = index(key);
+			if (idx >= 0) {
+				if (array[idx + 1] == value) {
+					return this;
+				}
+				var a = array.clone();
+				a[idx + 1] = value;
+				return new CollisionNode(hash, a);
+			}
+			var a = new Object[array.length + 2];
+			System.arraycopy(array, 0, a, 0, array.length);
+			a[array.length] = key;
+			a[array.length + 1] = value;
+			added[0] = true;
+			return new CollisionNode(hash, a);
+		}
+
+		@Override
+		Node remove(int shift, int hash, Object key) {
+			var idx = index(key);
+			if (idx < 0) {
+				return this;
+			}
+			if (array.length == 2) {
+				return null;
+			}
+			var a = new Object[array.length - 2];
+			System.arraycopy(array, 0, a, 0, idx);
+			System.arraycopy(array, idx + 2, a, idx, array.length - idx - 2);
+			return new CollisionNode(hash, a);
+		}
+
+	}
+
+	private static final class EntryIterator<K, V> implements Iterator<Entry<K, V>> {
+
+		private final ArrayDeque<Object[]> arrays = new ArrayDeque<>();
+		private final ArrayDeque<Integer> positions = new ArrayDeque<>();
+		private Object[] array;
+		private int position;
+		private Entry<K, V> next;
+
+		EntryIterator(Node root) {
+			array = root == null ? new Object[0] : root.array();
+			advance();
+		}
+
+		@SuppressWarnings("unchecked")
+		private void advance() {
+			next = null;
+			while (array != null) {
+				if (position >= array.length) {
+					array = arrays.poll();
+					position = array == null ? 0 : positions.pop();
+					continue;
+				}
+				var k = array[position];
+				var v = array[position + 1];
+				position += 2;
+				if (k == null) {
+					arrays.push(array);
+					positions.push(position);
+					array = ((Node) v).array();
+					position = 0;
+				} else {
+					next = new SimpleImmutableEntry<>((K) k, (V) v);
+					return;
+				}
+			}
+		}
+
+		@Override
+		public boolean hasNext() {
+			return next != null;
+		}
+
+		@Override
+		public Entry<K, V> next() {
+			if (next == null) {
+				throw new NoSuchElementException();
+			}
+			var out = next;
+			advance();
+			return out;
+		}
+
+	}
+
+}
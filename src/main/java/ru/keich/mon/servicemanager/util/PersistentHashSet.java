@@ -0,0 +1,97 @@
+package ru.keich.mon.servicemanager.util;
+
+import java.util.AbstractSet;
+import java.util.Collection;
+import java.util.Iterator;
+
+/*
+ * Copyright 2026 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/*
+ * Immutable set on top of PersistentHashMap, see there.
+ */
+public final class PersistentHashSet<E> extends AbstractSet<E> {
+
+	private static final PersistentHashSet<?> EMPTY = new PersistentHashSet<>(PersistentHashMap.empty());
+
+	private final PersistentHashMap<E, Boolean> map;
+
+	private PersistentHashSet(PersistentHashMap<E, Boolean> map) {
+		this.map = map;
+	}
+
+	@SuppressWarnings("unchecked")
+	public static <E> PersistentHashSet<E> empty() {
+		return (PersistentHashSet<E>) EMPTY;
+	}
+
+	/*
+	 * Returns the set itself when it is already persistent. Null stays null.
+	 */
+	@SuppressWarnings("unchecked")
+	public static <E> PersistentHashSet<E> of(Collection<? extends E> values) {
+		if (values == null) {
+			return null;
+		}
+		if (values instanceof PersistentHashSet) {
+			return (PersistentHashSet<E>) values;
+		}
+		return PersistentHashSet.<E>empty().plusAll(values);
+	}
+
+	public PersistentHashSet<E> plus(E value) {
+		return wrap(map.plus(value, Boolean.TRUE));
+	}
+
+	public PersistentHashSet<E> plusAll(Collection<? extends E> values) {
+		var out = map;
+		for (var value : values) {
+			out = out.plus(value, Boolean.TRUE);
+		}
+		return wrap(out);
+	}
+
+	public PersistentHashSet<E> minus(Object value) {
+		return wrap(map.minus(value));
+	}
+
+	public PersistentHashSet<E> minusAll(Collection<?> values) {
+		return wrap(map.minusAll(values));
+	}
+
+	private PersistentHashSet<E> wrap(PersistentHashMap<E, Boolean> newMap) {
+		if (newMap == map) {
+			return this;
+		}
+		return newMap.isEmpty() ? empty() : new PersistentHashSet<>(newMap);
+	}
+
+	@Override
+	public boolean contains(Object o) {
+		return map.containsKey(o);
+	}
+
+	@Override
+	public Iterator<E> iterator() {
+		return map.keySet().iterator();
+	}
+
+	@Override
+	public int size() {
+		return map.size();
+	}
+
+}
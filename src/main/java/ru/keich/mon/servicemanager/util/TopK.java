@@ -0,0 +1,107 @@
+package ru.keich.mon.servicemanager.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.function.BinaryOperator;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collector;
+
+/*
+ * Copyright 2026 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/*
+ * Collects the first k elements in comparator order in O(n log k) time and
+ * O(k) memory. Equal elements keep encounter order, so the result is the same
+ * as sorted(comparator).limit(k).
+ */
+public class TopK<T> {
+
+	private record Ranked<T>(T value, long seq) {}
+
+	private final int k;
+	private final Comparator<Ranked<T>> order;
+	private final PriorityQueue<Ranked<T>> heap;
+	private long seq = 0;
+
+	private TopK(Comparator<? super T> comparator, int k) {
+		this.k = k;
+		Comparator<Ranked<T>> byValue = (a, b) -> comparator.compare(a.value(), b.value());
+		this.order = byValue.thenComparingLong(Ranked::seq);
+		this.heap = new PriorityQueue<>(Math.min(k, 1024) + 1, order.reversed());
+	}
+
+	public static <T> Collector<T, ?, List<T>> collector(Comparator<? super T> comparator, int k) {
+		return new Collector<T, TopK<T>, List<T>>() {
+
+			@Override
+			public Supplier<TopK<T>> supplier() {
+				return () -> new TopK<T>(comparator, k);
+			}
+
+			@Override
+			public BiConsumer<TopK<T>, T> accumulator() {
+				return TopK::add;
+			}
+
+			@Override
+			public BinaryOperator<TopK<T>> combiner() {
+				return (a, b) -> {
+					b.toList().forEach(a::add);
+					return a;
+				};
+			}
+
+			@Override
+			public Function<TopK<T>, List<T>> finisher() {
+				return TopK::toList;
+			}
+
+			@Override
+			public Set<Characteristics> characteristics() {
+				return Collections.emptySet();
+			}
+
+		};
+	}
+
+	private void add(T value) {
+		if (k <= 0) {
+			return;
+		}
+		var ranked = new Ranked<T>(value, seq++);
+		if (heap.size() < k) {
+			heap.add(ranked);
+		} else if (order.compare(ranked, heap.peek()) < 0) {
+			heap.poll();
+			heap.add(ranked);
+		}
+	}
+
+	private List<T> toList() {
+		var ranked = new ArrayList<>(heap);
+		ranked.sort(order);
+		var out = new ArrayList<T>(ranked.size());
+		ranked.forEach(r -> out.add(r.value()));
+		return out;
+	}
+
+}
@@ -0,0 +1,235 @@
+package ru.keich.mon.servicemanager.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+
+/*
+ * Copyright 2026 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/*
+ * Case insensitive trigram postings of string values, or of Map.Entry values
+ * where the trigrams of the value are scoped by the key. candidates() is a
+ * superset of the entities holding a value that contains the query, the
+ * caller verifies them with the real predicate. Postings are bitmaps of
+ * ordinals, ids are resolved once after the intersection.
+ */
+public class TrigramIndex<K, T> {
+
+	private static final long[] EMPTY = new long[0];
+	private static final long SCOPE_MULT = 0x9E3779B97F4A7C15L;
+
+	private final Function<T, Set<Object>> mapper;
+	private final boolean entries;
+	private final Map<Long, Bitmap> postings = new HashMap<>();
+	private final Map<K, long[]> indexed = new HashMap<>();
+	private final OrdinalRegistry<K> ordinals = new OrdinalRegistry<>();
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+	public TrigramIndex(Function<T, Set<Object>> mapper, boolean entries) {
+		this.mapper = mapper;
+		this.entries = entries;
+	}
+
+	/*
+	 * Reindexes one entity from its current state, so calls may come in any order.
+	 */
+	public void refresh(K id, Function<K, T> entities) {
+		lock.writeLock().lock();
+		try {
+			var entity = entities.apply(id);
+			var next = entity == null ? EMPTY : grams(mapper.apply(entity));
+			var prev = indexed.getOrDefault(id, EMPTY);
+			if (prev.length == 0 && next.length == 0) {
+				return;
+			}
+			var ordinal = ordinals.acquire(id);
+			int i = 0, j = 0;
+			while (i < prev.length || j < next.length) {
+				if (j == next.length || (i < prev.length && prev[i] < next[j])) {
+					var gram = prev[i++];
+					var ids = postings.get(gram);
+					if (ids != null && ids.remove(ordinal) && ids.isEmpty()) {
+						postings.remove(gram);
+					}
+				} else if (i == prev.length || next[j] < prev[i]) {
+					postings.computeIfAbsent(next[j++], g -> new Bitmap()).add(ordinal);
+				} else {
+					i++;
+					j++;
+				}
+			}
+			if (next.length == 0) {
+				indexed.remove(id);
+				ordinals.release(id);
+			} else {
+				indexed.put(id, next);
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/*
+	 * Returns null when the value can't be answered from the index.
+	 */
+	public Set<K> candidates(Object value) {
+		var query = queryGrams(value);
+		if (query == null) {
+			return null;
+		}
+		lock.readLock().lock();
+		try {
+			var lists = new ArrayList<Bitmap>(query.length);
+			for (var gram : query) {
+				var ids = postings.get(gram);
+				if (ids == null) {
+					return new HashSet<>();
+				}
+				lists.add(ids);
+			}
+			lists.sort(Comparator.comparingInt(Bitmap::cardinality));
+			var result = lists.get(0);
+			for (int i = 1; i < lists.size() && !result.isEmpty(); i++) {
+				result = result.and(lists.get(i));
+			}
+			return ordinals.keysOf(result);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/*
+	 * Length of the shortest posting list of the value, -1 when the value can't be answered from the index.
+	 */
+	public long estimate(Object value) {
+		var query = queryGrams(value);
+		if (query == null) {
+			return -1;
+		}
+		lock.readLock().lock();
+		try {
+			long min = Long.MAX_VALUE;
+			for (var gram : query) {
+				var ids = postings.get(gram);
+				min = Math.min(min, ids == null ? 0 : ids.cardinality());
+			}
+			return min;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	public Set<Object> valuesOf(T entity) {
+		return mapper.apply(entity);
+	}
+
+	public int size() {
+		lock.readLock().lock();
+		try {
+			return indexed.size();
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	private long[] queryGrams(Object value) {
+		if (value == null || (value instanceof Map.Entry) != entries) {
+			return null;
+		}
+		var out = new long[textOf(value).length()];
+		var n = grams(value, out, 0);
+		return n == 0 ? null : unique(out, n);
+	}
+
+	private long[] grams(Set<Object> values) {
+		if (values == null || values.isEmpty()) {
+			return EMPTY;
+		}
+		var out = new long[64];
+		var n = 0;
+		for (var value : values) {
+			if (value == null) {
+				continue;
+			}
+			var text = textOf(value);
+			if (text.length() < 3) {
+				continue;
+			}
+			if (n + text.length() > out.length) {
+				out = Arrays.copyOf(out, Math.max(out.length * 2, n + text.length()));
+			}
+			n = grams(value, out, n);
+		}
+		return n == 0 ? EMPTY : unique(out, n);
+	}
+
+	/*
+	 * out must have room for text length grams.
+	 */
+	private static int grams(Object value, long[] out, int n) {
+		var text = textOf(value);
+		long scope = 0;
+		if (value instanceof Map.Entry<?, ?> e) {
+			scope = String.valueOf(e.getKey()).hashCode() * SCOPE_MULT;
+		}
+		if (text.length() < 3) {
+			return n;
+		}
+		long a = fold(text.charAt(0));
+		long b = fold(text.charAt(1));
+		for (int i = 2; i < text.length(); i++) {
+			long c = fold(text.charAt(i));
+			out[n++] = ((a << 32) | (b << 16) | c) ^ scope;
+			a = b;
+			b = c;
+		}
+		return n;
+	}
+
+	private static String textOf(Object value) {
+		if (value instanceof Map.Entry<?, ?> e) {
+			return String.valueOf(e.getValue());
+		}
+		return value.toString();
+	}
+
+	/*
+	 * Per char folding keeps a substring of a value a substring of the folded value.
+	 */
+	private static char fold(char c) {
+		return Character.toLowerCase(Character.toUpperCase(c));
+	}
+
+	private static long[] unique(long[] grams, int n) {
+		Arrays.sort(grams, 0, n);
+		var size = 0;
+		for (int i = 0; i < n; i++) {
+			if (size == 0 || grams[size - 1] != grams[i]) {
+				grams[size++] = grams[i];
+			}
+		}
+		return Arrays.copyOf(grams, size);
+	}
+
+}
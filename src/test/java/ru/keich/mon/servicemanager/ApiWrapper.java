@@ -6,22 +6,31 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 
 import org.springframework.core.ParameterizedTypeReference;
 import org.springframework.http.HttpMethod;
+import org.springframework.http.MediaType;
 import org.springframework.test.web.servlet.client.RestTestClient;
 import org.springframework.util.MultiValueMap;
 
 import ru.keich.mon.servicemanager.alert.Alert;
 import ru.keich.mon.servicemanager.entity.Entity;
+import ru.keich.mon.servicemanager.entity.EntityController;
+import ru.keich.mon.servicemanager.entity.EntityIngestSummary;
+import ru.keich.mon.servicemanager.entity.EntityUpdateResult;
 import ru.keich.mon.servicemanager.event.Event;
 import ru.keich.mon.servicemanager.item.Item;
+import ru.keich.mon.servicemanager.query.QueryAggregate;
+import ru.keich.mon.servicemanager.query.QueryExplain;
 import ru.keich.mon.servicemanager.query.QueryParamsParser;
 
 public class ApiWrapper {
 
 	private final RestTestClient restTestClient;
 
+	public record Page<T>(List<T> entities, String nextCursor) {}
+
 	public ApiWrapper(RestTestClient restTestClient) {
 		this.restTestClient = restTestClient;
 	}
@@ -153,6 +162,60 @@ public class ApiWrapper {
 		entityAdd("/event", items);
 	}
 
+	public List<EntityUpdateResult<String>> eventAddWithResults(List<Event> events) {
+		return restTestClient
+				.post()
+				.uri("/api/v1/event")
+				.body(events)
+				.exchangeSuccessfully()
+				.expectBody(new ParameterizedTypeReference<List<EntityUpdateResult<String>>>() {})
+				.returnResult()
+				.getResponseBody();
+	}
+
+	public EntityIngestSummary<String> eventAddNdjson(String body) {
+		return restTestClient
+				.post()
+				.uri("/api/v1/event")
+				.contentType(MediaType.APPLICATION_NDJSON)
+				.body(body)
+				.exchangeSuccessfully()
+				.expectBody(new ParameterizedTypeReference<EntityIngestSummary<String>>() {})
+				.returnResult()
+				.getResponseBody();
+	}
+
+	/*
+	 * Backlog of the event change feed as raw server-sent events text.
+	 */
+	public String eventChanges(long since, String exclude) {
+		return restTestClient.get()
+				.uri(uriBuilder -> uriBuilder
+						.path("/api/v1/event/_changes")
+						.queryParam(EntityController.CHANGES_SINCE, since)
+						.queryParamIfPresent(EntityController.CHANGES_EXCLUDE, Optional.ofNullable(exclude))
+						.queryParam(EntityController.CHANGES_FOLLOW, false)
+						.build())
+				.accept(MediaType.TEXT_EVENT_STREAM)
+				.exchangeSuccessfully()
+				.expectBody(String.class)
+				.returnResult()
+				.getResponseBody();
+	}
+
+	public void eventChangesBadLastEventId(String lastEventId) {
+		restTestClient.get()
+				.uri(uriBuilder -> uriBuilder
+						.path("/api/v1/event/_changes")
+						.queryParam(EntityController.CHANGES_FOLLOW, false)
+						.build())
+				.header("Last-Event-ID", lastEventId)
+				.accept(MediaType.TEXT_EVENT_STREAM)
+				.exchange()
+				.expectStatus()
+				.isBadRequest();
+	}
+
 	public List<Event> eventSearch(String search) {
 		return entitySearch("/event", search, new ParameterizedTypeReference<List<Event>>() {});
 	}
@@ -161,6 +224,59 @@ public class ApiWrapper {
 		return entitySearch("/event", reqParam, new ParameterizedTypeReference<List<Event>>() {});
 	}
 
+	public Page<Event> eventSearchPage(MultiValueMap<String, String> reqParam, String cursor) {
+		var result = restTestClient.get()
+				.uri(uriBuilder  -> uriBuilder
+						.path("/api/v1/event")
+						.queryParams(reqParam)
+						.queryParam(QueryParamsParser.QUERY_CURSOR, cursor == null ? "" : cursor)
+						.build())
+				.exchangeSuccessfully()
+				.expectBody(new ParameterizedTypeReference<List<Event>>() {})
+				.returnResult();
+		return new Page<>(result.getResponseBody(), result.getResponseHeaders().getFirst(EntityController.HEADER_NEXT_CURSOR));
+	}
+
+	public QueryAggregate eventAggregate(String endpoint, MultiValueMap<String, String> reqParam) {
+		return restTestClient.get()
+				.uri(uriBuilder  -> uriBuilder
+						.path("/api/v1/event/" + endpoint)
+						.queryParams(reqParam)
+						.build())
+				.exchangeSuccessfully()
+				.expectBody(QueryAggregate.class)
+				.returnResult()
+				.getResponseBody();
+	}
+
+	public String eventSearchNdjson(MultiValueMap<String, String> reqParam) {
+		return restTestClient.get()
+				.uri(uriBuilder  -> uriBuilder
+						.path("/api/v1/event")
+						.queryParams(reqParam)
+						.build())
+				.accept(MediaType.APPLICATION_NDJSON)
+				.exchangeSuccessfully()
+				.expectHeader()
+				.contentTypeCompatibleWith(MediaType.APPLICATION_NDJSON)
+				.expectBody(String.class)
+				.returnResult()
+				.getResponseBody();
+	}
+
+	public QueryExplain eventExplain(MultiValueMap<String, String> reqParam) {
+		return restTestClient.get()
+				.uri(uriBuilder  -> uriBuilder
+						.path("/api/v1/event")
+						.queryParams(reqParam)
+						.queryParam(QueryParamsParser.QUERY_EXPLAIN, "true")
+						.build())
+				.exchangeSuccessfully()
+				.expectBody(QueryExplain.class)
+				.returnResult()
+				.getResponseBody();
+	}
+
 	public void eventDel(List<String> ids) {
 		entityDel("/event", ids);
 	}
@@ -0,0 +1,80 @@
+package ru.keich.mon.servicemanager;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+import ru.keich.mon.servicemanager.event.Event;
+import ru.keich.mon.servicemanager.event.EventBinaryCodec;
+import ru.keich.mon.servicemanager.persistence.BinaryChangeStream;
+
+public class BinaryChangeStreamTest {
+
+	private static Event event(int i) {
+		return Event.Builder.getDefault("event_" + i)
+				.version((long) i + 1)
+				.source("zabbix")
+				.sourceKey("zabbix_" + i)
+				.node("node_" + (i % 3))
+				.summary("Problem on host")
+				.status(BaseStatus.fromInteger(i % 6))
+				.fields(Map.of("host", "host_" + (i % 3), "severity", String.valueOf(i % 6)))
+				.fromHistory(Set.of("node1"))
+				.createdOn(Instant.ofEpochSecond(1_700_000_000L + i, 123))
+				.deletedOn(i % 2 == 0 ? null : Instant.ofEpochSecond(1_800_000_000L))
+				.build();
+	}
+
+	@Test
+	public void framesSplitAcrossChunks() {
+		var writer = new BinaryChangeStream.Writer<Event>(new EventBinaryCodec());
+		for (int i = 0; i < 10; i++) {
+			writer.entity(event(i));
+		}
+		writer.marker(BinaryChangeStream.FRAME_WATERMARK, 42);
+		writer.heartbeat();
+		writer.entity(event(10));
+		writer.marker(BinaryChangeStream.FRAME_SYNCED, 43);
+		var first = writer.drain();
+		var second = new BinaryChangeStream.Writer<Event>(new EventBinaryCodec());
+		second.entity(event(0));
+		var once = second.size();
+		second.entity(event(0));
+		assertTrue(second.size() - once < once / 2, "repeated strings are sent as ids");
+
+		var reader = new BinaryChangeStream.Reader<Event>(new EventBinaryCodec());
+		var frames = new ArrayList<BinaryChangeStream.Frame<Event>>();
+		for (int offset = 0; offset < first.length; offset += 7) {
+			reader.read(ByteBuffer.wrap(first, offset, Math.min(7, first.length - offset)), frames::add);
+		}
+		assertEquals(14, frames.size());
+		for (int i = 0; i < 10; i++) {
+			var expected = event(i);
+			var actual = frames.get(i).entity();
+			assertEquals(BinaryChangeStream.FRAME_ENTITY, frames.get(i).type());
+			assertEquals(expected.getId(), actual.getId());
+			assertEquals(expected.getVersion(), actual.getVersion());
+			assertEquals(expected.getStatus(), actual.getStatus());
+			assertEquals(expected.getNode(), actual.getNode());
+			assertEquals(expected.getFields(), actual.getFields());
+			assertEquals(expected.getCreatedOn(), actual.getCreatedOn());
+			assertEquals(expected.getDeletedOn(), actual.getDeletedOn());
+			assertTrue(actual.hasSameContent(expected));
+		}
+		assertEquals(42, frames.get(10).version());
+		assertEquals(BinaryChangeStream.FRAME_HEARTBEAT, frames.get(11).type());
+		assertNull(frames.get(11).entity());
+		assertEquals("event_10", frames.get(12).entity().getId());
+		assertEquals(BinaryChangeStream.FRAME_SYNCED, frames.get(13).type());
+		assertEquals(43, frames.get(13).version());
+	}
+
+}
@@ -0,0 +1,68 @@
+package ru.keich.mon.servicemanager;
+
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.util.LinkedMultiValueMap;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import ru.keich.mon.servicemanager.event.Event;
+import ru.keich.mon.servicemanager.event.EventService;
+import ru.keich.mon.servicemanager.item.ItemService;
+import ru.keich.mon.servicemanager.persistence.EntityPersistenceFactory;
+import ru.keich.mon.servicemanager.query.QueryParamsParser;
+
+/*
+ * Multi-clause searches through the same path as GET /event?search=...&limit=100:
+ * the search is evaluated as ordinal bitmaps, sorted and cut to the page.
+ * Run with: java -Xmx4g -cp target/test-classes:target/classes:<deps> ru.keich.mon.servicemanager.BitmapSearchBenchmark [events]
+ */
+public class BitmapSearchBenchmark {
+
+	private static final List<String> SEARCHES = List.of(
+			"source = \"zabbix\" AND status = MAJOR AND fields.\"severity\" = \"high\"",
+			"source = \"prometheus\" AND (fields.\"service\" = \"billing\" OR fields.\"service\" = \"auth\") AND fields.\"severity\" = \"low\"",
+			"fields.\"service\" = \"storage\" AND status != CLEAR",
+			"node LIKE \"db-12\" AND source = \"prometheus\"");
+
+	public static void main(String[] args) {
+		var count = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+		var registry = new SimpleMeterRegistry();
+		var persistenceFactory = new EntityPersistenceFactory("", 1 << 26, 1000, "binary");
+		var queueFactory = new QueueThreadReaderFactory(registry, 1, 100_000, true);
+		var eventService = new EventService("bench", registry, persistenceFactory, queueFactory);
+		new ItemService("bench", eventService, registry, persistenceFactory, queueFactory, 60L);
+		var services = new String[] { "billing", "auth", "storage" };
+		var start = System.nanoTime();
+		for (int i = 0; i < count; i++) {
+			eventService.addOrUpdate(Event.Builder.getDefault("event_" + i)
+					.source(i % 2 == 0 ? "zabbix" : "prometheus")
+					.sourceKey("bench")
+					.node((i % 3 == 0 ? "db-" : "web-") + (i % 1000))
+					.summary("Problem " + (i % 97))
+					.status(BaseStatus.fromInteger(i % 6))
+					.fields(Map.of("severity", i % 5 == 0 ? "high" : "low", "service", services[i % services.length]))
+					.build());
+		}
+		System.out.printf("loaded %d events in %.1fs%n", count, (System.nanoTime() - start) / 1e9);
+		for (int run = 0; run < 5; run++) {
+			var line = new StringBuilder("run " + run + ":");
+			for (int s = 0; s < SEARCHES.size(); s++) {
+				var reqParam = new LinkedMultiValueMap<String, String>();
+				reqParam.add(QueryParamsParser.QUERY_SEARCH, SEARCHES.get(s));
+				reqParam.add(QueryParamsParser.QUERY_LIMIT, "100");
+				reqParam.add("version", "SORTDESC:0");
+				var requests = 10;
+				long rows = 0;
+				start = System.nanoTime();
+				for (int i = 0; i < requests; i++) {
+					rows += eventService.sortAndLimitEnrich(reqParam, eventService::find, (stream, qp) -> stream.count());
+				}
+				line.append(String.format(" q%d %.1fms (%d rows)", s, (System.nanoTime() - start) / 1e6 / requests, rows / requests));
+			}
+			System.out.println(line);
+		}
+		System.exit(0);
+	}
+
+}
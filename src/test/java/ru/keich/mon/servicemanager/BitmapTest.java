@@ -0,0 +1,120 @@
+package ru.keich.mon.servicemanager;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.junit.jupiter.api.Test;
+
+import ru.keich.mon.servicemanager.util.Bitmap;
+import ru.keich.mon.servicemanager.util.BitmapIndex;
+import ru.keich.mon.servicemanager.util.OrdinalRegistry;
+
+public class BitmapTest {
+
+	private static Set<Integer> toSet(Bitmap bitmap) {
+		var set = new TreeSet<Integer>();
+		bitmap.forEach(set::add);
+		return set;
+	}
+
+	private static void fill(Random random, Bitmap bitmap, Set<Integer> set, int count, int range) {
+		for (int i = 0; i < count; i++) {
+			var value = random.nextInt(range);
+			assertEquals(set.add(value), bitmap.add(value));
+		}
+	}
+
+	@Test
+	public void sameAsHashSet() {
+		var random = new Random(11);
+		// sparse and dense chunks, values spread over several chunks
+		for (var count : new int[] { 10, 3000, 20_000, 150_000 }) {
+			var a = new Bitmap();
+			var b = new Bitmap();
+			var sa = new HashSet<Integer>();
+			var sb = new HashSet<Integer>();
+			fill(random, a, sa, count, 300_000);
+			fill(random, b, sb, count / 2, 300_000);
+			for (int i = 0; i < count / 3; i++) {
+				var value = random.nextInt(300_000);
+				assertEquals(sa.remove(value), a.remove(value));
+			}
+			assertEquals(sa.size(), a.cardinality());
+			assertEquals(new TreeSet<>(sa), toSet(a));
+			for (int i = 0; i < 1000; i++) {
+				var value = random.nextInt(300_000);
+				assertEquals(sa.contains(value), a.contains(value));
+			}
+			var and = new HashSet<>(sa);
+			and.retainAll(sb);
+			assertEquals(new TreeSet<>(and), toSet(a.and(b)));
+			var or = new HashSet<>(sa);
+			or.addAll(sb);
+			assertEquals(new TreeSet<>(or), toSet(a.or(b)));
+			var andNot = new HashSet<>(sa);
+			andNot.removeAll(sb);
+			assertEquals(new TreeSet<>(andNot), toSet(a.andNot(b)));
+			assertEquals(new TreeSet<>(sb), toSet(b.andNot(new Bitmap())));
+		}
+	}
+
+	@Test
+	public void ordinalsAreReused() {
+		var registry = new OrdinalRegistry<String>();
+		assertEquals(0, registry.acquire("a"));
+		assertEquals(1, registry.acquire("b"));
+		assertEquals(0, registry.acquire("a"));
+		registry.release("a");
+		assertEquals(-1, registry.ordinalOf("a"));
+		assertEquals(0, registry.acquire("c"));
+		assertEquals(Set.of("b", "c"), registry.keysOf(Bitmap.of(0, 1, 7)));
+	}
+
+	@Test
+	public void indexFollowsEntities() {
+		var entities = new HashMap<String, String>();
+		var index = new BitmapIndex<String, String>();
+		index.addIndex("value", v -> Set.of(v));
+		entities.put("a", "x");
+		entities.put("b", "y");
+		entities.put("c", "x");
+		entities.keySet().forEach(id -> index.refresh(id, entities::get));
+		assertEquals(Set.of("a", "c"), index.keysOf(index.eq("value", "x")));
+		assertEquals(Set.of("b"), index.keysOf(index.notEq("value", "x")));
+		entities.put("c", "y");
+		index.refresh("c", entities::get);
+		assertEquals(Set.of("a"), index.keysEq("value", "x"));
+		assertEquals(2, index.cardinality("value", "y"));
+		entities.remove("a");
+		index.refresh("a", entities::get);
+		assertEquals(Set.of(), index.keysEq("value", "x"));
+		assertEquals(1, index.size("value"));
+	}
+
+	@Test
+	public void retiredOrdinalsWaitForOpenReaders() {
+		var entities = new HashMap<String, String>();
+		var index = new BitmapIndex<String, String>();
+		index.addIndex("value", v -> Set.of(v));
+		entities.put("a", "x");
+		index.refresh("a", entities::get);
+		var reader = index.reader();
+		var ordinals = index.eq("value", "x");
+		entities.remove("a");
+		index.refresh("a", entities::get);
+		entities.put("b", "x");
+		index.refresh("b", entities::get);
+		// a's ordinal is still held by the open reader, b takes another one
+		assertEquals(Set.of(), index.keysOf(ordinals));
+		reader.close();
+		entities.put("c", "x");
+		index.refresh("c", entities::get);
+		assertEquals(Set.of("c"), index.keysOf(ordinals));
+	}
+
+}
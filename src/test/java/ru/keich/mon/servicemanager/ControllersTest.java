@@ -8,23 +8,34 @@ import static org.junit.jupiter.api.Assertions.assertTrue;
 import java.io.IOException;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.util.MultiValueMap;
 
+import io.micrometer.core.instrument.MeterRegistry;
+
+import ru.keich.mon.servicemanager.BaseStatus;
 import ru.keich.mon.servicemanager.entity.Entity;
+import ru.keich.mon.servicemanager.entity.EntityUpdateResult;
 import ru.keich.mon.servicemanager.event.Event;
 import ru.keich.mon.servicemanager.item.Item;
 import ru.keich.mon.servicemanager.item.ItemFilter;
 import ru.keich.mon.servicemanager.item.ItemMaintenance;
 import ru.keich.mon.servicemanager.item.ItemService;
+import ru.keich.mon.servicemanager.query.QueryParamsParser;
+import ru.keich.mon.servicemanager.query.QueryPlan;
+import tools.jackson.databind.json.JsonMapper;
 
 
 @SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
@@ -35,6 +46,9 @@ public class ControllersTest {
 	@Autowired
 	public ApiWrapper apiWrapper;
 
+	@Autowired
+	MeterRegistry registry;
+
 	@Test
 	public void itemAddAndGet() {
 		var key = "itemAddAndGet";
@@ -386,6 +400,142 @@ public class ControllersTest {
 		assertEquals(0, events.stream().filter(i -> !sourceKey.equals(i.getSourceKey())).count());
 	}
 
+	@Test
+	public void eventSearchNdjson() {
+		var key = "eventSearchNdjson";
+		var source = ApiWrapper.PREFIX_SOURCE + key;
+		apiWrapper.addEvents(10, key);
+		var reqParam = Map.of(Entity.FIELD_SOURCE, Collections.singletonList("EQ:" + source),
+				QueryParamsParser.QUERY_PROPERTY, List.of(Entity.FIELD_ID, Entity.FIELD_SOURCE));
+		var lines = apiWrapper.eventSearchNdjson(MultiValueMap.fromMultiValue(reqParam)).lines().toList();
+		assertEquals(10, lines.size());
+		var mapper = JsonMapper.builder().build();
+		for (var line : lines) {
+			var node = mapper.readTree(line);
+			assertEquals(source, node.get(Entity.FIELD_SOURCE).asString());
+			assertEquals(2, node.size());
+		}
+	}
+
+	@Test
+	public void eventSearchPropertiesPerRequest() {
+		var key = "eventSearchPropertiesPerRequest";
+		var source = ApiWrapper.PREFIX_SOURCE + key;
+		apiWrapper.addEvents(5, key);
+		var mapper = JsonMapper.builder().build();
+		var requests = List.of(
+				List.of(Entity.FIELD_SOURCE, Event.FIELD_NODE),
+				List.of(Event.FIELD_NODE, Entity.FIELD_SOURCE),
+				List.of(Entity.FIELD_SOURCEKEY, Entity.FIELD_STATUS),
+				List.of(Entity.FIELD_SOURCE, Event.FIELD_NODE));
+		for (var properties : requests) {
+			var reqParam = Map.of(Entity.FIELD_SOURCE, Collections.singletonList("EQ:" + source),
+					QueryParamsParser.QUERY_PROPERTY, properties);
+			var expected = new HashSet<String>(properties);
+			expected.add(Entity.FIELD_ID);
+			var lines = apiWrapper.eventSearchNdjson(MultiValueMap.fromMultiValue(reqParam)).lines().toList();
+			assertEquals(5, lines.size());
+			for (var line : lines) {
+				var names = new HashSet<String>();
+				mapper.readTree(line).propertyNames().forEach(names::add);
+				assertEquals(expected, names);
+			}
+		}
+	}
+
+	@Test
+	public void eventPredicatesPlan() {
+		var key = "eventPredicatesPlan";
+		var source = ApiWrapper.PREFIX_SOURCE + key;
+		apiWrapper.addEvents(10, key);
+		var reqParam = MultiValueMap.fromMultiValue(Map.of(
+				Event.FIELD_NODE, List.of("CO:" + ApiWrapper.PREFIX_NODE),
+				Entity.FIELD_SOURCEKEY, List.of("EQ:" + ApiWrapper.PREFIX_SOURCEKEY + key),
+				Entity.FIELD_SOURCE, List.of("EQ:" + source),
+				Entity.FIELD_VERSION, List.of("GE:0")));
+		var events = apiWrapper.eventSearch(reqParam);
+		assertEquals(10, events.size());
+		var explain = apiWrapper.eventExplain(reqParam);
+		assertEquals(10, explain.rows());
+		assertEquals(4, explain.plan().size());
+		assertTrue(Set.of(Entity.FIELD_SOURCE, Entity.FIELD_SOURCEKEY).contains(explain.plan().get(0).name()));
+		assertEquals(QueryPlan.ACCESS_INDEX, explain.plan().get(0).access());
+		assertEquals(Event.FIELD_NODE, explain.plan().get(3).name());
+		assertEquals(QueryPlan.ACCESS_FILTER, explain.plan().get(3).access());
+	}
+
+	@Test
+	public void eventCursorPages() {
+		var key = "eventCursorPages";
+		apiWrapper.addEvents(10, key);
+		var reqParam = MultiValueMap.fromMultiValue(Map.of(
+				Entity.FIELD_SOURCE, List.of("EQ:" + ApiWrapper.PREFIX_SOURCE + key),
+				QueryParamsParser.QUERY_LIMIT, List.of("4")));
+		var versions = new ArrayList<Long>();
+		var ids = new HashSet<String>();
+		String cursor = null;
+		var pages = 0;
+		do {
+			var page = apiWrapper.eventSearchPage(reqParam, cursor);
+			page.entities().forEach(e -> {
+				versions.add(e.getVersion());
+				ids.add(e.getId());
+			});
+			cursor = page.nextCursor();
+			pages++;
+		} while (cursor != null);
+		assertEquals(3, pages);
+		assertEquals(10, ids.size());
+		assertEquals(versions.stream().sorted().toList(), versions);
+	}
+
+	@Test
+	public void eventCursorPagesNoGapsOrDuplicates() {
+		var key = "eventCursorPagesNoGapsOrDuplicates";
+		apiWrapper.addEvents(23, key);
+		var reqParam = MultiValueMap.fromMultiValue(Map.of(
+				Entity.FIELD_SOURCE, List.of("EQ:" + ApiWrapper.PREFIX_SOURCE + key),
+				QueryParamsParser.QUERY_LIMIT, List.of("5")));
+		var ids = new ArrayList<String>();
+		String cursor = null;
+		var pages = 0;
+		do {
+			var page = apiWrapper.eventSearchPage(reqParam, cursor);
+			page.entities().forEach(e -> ids.add(e.getId()));
+			cursor = page.nextCursor();
+			pages++;
+		} while (cursor != null);
+		assertEquals(5, pages);
+		assertEquals(23, ids.size());
+		var expected = IntStream.range(0, 23).mapToObj(i -> key + "_" + i).collect(Collectors.toSet());
+		assertEquals(expected, new HashSet<>(ids));
+	}
+
+	@Test
+	public void eventCountAndAggregate() {
+		var key = "eventCountAndAggregate";
+		apiWrapper.addEvents(10, key);
+		var source = Map.of(Entity.FIELD_SOURCE, List.of("EQ:" + ApiWrapper.PREFIX_SOURCE + key));
+		assertEquals(10, apiWrapper.eventAggregate("_count", MultiValueMap.fromMultiValue(source)).count());
+		var reqParam = new HashMap<String, List<String>>(source);
+		reqParam.put(QueryParamsParser.QUERY_GROUPBY, List.of(Entity.FIELD_STATUS));
+		var byStatus = apiWrapper.eventAggregate("_aggregate", MultiValueMap.fromMultiValue(reqParam));
+		assertEquals(10, byStatus.count());
+		assertEquals(10, byStatus.groups().stream().mapToLong(g -> g.count()).sum());
+		var critical = apiWrapper.eventSearch(MultiValueMap.fromMultiValue(source)).stream()
+				.filter(e -> e.getStatus() == BaseStatus.CRITICAL)
+				.count();
+		assertEquals(critical, byStatus.groups().stream()
+				.filter(g -> BaseStatus.CRITICAL.name().equals(g.key().get(Entity.FIELD_STATUS)))
+				.mapToLong(g -> g.count())
+				.sum());
+		reqParam.put(QueryParamsParser.QUERY_GROUPBY, List.of(Entity.FIELD_SOURCE + "," + Event.FIELD_NODE));
+		var byNode = apiWrapper.eventAggregate("_aggregate", MultiValueMap.fromMultiValue(reqParam));
+		assertEquals(10, byNode.groups().size());
+		assertEquals(List.of(Entity.FIELD_SOURCE, Event.FIELD_NODE), byNode.groupBy());
+		assertEquals(10, byNode.groups().stream().mapToLong(g -> g.count()).sum());
+	}
+
 	@Test
 	public void itemTree()  throws InterruptedException {
 		var key = "itemTree";
@@ -524,6 +674,165 @@ public class ControllersTest {
 		assertTrue(result.getCalculated());
 	}
 
+	@Test
+	public void unchangedUpdateKeepsVersion() {
+		var key = "unchangedUpdateKeepsVersion";
+		var counter = registry.counter("ksm_update_suppressed", "servicename", "EventService");
+		var event = new Event.Builder(key + "_event")
+				.source(ApiWrapper.PREFIX_SOURCE + key)
+				.sourceKey(ApiWrapper.PREFIX_SOURCEKEY + key)
+				.node("node1")
+				.fields(Map.of("identity", key))
+				.status(BaseStatus.WARNING)
+				.build();
+		apiWrapper.eventAdd(List.of(event));
+		var version = apiWrapper.eventGet(event.getId()).getVersion();
+		var suppressed = counter.count();
+
+		apiWrapper.eventAdd(List.of(event));
+		assertEquals(version, apiWrapper.eventGet(event.getId()).getVersion());
+		assertEquals(suppressed + 1, counter.count());
+
+		var changed = new Event.Builder(event).status(BaseStatus.MAJOR).build();
+		apiWrapper.eventAdd(List.of(changed));
+		var updated = apiWrapper.eventGet(event.getId());
+		assertTrue(updated.getVersion() > version);
+		assertEquals(BaseStatus.MAJOR, updated.getStatus());
+
+		var item = new Item.Builder(key + "_item")
+				.source(ApiWrapper.PREFIX_SOURCE + key)
+				.sourceKey(ApiWrapper.PREFIX_SOURCEKEY + key)
+				.name("name1")
+				.filters(Map.of("f1", new ItemFilter(BaseStatus.INDETERMINATE, false, Map.of("identity", key + "_none"))))
+				.eventsStatus(Collections.emptyMap())
+				.build();
+		apiWrapper.itemAdd(List.of(item));
+		var itemVersion = apiWrapper.itemGet(item.getId()).getVersion();
+		apiWrapper.itemAdd(List.of(item));
+		assertEquals(itemVersion, apiWrapper.itemGet(item.getId()).getVersion());
+	}
+
+	@Test
+	public void seenByPeerKeepsVersion() {
+		var key = "seenByPeerKeepsVersion";
+		var event = new Event.Builder(key)
+				.source(ApiWrapper.PREFIX_SOURCE + key)
+				.sourceKey(ApiWrapper.PREFIX_SOURCEKEY + key)
+				.fields(Map.of("identity", key))
+				.status(BaseStatus.WARNING)
+				.build();
+		apiWrapper.eventAdd(List.of(event));
+		var version = apiWrapper.eventGet(event.getId()).getVersion();
+
+		var fromPeer = new Event.Builder(event).fromHistory(Set.of("node2", "node3")).build();
+		var results = apiWrapper.eventAddWithResults(List.of(fromPeer));
+		assertEquals(EntityUpdateResult.Status.UNCHANGED, results.get(0).status());
+		var stored = apiWrapper.eventGet(event.getId());
+		assertEquals(version, stored.getVersion());
+		assertTrue(stored.getFromHistory().containsAll(Set.of("node1", "node2", "node3")));
+
+		var body = apiWrapper.eventChanges(version - 1, "node3");
+		assertTrue(!body.contains("\"id\":\"" + key + "\""));
+	}
+
+	@Test
+	public void eventBatchResults() throws InterruptedException {
+		var key = "eventBatchResults";
+		var filter = new ItemFilter(BaseStatus.INDETERMINATE, false, Map.of("identity", key));
+		var item = new Item.Builder(key + "_item")
+				.source(ApiWrapper.PREFIX_SOURCE + key)
+				.sourceKey(ApiWrapper.PREFIX_SOURCEKEY + key)
+				.name("name1")
+				.filters(Map.of("by_identity", filter))
+				.eventsStatus(Collections.emptyMap())
+				.build();
+		apiWrapper.itemAdd(List.of(item));
+
+		var events = new ArrayList<Event>();
+		for (var status : List.of(BaseStatus.WARNING, BaseStatus.MAJOR, BaseStatus.CRITICAL)) {
+			events.add(new Event.Builder(key + "_" + status)
+					.source(ApiWrapper.PREFIX_SOURCE + key)
+					.sourceKey(ApiWrapper.PREFIX_SOURCEKEY + key)
+					.node("node1")
+					.fields(Map.of("identity", key))
+					.status(status)
+					.build());
+		}
+		var results = apiWrapper.eventAddWithResults(events);
+		assertEquals(3, results.size());
+		results.forEach(r -> assertEquals(EntityUpdateResult.Status.CREATED, r.status()));
+
+		Thread.sleep(1000);
+		assertEquals(3, apiWrapper.itemGetEvents(item.getId()).size());
+		assertEquals(BaseStatus.CRITICAL, apiWrapper.itemGet(item.getId()).getStatus());
+		assertTrue(apiWrapper.eventGet(events.get(0).getId()).getCalculated());
+
+		var cleared = new Event.Builder(events.get(2)).status(BaseStatus.CLEAR).build();
+		results = apiWrapper.eventAddWithResults(List.of(events.get(0), cleared));
+		assertEquals(EntityUpdateResult.Status.UNCHANGED, results.get(0).status());
+		assertEquals(EntityUpdateResult.Status.UPDATED, results.get(1).status());
+
+		Thread.sleep(1000);
+		assertEquals(BaseStatus.MAJOR, apiWrapper.itemGet(item.getId()).getStatus());
+	}
+
+	@Test
+	public void eventNdjsonIngest() {
+		var key = "eventNdjsonIngest";
+		var body = new StringBuilder();
+		for (int i = 0; i < 3; i++) {
+			body.append("{\"id\":\"" + key + "_" + i + "\",\"source\":\"" + key + "\",\"sourceKey\":\"" + key
+					+ "\",\"type\":\"PROBLEM\",\"status\":\"WARNING\",\"fields\":{\"identity\":\"" + key + "\"}}\n");
+			if (i == 1) {
+				body.append("{not json\n\n");
+			}
+		}
+		var summary = apiWrapper.eventAddNdjson(body.toString());
+		assertEquals(4, summary.total());
+		assertEquals(3, summary.counts().get(EntityUpdateResult.Status.CREATED));
+		assertEquals(1, summary.failed().size());
+		assertTrue(summary.failed().get(0).error().startsWith("line 3"));
+		assertEquals(BaseStatus.WARNING, apiWrapper.eventGet(key + "_2").getStatus());
+
+		summary = apiWrapper.eventAddNdjson(body.toString());
+		assertEquals(3, summary.counts().get(EntityUpdateResult.Status.UNCHANGED));
+	}
+
+	@Test
+	public void eventChangesBacklog() {
+		var key = "eventChangesBacklog";
+		var first = new Event.Builder(key + "_1")
+				.source(ApiWrapper.PREFIX_SOURCE + key)
+				.sourceKey(ApiWrapper.PREFIX_SOURCEKEY + key)
+				.fields(Map.of("identity", key))
+				.status(BaseStatus.WARNING)
+				.build();
+		apiWrapper.eventAdd(List.of(first));
+		var since = apiWrapper.eventGet(first.getId()).getVersion();
+		var second = new Event.Builder(key + "_2")
+				.source(ApiWrapper.PREFIX_SOURCE + key)
+				.sourceKey(ApiWrapper.PREFIX_SOURCEKEY + key)
+				.fields(Map.of("identity", key))
+				.status(BaseStatus.MAJOR)
+				.build();
+		apiWrapper.eventAdd(List.of(second));
+		var version = apiWrapper.eventGet(second.getId()).getVersion();
+
+		var body = apiWrapper.eventChanges(since, null);
+		assertTrue(body.contains("event:entity"));
+		assertTrue(body.contains("id:" + version));
+		assertTrue(body.contains("\"id\":\"" + second.getId() + "\""));
+		assertTrue(!body.contains("\"id\":\"" + first.getId() + "\""));
+		assertTrue(body.indexOf("event:synced") > body.indexOf("id:" + version));
+
+		body = apiWrapper.eventChanges(since, "node1");
+		assertTrue(!body.contains("event:entity"));
+		assertTrue(body.contains("event:watermark"));
+		assertTrue(body.contains("event:synced"));
+
+		apiWrapper.eventChangesBadLastEventId("not-a-version");
+	}
+
 	// TODO test update not clear internal fields
 	// TODO search test
 	// TODO check tree
@@ -0,0 +1,94 @@
+package ru.keich.mon.servicemanager;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import ru.keich.mon.servicemanager.entity.EntityHashTree;
+import ru.keich.mon.servicemanager.event.Event;
+import ru.keich.mon.servicemanager.event.EventService;
+import ru.keich.mon.servicemanager.item.ItemService;
+import ru.keich.mon.servicemanager.persistence.EntityPersistenceFactory;
+
+public class EntityHashTreeTest {
+
+	private static EventService node(String name) {
+		var registry = new SimpleMeterRegistry();
+		var persistenceFactory = new EntityPersistenceFactory("", 1 << 20, 1000, "binary");
+		var queueFactory = new QueueThreadReaderFactory(registry, 1, 10_000, true);
+		var eventService = new EventService(name, registry, persistenceFactory, queueFactory);
+		new ItemService(name, eventService, registry, persistenceFactory, queueFactory, 60L);
+		return eventService;
+	}
+
+	private static Event event(int i, BaseStatus status) {
+		return new Event.Builder("hashTree_" + i)
+				.source("zabbix")
+				.sourceKey("zabbix_" + (i % 3))
+				.type(Event.EventType.PROBLEM)
+				.status(status)
+				.fields(Map.of("host", "host_" + i))
+				.build();
+	}
+
+	private static BitSet diverged(EntityHashTree a, EntityHashTree b) {
+		var nodes = EntityHashTree.all(1);
+		for (int level = 0; level <= EntityHashTree.DEPTH; level++) {
+			var ha = a.hashes(level, nodes);
+			var hb = b.hashes(level, nodes);
+			var out = new BitSet();
+			var i = 0;
+			for (var node = nodes.nextSetBit(0); node >= 0; node = nodes.nextSetBit(node + 1), i++) {
+				if (ha[i] != hb[i]) {
+					out.set(node);
+				}
+			}
+			if (level == EntityHashTree.DEPTH || out.isEmpty()) {
+				return out;
+			}
+			nodes = EntityHashTree.children(out);
+		}
+		return nodes;
+	}
+
+	@Test
+	public void sameContentSameTree() {
+		var first = node("node1");
+		var second = node("node2");
+		List<Event> events = new ArrayList<>();
+		for (int i = 0; i < 200; i++) {
+			events.add(event(i, BaseStatus.WARNING));
+		}
+		first.addOrUpdateAll(events);
+		second.addOrUpdateAll(events.reversed());
+		second.addOrUpdateAll(List.of(event(7, BaseStatus.MAJOR)));
+		second.addOrUpdateAll(List.of(event(7, BaseStatus.WARNING)));
+		assertEquals(200, first.getHashTree().size());
+		assertArrayEquals(first.getHashTree().hashes(0, null), second.getHashTree().hashes(0, null));
+		assertEquals(0, diverged(first.getHashTree(), second.getHashTree()).cardinality());
+
+		second.addOrUpdateAll(List.of(event(42, BaseStatus.CRITICAL)));
+		second.deleteById(event(43, BaseStatus.WARNING).getId());
+		assertNotEquals(first.getHashTree().hashes(0, null)[0], second.getHashTree().hashes(0, null)[0]);
+		var buckets = diverged(first.getHashTree(), second.getHashTree());
+		var expected = new BitSet();
+		expected.set(EntityHashTree.bucketOf(event(42, BaseStatus.WARNING).getId()));
+		expected.set(EntityHashTree.bucketOf(event(43, BaseStatus.WARNING).getId()));
+		assertEquals(expected, buckets);
+		assertEquals(expected, EntityHashTree.decode(EntityHashTree.encode(buckets)));
+
+		var changes = second.findChanges(0, second.getCommittedVersion(), buckets);
+		assertEquals(2, changes.size());
+		first.addOrUpdateAll(changes);
+		assertEquals(0, diverged(first.getHashTree(), second.getHashTree()).cardinality());
+	}
+
+}
@@ -0,0 +1,65 @@
+package ru.keich.mon.servicemanager;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import ru.keich.mon.servicemanager.item.Item;
+import ru.keich.mon.servicemanager.item.ItemFilter;
+import ru.keich.mon.servicemanager.item.ItemFilterMatcher;
+
+/*
+ * Event to filter matching throughput with Zabbix like fields.
+ * Run with: java -cp target/test-classes:target/classes:<deps> ru.keich.mon.servicemanager.FilterMatcherBenchmark [items]
+ */
+public class FilterMatcherBenchmark {
+
+	public static void main(String[] args) {
+		var count = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+		var hosts = count / 4;
+		var items = new HashMap<String, Item>();
+		for (int i = 0; i < count; i++) {
+			var host = "host-" + (i % hosts) + ".example.com";
+			var filter = switch (i % 4) {
+			case 0 -> Map.of("host", host);
+			case 1 -> Map.of("host", host, "trigger", "Free disk space is less than 10%");
+			case 2 -> Map.of("host", host, "service", "nginx", "env", "prod");
+			default -> Map.of("hostgroup", "group-" + (i % 500), "severity", "5");
+			};
+			var id = "item_" + i;
+			items.put(id, Item.Builder.getDefault(id)
+					.filters(Map.of("filter", new ItemFilter(BaseStatus.CRITICAL, false, filter)))
+					.build());
+		}
+		var matcher = new ItemFilterMatcher();
+		var start = System.nanoTime();
+		items.keySet().forEach(id -> matcher.refresh(id, items::get));
+		System.out.printf("indexed items=%d in %dms%n", matcher.size(), (System.nanoTime() - start) / 1_000_000);
+
+		var random = new Random(1);
+		var events = new Map[10_000];
+		for (int i = 0; i < events.length; i++) {
+			var h = random.nextInt(hosts);
+			events[i] = Map.of("host", "host-" + h + ".example.com",
+					"hostgroup", "group-" + random.nextInt(500),
+					"trigger", random.nextBoolean() ? "Free disk space is less than 10%" : "High CPU utilization",
+					"severity", String.valueOf(random.nextInt(6)),
+					"service", random.nextBoolean() ? "nginx" : "postgres",
+					"env", "prod",
+					"triggerid", String.valueOf(random.nextInt(1_000_000)),
+					"eventid", String.valueOf(i));
+		}
+		for (int run = 0; run < 5; run++) {
+			long matched = 0;
+			start = System.nanoTime();
+			for (var event : events) {
+				@SuppressWarnings("unchecked")
+				Map<String, String> fields = event;
+				matched += matcher.match(fields).size();
+			}
+			var elapsed = System.nanoTime() - start;
+			System.out.printf("events=%d matched=%d %.1fus/event%n", events.length, matched, elapsed / 1000.0 / events.length);
+		}
+	}
+
+}
@@ -0,0 +1,80 @@
+package ru.keich.mon.servicemanager;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Test;
+
+import ru.keich.mon.servicemanager.item.Item;
+import ru.keich.mon.servicemanager.item.ItemFilter;
+import ru.keich.mon.servicemanager.item.ItemFilterMatcher;
+
+public class ItemFilterMatcherTest {
+
+	private Item item(String id, Map<String, String> equalFields) {
+		return Item.Builder.getDefault(id)
+				.filters(Map.of("filter", new ItemFilter(BaseStatus.MAJOR, true, equalFields)))
+				.build();
+	}
+
+	@Test
+	public void match() {
+		var items = new HashMap<String, Item>();
+		items.put("a", item("a", Map.of("host", "h1")));
+		items.put("b", item("b", Map.of("host", "h1", "env", "prod")));
+		items.put("c", item("c", Map.of("env", "prod", "service", "nginx")));
+		items.put("d", item("d", Map.of()));
+		var matcher = new ItemFilterMatcher();
+		items.keySet().forEach(id -> matcher.refresh(id, items::get));
+
+		var ids = matcher.match(Map.of("host", "h1", "env", "prod")).stream().map(ItemFilterMatcher.Match::itemId).sorted().toList();
+		assertEquals(List.of("a", "b"), ids);
+		assertEquals(3, matcher.match(Map.of("host", "h1", "env", "prod", "service", "nginx")).size());
+		assertTrue(matcher.match(Map.of("other", "x")).isEmpty());
+
+		items.put("a", new Item.Builder(items.get("a")).deletedOn(Instant.now()).build());
+		items.put("c", item("c", Map.of("service", "postgres")));
+		matcher.refresh("a", items::get);
+		matcher.refresh("c", items::get);
+		ids = matcher.match(Map.of("host", "h1", "env", "prod", "service", "nginx")).stream().map(ItemFilterMatcher.Match::itemId).toList();
+		assertEquals(List.of("b"), ids);
+		assertEquals(2, matcher.size());
+	}
+
+	@Test
+	public void firstFilterInItemOrder() {
+		var critical = new ItemFilter(BaseStatus.CRITICAL, true, Map.of("host", "h1"));
+		var warning = new ItemFilter(BaseStatus.WARNING, true, Map.of("env", "prod"));
+		var criticalFirst = new LinkedHashMap<String, ItemFilter>();
+		criticalFirst.put("critical", critical);
+		criticalFirst.put("warning", warning);
+		var warningFirst = new LinkedHashMap<String, ItemFilter>();
+		warningFirst.put("warning", warning);
+		warningFirst.put("critical", critical);
+		var items = new HashMap<String, Item>();
+		items.put("a", Item.Builder.getDefault("a").filters(criticalFirst).build());
+		items.put("b", Item.Builder.getDefault("b").filters(warningFirst).build());
+		var matcher = new ItemFilterMatcher();
+		items.keySet().forEach(id -> matcher.refresh(id, items::get));
+
+		var hostFirst = new LinkedHashMap<String, String>();
+		hostFirst.put("host", "h1");
+		hostFirst.put("env", "prod");
+		var envFirst = new LinkedHashMap<String, String>();
+		envFirst.put("env", "prod");
+		envFirst.put("host", "h1");
+		for (var fields : List.of(hostFirst, envFirst)) {
+			var statuses = matcher.match(fields).stream()
+					.collect(Collectors.toMap(ItemFilterMatcher.Match::itemId, m -> m.filter().getResultStatus()));
+			assertEquals(Map.of("a", BaseStatus.CRITICAL, "b", BaseStatus.WARNING), statuses);
+		}
+	}
+
+}
@@ -0,0 +1,43 @@
+package ru.keich.mon.servicemanager;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import ru.keich.mon.servicemanager.item.ChildStatusHistogram;
+import ru.keich.mon.servicemanager.item.ItemRule;
+
+public class ItemRuleTest {
+
+	@Test
+	public void histogram() {
+		var children = ChildStatusHistogram.of(List.of(BaseStatus.CLEAR, BaseStatus.WARNING, BaseStatus.MAJOR, BaseStatus.MAJOR));
+		assertEquals(4, children.getTotal());
+		assertEquals(BaseStatus.MAJOR, children.getMax());
+		assertEquals(3, children.countAtLeast(BaseStatus.WARNING));
+		assertEquals(BaseStatus.WARNING, children.minAtLeast(BaseStatus.INFORMATION));
+
+		var next = children.replace(BaseStatus.MAJOR, null).replace(BaseStatus.MAJOR, BaseStatus.CRITICAL);
+		assertEquals(3, next.getTotal());
+		assertEquals(BaseStatus.CRITICAL, next.getMax());
+		assertEquals(children, next.replace(BaseStatus.CRITICAL, BaseStatus.MAJOR).replace(null, BaseStatus.MAJOR));
+	}
+
+	@Test
+	public void rules() {
+		var children = ChildStatusHistogram.of(List.of(BaseStatus.CLEAR, BaseStatus.WARNING, BaseStatus.MAJOR, BaseStatus.MAJOR));
+		assertEquals(BaseStatus.MAJOR, ItemRule.doDefault(children));
+		assertEquals(BaseStatus.CLEAR, ItemRule.doDefault(ChildStatusHistogram.EMPTY));
+
+		var cluster = new ItemRule(null, false, BaseStatus.WARNING, 75, ItemRule.RuleType.CLUSTER);
+		assertEquals(BaseStatus.WARNING, cluster.calculate(children));
+		var strict = new ItemRule(null, false, BaseStatus.WARNING, 80, ItemRule.RuleType.CLUSTER);
+		assertEquals(BaseStatus.CLEAR, strict.calculate(children));
+		var result = new ItemRule(BaseStatus.CRITICAL, true, BaseStatus.MAJOR, 50, ItemRule.RuleType.CLUSTER);
+		assertEquals(BaseStatus.CRITICAL, result.calculate(children));
+		assertEquals(BaseStatus.CLEAR, cluster.calculate(ChildStatusHistogram.EMPTY));
+	}
+
+}
@@ -0,0 +1,218 @@
+package ru.keich.mon.servicemanager;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.time.Instant;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import ru.keich.mon.servicemanager.event.Event;
+import ru.keich.mon.servicemanager.event.EventBinaryCodec;
+import ru.keich.mon.servicemanager.event.EventService;
+import ru.keich.mon.servicemanager.item.Item;
+import ru.keich.mon.servicemanager.item.ItemBinaryCodec;
+import ru.keich.mon.servicemanager.item.ItemFilter;
+import ru.keich.mon.servicemanager.item.ItemMaintenance;
+import ru.keich.mon.servicemanager.item.ItemRule;
+import ru.keich.mon.servicemanager.item.ItemService;
+import ru.keich.mon.servicemanager.persistence.EntityPersistenceFactory;
+
+public class PersistenceTest {
+
+	@TempDir
+	Path dir;
+
+	private Event event(String id, long version, BaseStatus status) {
+		return Event.Builder.getDefault(id)
+				.version(version)
+				.source("src")
+				.sourceKey("src_key")
+				.node("node")
+				.status(status)
+				.fields(Map.of("key", "value"))
+				.build();
+	}
+
+	private EventService eventService(EntityPersistenceFactory persistenceFactory) {
+		var registry = new SimpleMeterRegistry();
+		var queueFactory = new QueueThreadReaderFactory(registry, 1, 10_000, true);
+		var eventService = new EventService("node1", registry, persistenceFactory, queueFactory);
+		new ItemService("node1", eventService, registry, persistenceFactory, queueFactory, 60L);
+		eventService.afterSingletonsInstantiated();
+		return eventService;
+	}
+
+	@Test
+	public void replayKeepsSameVersionFromHistoryMerge() {
+		var persistenceFactory = new EntityPersistenceFactory(dir.toString(), 1 << 20, 1000, "binary");
+		var service = eventService(persistenceFactory);
+		var event = event("event_0", 0, BaseStatus.WARNING);
+		service.addOrUpdate(new Event.Builder(event).fromHistory(Set.of("node2")).build());
+		var version = service.findById("event_0").get().getVersion();
+		service.addOrUpdate(new Event.Builder(event).fromHistory(Set.of("node3")).build());
+		var merged = service.findById("event_0").get();
+		assertEquals(version, merged.getVersion());
+		assertEquals(Set.of("node1", "node2", "node3"), merged.getFromHistory());
+		service.close();
+
+		var restarted = eventService(persistenceFactory);
+		var loaded = restarted.findById("event_0").get();
+		assertEquals(version, loaded.getVersion());
+		assertEquals(Set.of("node1", "node2", "node3"), loaded.getFromHistory());
+		restarted.close();
+	}
+
+	@Test
+	public void replayKeepsPurgedEntitiesRemoved() {
+		var persistenceFactory = new EntityPersistenceFactory(dir.toString(), 1 << 20, 1000, "binary");
+		var service = eventService(persistenceFactory);
+		service.addOrUpdate(event("event_0", 0, BaseStatus.MAJOR));
+		service.addOrUpdate(event("event_1", 0, BaseStatus.MAJOR));
+		service.deleteByIds(List.of("event_0", "event_1"));
+		ReflectionTestUtils.setField(service, "seconds", -1L);
+		service.deleteOldScheduled();
+		assertTrue(service.findById("event_0").isEmpty());
+		service.addOrUpdate(event("event_1", 0, BaseStatus.WARNING));
+		service.close();
+
+		var restarted = eventService(persistenceFactory);
+		assertTrue(restarted.findById("event_0").isEmpty());
+		assertEquals(BaseStatus.WARNING, restarted.findById("event_1").get().getStatus());
+		restarted.close();
+	}
+
+	@Test
+	public void logReplay() {
+		var factory = new EntityPersistenceFactory(dir.toString(), 1024, 1000, "binary");
+		var persistence = factory.create("event", Event.class, new EventBinaryCodec());
+		for (int i = 0; i < 100; i++) {
+			persistence.append(event("event_" + (i % 10), i + 1, BaseStatus.fromInteger(i % 6)));
+		}
+		persistence.close();
+
+		var loaded = new HashMap<String, Event>();
+		factory.create("event", Event.class, new EventBinaryCodec()).load(e -> loaded.merge(e.getId(), e, (a, b) -> a.getVersion() > b.getVersion() ? a : b));
+		assertEquals(10, loaded.size());
+		var last = loaded.get("event_9");
+		assertEquals(100L, last.getVersion());
+		assertEquals(BaseStatus.fromInteger(99 % 6), last.getStatus());
+		assertEquals("value", last.getFields().get("key"));
+	}
+
+	@Test
+	public void appendsReachLogBeforeClose() throws Exception {
+		var factory = new EntityPersistenceFactory(dir.toString(), 1 << 20, 0, "binary");
+		var persistence = factory.create("event", Event.class, new EventBinaryCodec());
+		var threads = IntStream.range(0, 4).mapToObj(t -> Thread.startVirtualThread(() -> {
+			for (int i = 0; i < 500; i++) {
+				persistence.append(event("event_" + t + "_" + i, i + 1, BaseStatus.WARNING));
+			}
+		})).toList();
+		for (var thread : threads) {
+			thread.join();
+		}
+		var loaded = new HashMap<String, Event>();
+		for (int attempt = 0; attempt < 50 && loaded.size() < 2000; attempt++) {
+			Thread.sleep(20);
+			loaded.clear();
+			factory.create("event", Event.class, new EventBinaryCodec()).load(e -> loaded.put(e.getId(), e));
+		}
+		assertEquals(2000, loaded.size());
+		persistence.close();
+	}
+
+	@Test
+	public void snapshotCompactsLog() throws Exception {
+		var factory = new EntityPersistenceFactory(dir.toString(), 1024, 1000, "binary");
+		var persistence = factory.create("event", Event.class, new EventBinaryCodec());
+		for (int i = 0; i < 50; i++) {
+			persistence.append(event("event_" + i, i + 1, BaseStatus.WARNING));
+		}
+		persistence.snapshot(() -> Stream.of(event("event_0", 50, BaseStatus.CRITICAL)));
+		persistence.append(event("event_1", 51, BaseStatus.MAJOR));
+		persistence.close();
+
+		try (var files = Files.list(dir.resolve("event"))) {
+			assertEquals(2, files.count());
+		}
+		var loaded = new ConcurrentHashMap<String, Event>();
+		factory.create("event", Event.class, new EventBinaryCodec()).load(e -> loaded.put(e.getId(), e));
+		assertEquals(2, loaded.size());
+		assertEquals(BaseStatus.CRITICAL, loaded.get("event_0").getStatus());
+		assertNotNull(loaded.get("event_1"));
+		assertEquals(51L, loaded.get("event_1").getVersion());
+	}
+
+	@Test
+	public void binarySnapshot() {
+		var factory = new EntityPersistenceFactory(dir.toString(), 1 << 20, 1000, "binary");
+		var persistence = factory.create("item", Item.class, new ItemBinaryCodec());
+		var maintenance = new ItemMaintenance(new ItemMaintenance.AbsoluteMaintenance(Instant.parse("2026-01-01T00:00:00Z"), Instant.parse("2026-01-02T00:00:00.5Z")));
+		var items = IntStream.range(0, 40000).mapToObj(i -> Item.Builder.getDefault("item_" + i)
+				.version((long) i + 1)
+				.source("src")
+				.sourceKey("src_key")
+				.name("name_" + i)
+				.status(BaseStatus.fromInteger(i % 6))
+				.fields(Map.of("key", "value_" + (i % 7)))
+				.rules(Map.of("rule", new ItemRule(BaseStatus.MAJOR, true, BaseStatus.WARNING, 50, ItemRule.RuleType.CLUSTER)))
+				.filters(Map.of("filter", new ItemFilter(BaseStatus.CRITICAL, false, Map.of("key", "value_" + i))))
+				.childrenIds(Set.of("item_" + (i + 1)))
+				.eventsStatus(Map.of("event_" + i, BaseStatus.WARNING))
+				.fromHistory(Set.of("node"))
+				.deletedOn(i % 2 == 0 ? null : Instant.ofEpochSecond(i, i))
+				.maintenance(i % 3 == 0 ? maintenance : ItemMaintenance.EMPTY)
+				.build())
+				.toList();
+		persistence.snapshot(() -> items.stream());
+		persistence.close();
+
+		var loaded = new ConcurrentHashMap<String, Item>();
+		factory.create("item", Item.class, new ItemBinaryCodec()).load(e -> loaded.put(e.getId(), e));
+		assertEquals(items.size(), loaded.size());
+		for (var item : items) {
+			var other = loaded.get(item.getId());
+			assertEquals(item.getVersion(), other.getVersion());
+			assertEquals(item.getStatus(), other.getStatus());
+			assertEquals(item.getName(), other.getName());
+			assertEquals(item.getFields(), other.getFields());
+			assertEquals(item.getRules(), other.getRules());
+			assertEquals(item.getFilters(), other.getFilters());
+			assertEquals(item.getChildrenIds(), other.getChildrenIds());
+			assertEquals(item.getEventsStatus(), other.getEventsStatus());
+			assertEquals(item.getFromHistory(), other.getFromHistory());
+			assertEquals(item.getCreatedOn(), other.getCreatedOn());
+			assertEquals(item.getDeletedOn(), other.getDeletedOn());
+			assertEquals(String.valueOf(item.getMaintenance().getAbsolute()), String.valueOf(other.getMaintenance().getAbsolute()));
+		}
+	}
+
+	@Test
+	public void jsonSnapshotReadableAfterFormatChange() {
+		new EntityPersistenceFactory(dir.toString(), 1024, 1000, "json")
+				.create("event", Event.class, new EventBinaryCodec())
+				.snapshot(() -> Stream.of(event("event_0", 7, BaseStatus.MAJOR)));
+
+		var loaded = new ConcurrentHashMap<String, Event>();
+		new EntityPersistenceFactory(dir.toString(), 1024, 1000, "binary")
+				.create("event", Event.class, new EventBinaryCodec())
+				.load(e -> loaded.put(e.getId(), e));
+		assertEquals(7L, loaded.get("event_0").getVersion());
+		assertEquals(BaseStatus.MAJOR, loaded.get("event_0").getStatus());
+	}
+
+}
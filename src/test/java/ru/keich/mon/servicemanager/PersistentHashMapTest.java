@@ -0,0 +1,73 @@
+package ru.keich.mon.servicemanager;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+import ru.keich.mon.servicemanager.util.PersistentHashMap;
+import ru.keich.mon.servicemanager.util.PersistentHashSet;
+
+public class PersistentHashMapTest {
+
+	private record Key(int hash, int id) {
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+	}
+
+	@Test
+	public void randomOperations() {
+		var random = new Random(1);
+		var expected = new HashMap<Key, Integer>();
+		var map = PersistentHashMap.<Key, Integer>empty();
+		for (int i = 0; i < 100000; i++) {
+			// few hashes for many ids, so collision nodes are exercised too
+			var key = new Key(random.nextInt(2000) * 31, random.nextInt(3));
+			if (random.nextInt(3) == 0) {
+				expected.remove(key);
+				map = map.minus(key);
+			} else {
+				expected.put(key, i);
+				map = map.plus(key, i);
+			}
+		}
+		assertEquals(expected.size(), map.size());
+		assertEquals(expected, map);
+		assertEquals(map, expected);
+		assertEquals(expected.hashCode(), map.hashCode());
+		var entries = map.entrySet();
+		expected.forEach((k, v) -> assertTrue(entries.contains(Map.entry(k, v))));
+		assertEquals(expected.entrySet(), new HashSet<>(entries));
+	}
+
+	@Test
+	public void structuralSharing() {
+		var map = PersistentHashMap.<String, String>empty().plus("a", "1").plus("b", "2");
+		var next = map.plus("c", "3");
+		assertEquals(2, map.size());
+		assertEquals(3, next.size());
+		assertFalse(map.containsKey("c"));
+		assertSame(next, next.plus("c", "3"));
+		assertSame(next, next.minus("d"));
+		assertSame(map, PersistentHashMap.of(map));
+		assertEquals(PersistentHashMap.empty(), map.minus("a").minus("b"));
+		assertThrows(UnsupportedOperationException.class, () -> next.put("d", "4"));
+
+		var set = PersistentHashSet.of(Set.of("a", "b"));
+		assertEquals(Set.of("a", "b", "c"), set.plus("c"));
+		assertEquals(Set.of("b"), set.minus("a"));
+		assertSame(set, set.plus("a"));
+	}
+
+}
@@ -0,0 +1,134 @@
+package ru.keich.mon.servicemanager;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import ru.keich.mon.servicemanager.entity.EntityService;
+
+public class QueueThreadReaderTest {
+
+	@Test
+	public void sameKeyInOrder() throws InterruptedException {
+		var keys = 10;
+		var values = 1000;
+		var latch = new CountDownLatch(keys * values);
+		Map<Integer, List<Integer>> consumed = new ConcurrentHashMap<>();
+		var reader = new QueueThreadReader<int[]>(4, Integer.MAX_VALUE, false, v -> v[0], v -> {
+			consumed.computeIfAbsent(v[0], k -> new ArrayList<>()).add(v[1]);
+			latch.countDown();
+		});
+		for (int i = 0; i < values; i++) {
+			for (int k = 0; k < keys; k++) {
+				reader.add(new int[] { k, i });
+			}
+		}
+		assertTrue(latch.await(10, TimeUnit.SECONDS));
+		assertEquals(keys, consumed.size());
+		consumed.values().forEach(list -> {
+			assertEquals(values, list.size());
+			for (int i = 0; i < values; i++) {
+				assertEquals(i, list.get(i));
+			}
+		});
+		assertEquals(0, reader.size());
+	}
+
+	/*
+	 * Consumer that holds the lane on "block" until released, so added values stay pending.
+	 */
+	private static class Blocking {
+		final List<String> consumed = Collections.synchronizedList(new ArrayList<>());
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+
+		void accept(String value) {
+			if ("block".equals(value) && started.getCount() > 0) {
+				started.countDown();
+				try {
+					release.await(10, TimeUnit.SECONDS);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+			consumed.add(value);
+		}
+
+		void awaitConsumed(int count) throws InterruptedException {
+			var deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+			while (consumed.size() < count && System.nanoTime() < deadline) {
+				Thread.sleep(10);
+			}
+		}
+	}
+
+	@Test
+	public void coalescingDropsEqualPending() throws InterruptedException {
+		var blocking = new Blocking();
+		var reader = new QueueThreadReader<String>(1, Integer.MAX_VALUE, true, v -> v, blocking::accept);
+		reader.add("block");
+		assertTrue(blocking.started.await(10, TimeUnit.SECONDS));
+		reader.add("a");
+		reader.add("a");
+		reader.add("b");
+		reader.add("a");
+		assertEquals(2, reader.size());
+		assertEquals(2.0 / 5, reader.getMergeRatio());
+		blocking.release.countDown();
+		blocking.awaitConsumed(3);
+		assertEquals(List.of("block", "a", "b"), blocking.consumed);
+		assertEquals(0, reader.size());
+	}
+
+	@Test
+	public void coalescingRequeuesTakenValue() throws InterruptedException {
+		var blocking = new Blocking();
+		var reader = new QueueThreadReader<String>(1, Integer.MAX_VALUE, true, v -> v, blocking::accept);
+		reader.add("block");
+		assertTrue(blocking.started.await(10, TimeUnit.SECONDS));
+		reader.add("block");
+		assertEquals(1, reader.size());
+		assertEquals(0.0, reader.getMergeRatio());
+		blocking.release.countDown();
+		blocking.awaitConsumed(2);
+		assertEquals(List.of("block", "block"), blocking.consumed);
+	}
+
+	@Test
+	public void coalescingMetrics() throws InterruptedException {
+		var registry = new SimpleMeterRegistry();
+		var blocking = new Blocking();
+		var reader = new QueueThreadReader<String>("test", registry, 1, Integer.MAX_VALUE, true, v -> v, blocking::accept);
+		var prefix = EntityService.METRIC_NAME_PREFIX + QueueThreadReader.METRIC_NAME_QUEUE;
+		var pending = registry.get(prefix + QueueThreadReader.METRIC_NAME_PENDING)
+				.tags(QueueThreadReader.METRIC_NAME_SERVICENAME, "test").gauge();
+		var mergeRatio = registry.get(prefix + QueueThreadReader.METRIC_NAME_MERGE_RATIO)
+				.tags(QueueThreadReader.METRIC_NAME_SERVICENAME, "test").gauge();
+		var merged = registry.get(prefix + QueueThreadReader.METRIC_NAME_OPERATION)
+				.tags(QueueThreadReader.METRIC_NAME_SERVICENAME, "test", QueueThreadReader.METRIC_NAME_OPERATION, QueueThreadReader.METRIC_NAME_MERGED)
+				.functionCounter();
+		reader.add("block");
+		assertTrue(blocking.started.await(10, TimeUnit.SECONDS));
+		reader.add("a");
+		reader.add("a");
+		reader.add("a");
+		assertEquals(1.0, pending.value());
+		assertEquals(2.0, merged.count());
+		assertEquals(0.5, mergeRatio.value());
+		blocking.release.countDown();
+		blocking.awaitConsumed(2);
+		assertEquals(0.0, pending.value());
+		assertEquals(0.5, mergeRatio.value());
+	}
+
+}
@@ -0,0 +1,158 @@
+package ru.keich.mon.servicemanager;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import ru.keich.mon.servicemanager.entity.EntityController;
+import ru.keich.mon.servicemanager.event.Event;
+import ru.keich.mon.servicemanager.event.EventBinaryCodec;
+import ru.keich.mon.servicemanager.event.EventService;
+import ru.keich.mon.servicemanager.item.ItemService;
+import ru.keich.mon.servicemanager.persistence.BinaryChangeStream;
+import ru.keich.mon.servicemanager.persistence.EntityPersistenceFactory;
+import tools.jackson.databind.DeserializationFeature;
+import tools.jackson.databind.json.JsonMapper;
+import tools.jackson.databind.ser.std.SimpleBeanPropertyFilter;
+import tools.jackson.databind.ser.std.SimpleFilterProvider;
+
+/*
+ * Replicates events between two in-process nodes through the change feed formats:
+ * server-sent events with JSON data as the neighbor sends them, and binary frames.
+ * The source backlog is encoded, decoded in 64KB chunks and applied to an empty
+ * node with addOrUpdateAll in pages of 1000.
+ *
+ * Run with: java -Xmx6g -cp target/test-classes:target/classes:<deps> ru.keich.mon.servicemanager.ReplicationCodecBenchmark [events]
+ */
+public class ReplicationCodecBenchmark {
+	static final int PAGE = 1000;
+	static final int CHUNK = 1 << 16;
+
+	public static void main(String[] args) {
+		var count = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+		var source = createNode("source");
+		var events = new ArrayList<Event>(PAGE);
+		for (int i = 0; i < count; i++) {
+			events.add(Event.Builder.getDefault("event_" + i)
+					.source("zabbix")
+					.sourceKey("zabbix_" + (i % 10))
+					.node("node_" + (i % 5000))
+					.summary("Problem " + (i % 300) + " on host")
+					.status(BaseStatus.fromInteger(i % 6))
+					.fields(Map.of("host", "host_" + (i % 5000), "trigger", "trigger_" + (i % 300), "severity", String.valueOf(i % 6)))
+					.build());
+			if (events.size() == PAGE) {
+				source.addOrUpdateAll(events);
+				events.clear();
+			}
+		}
+		source.addOrUpdateAll(events);
+		var backlog = source.findChanges(0, source.getCommittedVersion());
+		System.out.printf("source node has %d events%n", backlog.size());
+		for (int run = 0; run < 2; run++) {
+			replicate("json", backlog, ReplicationCodecBenchmark::encodeJson, ReplicationCodecBenchmark::decodeJson);
+			replicate("binary", backlog, ReplicationCodecBenchmark::encodeBinary, ReplicationCodecBenchmark::decodeBinary);
+		}
+	}
+
+	private static EventService createNode(String name) {
+		var registry = new SimpleMeterRegistry();
+		var persistenceFactory = new EntityPersistenceFactory("", 1 << 26, 1000, "binary");
+		var queueFactory = new QueueThreadReaderFactory(registry, 1, 100_000, true);
+		var eventService = new EventService(name, registry, persistenceFactory, queueFactory);
+		new ItemService(name, eventService, registry, persistenceFactory, queueFactory, 60L);
+		return eventService;
+	}
+
+	private interface Encoder {
+		byte[] encode(List<Event> backlog);
+	}
+
+	private interface Decoder {
+		void decode(byte[] stream, Consumer<Event> consumer);
+	}
+
+	private static void replicate(String format, List<Event> backlog, Encoder encoder, Decoder decoder) {
+		var target = createNode("target");
+		var start = System.nanoTime();
+		var stream = encoder.encode(backlog);
+		var encoded = System.nanoTime() - start;
+		var page = new ArrayList<Event>(PAGE);
+		var decodeNanos = new long[1];
+		var applyNanos = new long[1];
+		var last = new long[] { System.nanoTime() };
+		decoder.decode(stream, event -> {
+			page.add(event);
+			if (page.size() == PAGE) {
+				var now = System.nanoTime();
+				decodeNanos[0] += now - last[0];
+				target.addOrUpdateAll(page);
+				page.clear();
+				last[0] = System.nanoTime();
+				applyNanos[0] += last[0] - now;
+			}
+		});
+		var now = System.nanoTime();
+		decodeNanos[0] += now - last[0];
+		target.addOrUpdateAll(page);
+		applyNanos[0] += System.nanoTime() - now;
+		var total = encoded + decodeNanos[0] + applyNanos[0];
+		System.out.printf("%-6s events=%d bytes=%dMB (%d/event) encode=%dms decode=%dms apply=%dms codec=%.0f events/s end-to-end=%.0f events/s%n",
+				format, target.findChanges(0, target.getCommittedVersion()).size(), stream.length >> 20, stream.length / backlog.size(),
+				encoded / 1_000_000, decodeNanos[0] / 1_000_000, applyNanos[0] / 1_000_000,
+				backlog.size() / ((encoded + decodeNanos[0]) / 1e9), backlog.size() / (total / 1e9));
+	}
+
+	private static byte[] encodeJson(List<Event> backlog) {
+		var writer = JsonMapper.builder().build()
+				.writer(new SimpleFilterProvider().addFilter(EntityController.FILTER_NAME, SimpleBeanPropertyFilter.serializeAll()));
+		var out = new ByteArrayOutputStream();
+		for (var event : backlog) {
+			var frame = "id:" + event.getVersion() + "\nevent:" + EntityController.CHANGES_EVENT_ENTITY
+					+ "\ndata:" + writer.writeValueAsString(event) + "\n\n";
+			out.writeBytes(frame.getBytes(StandardCharsets.UTF_8));
+		}
+		return out.toByteArray();
+	}
+
+	private static void decodeJson(byte[] stream, Consumer<Event> consumer) {
+		var mapper = JsonMapper.builder().disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES).build();
+		var text = new String(stream, StandardCharsets.UTF_8);
+		var position = 0;
+		while (true) {
+			var data = text.indexOf("\ndata:", position);
+			if (data < 0) {
+				return;
+			}
+			var end = text.indexOf('\n', data + 6);
+			consumer.accept(mapper.readValue(text.substring(data + 6, end), Event.class));
+			position = end;
+		}
+	}
+
+	private static byte[] encodeBinary(List<Event> backlog) {
+		var writer = new BinaryChangeStream.Writer<Event>(new EventBinaryCodec());
+		var out = new ByteArrayOutputStream();
+		for (var event : backlog) {
+			writer.entity(event);
+			if (writer.size() >= CHUNK) {
+				out.writeBytes(writer.drain());
+			}
+		}
+		out.writeBytes(writer.drain());
+		return out.toByteArray();
+	}
+
+	private static void decodeBinary(byte[] stream, Consumer<Event> consumer) {
+		var reader = new BinaryChangeStream.Reader<Event>(new EventBinaryCodec());
+		for (int offset = 0; offset < stream.length; offset += CHUNK) {
+			reader.read(ByteBuffer.wrap(stream, offset, Math.min(CHUNK, stream.length - offset)), frame -> consumer.accept(frame.entity()));
+		}
+	}
+
+}
@@ -13,7 +13,10 @@ import java.util.Map;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.util.MultiValueMap;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import ru.keich.mon.servicemanager.entity.Entity;
 import ru.keich.mon.servicemanager.event.Event;
 import ru.keich.mon.servicemanager.item.Item;
 import ru.keich.mon.servicemanager.item.ItemFilter;
@@ -24,6 +27,37 @@ public class SearchApiTest {
 	@Autowired
 	public ApiWrapper apiWrapper;
 
+	@Autowired
+	public MeterRegistry registry;
+
+	@Test
+	public void eventCachedSearchSeesNewData() {
+		var key = "eventCachedSearchSeesNewData";
+		var search = "source = \"src_" + key + "\"";
+		var hits = registry.counter("ksm_search_cache", "servicename", "EventService", "result", "hit");
+		apiWrapper.addEvents(5, key);
+		assertEquals(5, apiWrapper.eventSearch(search).size());
+		var before = hits.count();
+		apiWrapper.addEvents(10, key);
+		assertEquals(10, apiWrapper.eventSearch(search).size());
+		assertEquals(before + 1, hits.count());
+	}
+
+	@Test
+	public void eventCachedResultSeesNewData() {
+		var key = "eventCachedResultSeesNewData";
+		var reqParam = MultiValueMap.fromMultiValue(Map.of(Entity.FIELD_SOURCE, List.of("EQ:" + ApiWrapper.PREFIX_SOURCE + key)));
+		var hits = registry.get("ksm_result_cache").tags("servicename", "EventService", "result", "hit").functionCounter();
+		apiWrapper.addEvents(5, key);
+		assertEquals(5, apiWrapper.eventSearch(reqParam).size());
+		var before = hits.count();
+		assertEquals(5, apiWrapper.eventSearch(reqParam).size());
+		assertEquals(before + 1, hits.count());
+		apiWrapper.addEvents(10, key);
+		assertEquals(10, apiWrapper.eventSearch(reqParam).size());
+		assertEquals(before + 1, hits.count());
+	}
+
 	@Test
 	public void itemIdEqual() {
 		var key = "itemIdEqual";
@@ -0,0 +1,74 @@
+package ru.keich.mon.servicemanager;
+
+import java.util.List;
+import java.util.Map;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import ru.keich.mon.servicemanager.entity.EntitySearchListener;
+import ru.keich.mon.servicemanager.entity.EntitySearchListener.ServiceType;
+import ru.keich.mon.servicemanager.entity.EntityService;
+import ru.keich.mon.servicemanager.entity.SearchNode;
+import ru.keich.mon.servicemanager.event.Event;
+import ru.keich.mon.servicemanager.event.EventService;
+import ru.keich.mon.servicemanager.item.ItemService;
+import ru.keich.mon.servicemanager.persistence.EntityPersistenceFactory;
+import ru.keich.mon.servicemanager.util.LruCache;
+
+/*
+ * Parse and evaluate of GUI like searches on every request against the compiled search cache.
+ * Run with: java -cp target/test-classes:target/classes:<deps> ru.keich.mon.servicemanager.SearchCacheBenchmark [events]
+ */
+public class SearchCacheBenchmark {
+
+	private static final List<String> SEARCHES = List.of(
+			"status >= warning AND source = \"zabbix\"",
+			"node LIKE \"db-\" AND (status = critical OR status = major)",
+			"fields.\"severity\" = \"5\" AND deletedOn IS NULL",
+			"source IN (\"zabbix\", \"prometheus\") AND summary NOT LIKE \"test\"");
+
+	public static void main(String[] args) {
+		var count = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+		var registry = new SimpleMeterRegistry();
+		var persistenceFactory = new EntityPersistenceFactory("", 1 << 26, 1000, "binary");
+		var queueFactory = new QueueThreadReaderFactory(registry, 1, 100_000, true);
+		var eventService = new EventService("bench", registry, persistenceFactory, queueFactory);
+		var itemService = new ItemService("bench", eventService, registry, persistenceFactory, queueFactory, 60L);
+		for (int i = 0; i < count; i++) {
+			eventService.addOrUpdate(Event.Builder.getDefault("event_" + i)
+					.source(i % 2 == 0 ? "zabbix" : "prometheus")
+					.sourceKey("bench")
+					.node((i % 3 == 0 ? "db-" : "web-") + i)
+					.summary("Problem " + (i % 50))
+					.status(BaseStatus.fromInteger(i % 6))
+					.fields(Map.of("severity", String.valueOf(i % 6)))
+					.build());
+		}
+		var cache = new LruCache<String, SearchNode>(EntityService.SEARCH_CACHE_SIZE);
+		var requests = 20_000;
+		for (int run = 0; run < 5; run++) {
+			long rows = 0;
+			var start = System.nanoTime();
+			for (int i = 0; i < requests; i++) {
+				var search = SEARCHES.get(i % SEARCHES.size());
+				rows += EntitySearchListener.compile(search, eventService, itemService, ServiceType.EVENT).evaluate().cardinality();
+			}
+			var parsed = System.nanoTime() - start;
+			start = System.nanoTime();
+			for (int i = 0; i < requests; i++) {
+				var search = SEARCHES.get(i % SEARCHES.size());
+				rows -= cache.computeIfAbsent(search, s -> EntitySearchListener.compile(s, eventService, itemService, ServiceType.EVENT))
+						.evaluate().cardinality();
+			}
+			var cached = System.nanoTime() - start;
+			start = System.nanoTime();
+			for (int i = 0; i < requests; i++) {
+				EntitySearchListener.compile(SEARCHES.get(i % SEARCHES.size()), eventService, itemService, ServiceType.EVENT);
+			}
+			var compileOnly = System.nanoTime() - start;
+			System.out.printf("run %d: parse+evaluate %.1fus, cached+evaluate %.1fus, parse only %.1fus, rows diff %d%n",
+					run, parsed / 1e3 / requests, cached / 1e3 / requests, compileOnly / 1e3 / requests, rows);
+		}
+		System.exit(0);
+	}
+
+}
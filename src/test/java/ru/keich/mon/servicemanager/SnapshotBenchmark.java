@@ -0,0 +1,62 @@
+package ru.keich.mon.servicemanager;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.IntStream;
+
+import ru.keich.mon.servicemanager.event.Event;
+import ru.keich.mon.servicemanager.event.EventBinaryCodec;
+import ru.keich.mon.servicemanager.persistence.EntityPersistenceFactory;
+
+/*
+ * Compares cold start from a JSON snapshot against the binary one.
+ * Run with: java -cp target/test-classes:target/classes:<deps> ru.keich.mon.servicemanager.SnapshotBenchmark [events]
+ */
+public class SnapshotBenchmark {
+
+	public static void main(String[] args) throws Exception {
+		var count = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+		var events = IntStream.range(0, count).mapToObj(i -> Event.Builder.getDefault("event_" + i)
+				.version((long) i)
+				.source("zabbix")
+				.sourceKey("zabbix_" + i)
+				.node("node_" + (i % 5000))
+				.summary("Problem " + (i % 300) + " on host")
+				.status(BaseStatus.fromInteger(i % 6))
+				.fields(Map.of("host", "host_" + (i % 5000), "trigger", "trigger_" + (i % 300), "severity", String.valueOf(i % 6)))
+				.fromHistory(Set.of("node1"))
+				.itemIds(Set.of("item_" + (i % 5000)))
+				.build())
+				.toList();
+		var dir = Files.createTempDirectory("ksm-snapshot");
+		try {
+			for (var format : new String[] { "json", "binary" }) {
+				var factory = new EntityPersistenceFactory(dir.resolve(format).toString(), 1 << 26, 1000, format);
+				var start = System.nanoTime();
+				factory.create("event", Event.class, new EventBinaryCodec()).snapshot(() -> events.stream());
+				var written = System.nanoTime() - start;
+				long size;
+				try (var files = Files.list(dir.resolve(format).resolve("event"))) {
+					size = files.mapToLong(p -> p.toFile().length()).sum();
+				}
+				for (int run = 0; run < 3; run++) {
+					var cache = new ConcurrentHashMap<String, Event>();
+					start = System.nanoTime();
+					factory.create("event", Event.class, new EventBinaryCodec()).load(e -> cache.put(e.getId(), e));
+					var loaded = System.nanoTime() - start;
+					System.out.printf("%-6s events=%d size=%dMB write=%dms load=%dms%n",
+							format, cache.size(), size >> 20, written / 1_000_000, loaded / 1_000_000);
+				}
+			}
+		} finally {
+			try (var files = Files.walk(dir)) {
+				files.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(f -> f.delete());
+			}
+		}
+	}
+
+}
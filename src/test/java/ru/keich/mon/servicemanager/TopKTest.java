@@ -0,0 +1,44 @@
+package ru.keich.mon.servicemanager;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import ru.keich.mon.servicemanager.util.TopK;
+
+public class TopKTest {
+
+	private record Row(int a, String b, int id) {}
+
+	@Test
+	public void sameAsSortedLimit() {
+		var random = new Random(7);
+		var rows = new ArrayList<Row>();
+		for (int i = 0; i < 5000; i++) {
+			rows.add(new Row(random.nextInt(20), "b" + random.nextInt(10), i));
+		}
+		Comparator<Row> comparator = Comparator.comparingInt(Row::a).reversed();
+		comparator = comparator.thenComparing(Row::b);
+		for (int k : List.of(0, 1, 10, 333, 5000, 10000)) {
+			var expected = rows.stream().sorted(comparator).limit(k).toList();
+			var actual = rows.stream().collect(TopK.collector(comparator, k));
+			assertEquals(expected, actual, "k=" + k);
+		}
+	}
+
+	@Test
+	public void parallel() {
+		var rows = new ArrayList<Integer>();
+		for (int i = 0; i < 10000; i++) {
+			rows.add((i * 7919) % 10000);
+		}
+		var actual = rows.parallelStream().collect(TopK.collector(Comparator.<Integer>naturalOrder(), 5));
+		assertEquals(List.of(0, 1, 2, 3, 4), actual);
+	}
+
+}
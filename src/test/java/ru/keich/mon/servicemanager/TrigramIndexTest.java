@@ -0,0 +1,69 @@
+package ru.keich.mon.servicemanager;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Test;
+
+import ru.keich.mon.servicemanager.util.TrigramIndex;
+
+public class TrigramIndexTest {
+
+	private static String randomText(Random random, int length) {
+		var alphabet = "abcABC xyz-01";
+		var sb = new StringBuilder();
+		for (int i = 0; i < length; i++) {
+			sb.append(alphabet.charAt(random.nextInt(alphabet.length())));
+		}
+		return sb.toString();
+	}
+
+	@Test
+	public void candidatesCoverSubstringMatches() {
+		var random = new Random(3);
+		var values = new HashMap<Integer, String>();
+		var index = new TrigramIndex<Integer, String>(v -> Collections.singleton(v), false);
+		for (int round = 0; round < 3; round++) {
+			for (int i = 0; i < 2000; i++) {
+				if (random.nextInt(10) == 0) {
+					values.remove(i);
+				} else {
+					values.put(i, randomText(random, random.nextInt(12)));
+				}
+				index.refresh(i, values::get);
+			}
+		}
+		for (int q = 0; q < 300; q++) {
+			var query = randomText(random, 3 + random.nextInt(3));
+			var expected = values.entrySet().stream()
+					.filter(e -> e.getValue().contains(query))
+					.map(Map.Entry::getKey)
+					.collect(Collectors.toSet());
+			var candidates = index.candidates(query);
+			assertTrue(candidates.containsAll(expected), query);
+			var prefix = query.substring(0, 3).toLowerCase();
+			candidates.forEach(id -> assertTrue(values.get(id).toLowerCase().contains(prefix), query));
+		}
+		assertNull(index.candidates("ab"));
+		assertNull(index.candidates(Map.entry("k", "abc")));
+	}
+
+	@Test
+	public void entriesAreScopedByKey() {
+		var fields = Map.of(1, Map.of("host", "db-primary"), 2, Map.of("service", "db-primary"));
+		var index = new TrigramIndex<Integer, Map<String, String>>(f -> Set.copyOf(f.entrySet()), true);
+		fields.keySet().forEach(id -> index.refresh(id, fields::get));
+		assertEquals(Set.of(1), index.candidates(Map.entry("host", "PRIMARY")));
+		assertEquals(Set.of(2), index.candidates(Map.entry("service", "db-")));
+		assertNull(index.candidates("primary"));
+	}
+
+}
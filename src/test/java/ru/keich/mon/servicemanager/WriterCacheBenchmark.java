@@ -0,0 +1,66 @@
+package ru.keich.mon.servicemanager;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import ru.keich.mon.servicemanager.entity.EntityController;
+import ru.keich.mon.servicemanager.event.Event;
+import ru.keich.mon.servicemanager.util.LruCache;
+import tools.jackson.databind.ObjectWriter;
+import tools.jackson.databind.json.JsonMapper;
+import tools.jackson.databind.ser.std.SimpleBeanPropertyFilter;
+import tools.jackson.databind.ser.std.SimpleFilterProvider;
+
+/*
+ * Per request mapper against cached writers for GUI like property selections.
+ * Run with: java -cp target/test-classes:target/classes:<deps> ru.keich.mon.servicemanager.WriterCacheBenchmark [events]
+ */
+public class WriterCacheBenchmark {
+
+	private static final List<Set<String>> SELECTIONS = List.of(
+			Set.of("id", "status", "node", "summary", "updatedOn"),
+			Set.of("id", "status", "node", "summary", "createdOn", "updatedOn", "fields"),
+			Set.of("id", "name", "status", "aggStatus"),
+			Set.of("id", "version"));
+
+	private static SimpleFilterProvider filter(Set<String> properties) {
+		return new SimpleFilterProvider()
+				.addFilter(EntityController.FILTER_NAME, SimpleBeanPropertyFilter.filterOutAllExcept(properties))
+				.setFailOnUnknownId(false);
+	}
+
+	public static void main(String[] args) {
+		var count = args.length > 0 ? Integer.parseInt(args[0]) : 50;
+		var events = new ArrayList<Event>();
+		for (int i = 0; i < count; i++) {
+			events.add(Event.Builder.getDefault("event_" + i)
+					.node("host-" + i + ".example.com")
+					.summary("Free disk space is less than 10% on /var")
+					.fields(Map.of("host", "host-" + i, "triggerid", String.valueOf(i), "severity", "4"))
+					.build());
+		}
+		var mapper = JsonMapper.builder().build();
+		var writers = new LruCache<Set<String>, ObjectWriter>(256);
+		var requests = 20_000;
+		for (int run = 0; run < 5; run++) {
+			long bytes = 0;
+			var start = System.nanoTime();
+			for (int i = 0; i < requests; i++) {
+				var properties = SELECTIONS.get(i % SELECTIONS.size());
+				bytes += JsonMapper.builder().filterProvider(filter(properties)).build().writeValueAsBytes(events).length;
+			}
+			var fresh = System.nanoTime() - start;
+			start = System.nanoTime();
+			for (int i = 0; i < requests; i++) {
+				var properties = SELECTIONS.get(i % SELECTIONS.size());
+				bytes -= writers.computeIfAbsent(Set.copyOf(properties), p -> mapper.writer(filter(p))).writeValueAsBytes(events).length;
+			}
+			var cached = System.nanoTime() - start;
+			System.out.printf("run %d: fresh mapper %.0f req/s, cached writer %.0f req/s, bytes diff %d%n",
+					run, requests * 1e9 / fresh, requests * 1e9 / cached, bytes);
+		}
+	}
+
+}